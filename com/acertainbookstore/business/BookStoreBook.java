@@ -1,11 +1,18 @@
 package com.acertainbookstore.business;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
+ * <p>
+ * The counters and the editor pick are only read and written through their
+ * getters and setters, so that {@link StockColumnBook} can keep them in a
+ * {@link StockColumnTable} instead of in the fields.
  * 
  * @see Book
  * @see StockBook
@@ -28,6 +35,29 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
+	/** The {@link ImmutableBook} view, made on first use since it never changes. */
+	private ImmutableBook bookView;
+
+	/** The last {@link StockBook} view made, reused while the book is unchanged. */
+	private StockBook stockBookView;
+
+	/**
+	 * The version stamp of the book. It is even while the book is stable and
+	 * odd while a writer is installing changes, cf. {@link #tryLockVersion}.
+	 */
+	private volatile long version;
+
+	/** The handle used to compare-and-set the version stamp. */
+	private static final VarHandle VERSION;
+
+	static {
+		try {
+			VERSION = MethodHandles.lookup().findVarHandle(BookStoreBook.class, "version", long.class);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
 	 *
@@ -45,11 +75,8 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
 		super(isbn, title, author, price);
 
-		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
-		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
-		this.setEditorPick(false);
+		// The fields are set directly, since the setters may be overridden.
+		this.numCopies = numCopies;
 	}
 
 	/**
@@ -62,11 +89,43 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(StockBook bookToCopy) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
-		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
-		this.setNumTimesRated(bookToCopy.getNumTimesRated());
-		this.setNumCopies(bookToCopy.getNumCopies());
-		this.setTotalRating(bookToCopy.getTotalRating());
-		this.setEditorPick(bookToCopy.isEditorPick());
+		this.numSaleMisses = bookToCopy.getNumSaleMisses();
+		this.numTimesRated = bookToCopy.getNumTimesRated();
+		this.numCopies = bookToCopy.getNumCopies();
+		this.totalRating = bookToCopy.getTotalRating();
+		this.editorPick = bookToCopy.isEditorPick();
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreBook} copying all the fields of
+	 * another one, e.g. to keep a before-image of it.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 */
+	public BookStoreBook(BookStoreBook bookToCopy) {
+		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
+
+		this.numSaleMisses = bookToCopy.getNumSaleMisses();
+		this.numTimesRated = bookToCopy.getNumTimesRated();
+		this.numCopies = bookToCopy.getNumCopies();
+		this.totalRating = bookToCopy.getTotalRating();
+		this.editorPick = bookToCopy.isEditorPick();
+	}
+
+	/**
+	 * Restores the counters and the editor pick of the book from a
+	 * before-image of it.
+	 *
+	 * @param beforeImage
+	 *            the before-image
+	 */
+	void restore(BookStoreBook beforeImage) {
+		setNumSaleMisses(beforeImage.getNumSaleMisses());
+		setNumTimesRated(beforeImage.getNumTimesRated());
+		setNumCopies(beforeImage.getNumCopies());
+		setTotalRating(beforeImage.getTotalRating());
+		setEditorPick(beforeImage.isEditorPick());
 	}
 
 	/**
@@ -111,7 +170,8 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		long timesRated = getNumTimesRated();
+		return (timesRated == 0 ? -1.0f : (float) getTotalRating() / timesRated);
 	}
 
 	/**
@@ -129,7 +189,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @param totalRating
 	 *            the new total rating
 	 */
-	private void setTotalRating(long totalRating) {
+	void setTotalRating(long totalRating) {
 		this.totalRating = totalRating;
 	}
 
@@ -139,7 +199,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @param numTimesRated
 	 *            the new number of times rated
 	 */
-	private void setNumTimesRated(long numTimesRated) {
+	void setNumTimesRated(long numTimesRated) {
 		this.numTimesRated = numTimesRated;
 	}
 
@@ -149,7 +209,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @param numCopies
 	 *            the new number of copies
 	 */
-	private void setNumCopies(int numCopies) {
+	void setNumCopies(int numCopies) {
 		this.numCopies = numCopies;
 	}
 
@@ -160,7 +220,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @param saleMisses
 	 *            the new sale misses
 	 */
-	private void setNumSaleMisses(long numSaleMisses) {
+	void setNumSaleMisses(long numSaleMisses) {
 		this.numSaleMisses = numSaleMisses;
 	}
 
@@ -183,7 +243,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean areCopiesInStore(int numCopies) {
-		return this.numCopies >= numCopies;
+		return getNumCopies() >= numCopies;
 	}
 
 	/**
@@ -195,7 +255,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public boolean buyCopies(int numCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
+			setNumCopies(getNumCopies() - numCopies);
 			return true;
 		}
 
@@ -210,8 +270,8 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
-			this.numSaleMisses = 0;
+			setNumCopies(getNumCopies() + numNewCopies);
+			setNumSaleMisses(0);
 		}
 	}
 
@@ -222,7 +282,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		setNumSaleMisses(getNumSaleMisses() + numSaleMisses);
 	}
 
 	/**
@@ -233,11 +293,25 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			setTotalRating(getTotalRating() + rating);
+			setNumTimesRated(getNumTimesRated() + 1);
 		}
 	}
 
+	/**
+	 * Adds ratings already validated, e.g. those accumulated by a
+	 * {@link RatingAccumulator}, to the total rating of the book.
+	 *
+	 * @param numRatings
+	 *            the number of ratings
+	 * @param totalRating
+	 *            the total of the ratings
+	 */
+	void addRatings(long numRatings, long totalRating) {
+		setTotalRating(getTotalRating() + totalRating);
+		setNumTimesRated(getNumTimesRated() + numRatings);
+	}
+
 	/**
 	 * Checks if someone tried to buy the book, while the book was not in stock,
 	 * also known as having sale misses.
@@ -245,7 +319,57 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean hadSaleMiss() {
-		return this.numSaleMisses > 0;
+		return getNumSaleMisses() > 0;
+	}
+
+	/**
+	 * Gets the version stamp of the book. An odd stamp means that a writer is
+	 * currently installing changes.
+	 *
+	 * @return the version stamp
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Checks that the book still has the <code>version</code> stamp, i.e. that
+	 * none of the fields read since the stamp was obtained have changed.
+	 *
+	 * @param version
+	 *            the version stamp obtained before reading
+	 * @return true, if the book was not changed in the meantime
+	 */
+	public boolean validateVersion(long version) {
+		// Keep the preceding plain field reads from being reordered after the
+		// stamp is read again.
+		VarHandle.acquireFence();
+		return this.version == version;
+	}
+
+	/**
+	 * Tries to lock the book for writing, which only succeeds if the book is
+	 * still at the (even) <code>version</code> stamp.
+	 *
+	 * @param version
+	 *            the version stamp the writer validated against
+	 * @return true, if the book is now locked by the caller
+	 */
+	public boolean tryLockVersion(long version) {
+		return (version & 1L) == 0 && VERSION.compareAndSet(this, version, version + 1);
+	}
+
+	/**
+	 * Unlocks a book locked with {@link #tryLockVersion}, publishing a new
+	 * version stamp if the book was modified.
+	 *
+	 * @param version
+	 *            the version stamp the book was locked at
+	 * @param modified
+	 *            whether the book was modified while locked
+	 */
+	public void unlockVersion(long version, boolean modified) {
+		this.version = modified ? version + 2 : version;
 	}
 
 	/**
@@ -260,24 +384,50 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} view of the book. The title and author
+	 * strings are immutable, so they are shared rather than copied, and the
+	 * view itself is shared by every call since those fields never change.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		// A racing call may make a second view, which is equally valid; the
+		// final fields of the view make it safe to share without a lock.
+		ImmutableBook view = bookView;
+
+		if (view == null) {
+			view = new ImmutableBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice());
+			bookView = view;
+		}
+
+		return view;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} view of the book. The last view made is
+	 * returned again as long as the counters and the editor pick it shows are
+	 * still those of the book, so that repeated reads of an unchanged book
+	 * allocate nothing.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		StockBook view = stockBookView;
+		int copies = getNumCopies();
+		long saleMisses = getNumSaleMisses();
+		long timesRated = getNumTimesRated();
+		long rating = getTotalRating();
+		boolean picked = isEditorPick();
+
+		if (view == null || view.getNumCopies() != copies || view.getNumSaleMisses() != saleMisses
+				|| view.getNumTimesRated() != timesRated || view.getTotalRating() != rating
+				|| view.isEditorPick() != picked) {
+			view = new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), copies,
+					saleMisses, timesRated, rating, picked);
+			stockBookView = view;
+		}
+
+		return view;
 	}
 
 	/**
@@ -286,7 +436,6 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), getNumCopies());
 	}
 }
@@ -0,0 +1,97 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookStoreTransaction} is the handle of a transaction begun with
+ * {@link com.acertainbookstore.interfaces.BookStore#begin()} or
+ * {@link com.acertainbookstore.interfaces.StockManager#begin()}. Beginning a
+ * transaction binds its handle to the calling thread, and every call made by
+ * that thread until the transaction is committed or aborted runs in it. The
+ * handle can be moved to another thread with {@link #bind(BookStoreTransaction)}.
+ * <p>
+ * Calls made without a bound handle run in a transaction of their own, which is
+ * committed when the call returns.
+ */
+public final class BookStoreTransaction {
+
+	/** The handle bound to every thread. */
+	private static final ThreadLocal<BookStoreTransaction> CURRENT = new ThreadLocal<>();
+
+	/** The id. */
+	private final long id;
+
+	/**
+	 * Instantiates a new {@link BookStoreTransaction}.
+	 *
+	 * @param id
+	 *            the id given by the book store
+	 */
+	public BookStoreTransaction(long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Gets the id.
+	 *
+	 * @return the id
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the handle bound to the calling thread.
+	 *
+	 * @return the handle, or null if the thread is not in a transaction
+	 */
+	public static BookStoreTransaction current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Binds the handle to the calling thread, so that the calls it makes run in
+	 * the transaction.
+	 *
+	 * @param transaction
+	 *            the handle
+	 */
+	public static void bind(BookStoreTransaction transaction) {
+		CURRENT.set(transaction);
+	}
+
+	/**
+	 * Unbinds the handle bound to the calling thread, if any.
+	 */
+	public static void unbind() {
+		CURRENT.remove();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof BookStoreTransaction && ((BookStoreTransaction) obj).id == id;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Transaction " + id;
+	}
+}
@@ -0,0 +1,218 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * {@link CatalogCheckpoint} reads and writes the checkpoint of a catalog: the
+ * state of all its books as of a position of the {@link WriteAheadLog}, so
+ * that recovery only replays the log after that position.
+ * <p>
+ * The file is a header, an array of fixed-size records, one per book, and a
+ * heap of the UTF-8 titles and authors the records point into:
+ *
+ * <pre>
+ * header:  magic, version, log position, number of books, checksum of the rest
+ * record:  sale misses, times rated, total rating (longs), ISBN, copies,
+ *          price, title offset, title length, author offset, author length,
+ *          editor pick
+ * heap:    the title and author bytes
+ * </pre>
+ *
+ * Since every record has the same size, recovery memory-maps the file and
+ * decodes the records in parallel. A checkpoint is written to a temporary file
+ * that replaces the previous checkpoint only once it is forced, so a crash
+ * while writing leaves the previous one intact.
+ *
+ * @see WriteAheadLog
+ */
+final class CatalogCheckpoint {
+
+	/** The magic number starting a checkpoint file. */
+	private static final int MAGIC = 0x424b4350;
+
+	/** The version of the file format. */
+	private static final int VERSION = 1;
+
+	/** The size of the header. */
+	private static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES + Integer.BYTES * 2;
+
+	/** The size of a record, padded to a multiple of 8 bytes. */
+	static final int RECORD_BYTES = 56;
+
+	/** The offsets of the fields in a record. */
+	private static final int SALE_MISSES = 0, TIMES_RATED = 8, TOTAL_RATING = 16, ISBN = 24, COPIES = 28, PRICE = 32,
+			TITLE_OFFSET = 36, TITLE_LENGTH = 40, AUTHOR_OFFSET = 44, AUTHOR_LENGTH = 48, EDITOR_PICK = 52;
+
+	/**
+	 * {@link Recovered} is the content of a checkpoint.
+	 */
+	static final class Recovered {
+
+		/** The books. */
+		final BookStoreBook[] books;
+
+		/** The position of the log the books are the state as of. */
+		final long logPosition;
+
+		Recovered(BookStoreBook[] books, long logPosition) {
+			this.books = books;
+			this.logPosition = logPosition;
+		}
+	}
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogCheckpoint}.
+	 */
+	private CatalogCheckpoint() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Writes a checkpoint, replacing the previous one.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @param books
+	 *            the books
+	 * @param logPosition
+	 *            the position of the log the books are the state as of
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 */
+	static void write(Path file, List<StockBook> books, long logPosition) throws IOException {
+		int numBooks = books.size();
+		byte[][] strings = new byte[numBooks * 2][];
+		long size = HEADER_BYTES + (long) numBooks * RECORD_BYTES;
+
+		for (int i = 0; i < numBooks; i++) {
+			strings[2 * i] = books.get(i).getTitle().getBytes(StandardCharsets.UTF_8);
+			strings[2 * i + 1] = books.get(i).getAuthor().getBytes(StandardCharsets.UTF_8);
+			size += strings[2 * i].length + strings[2 * i + 1].length;
+		}
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("The catalog is too large for a checkpoint: " + size + " bytes");
+		}
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			int heap = HEADER_BYTES + numBooks * RECORD_BYTES;
+
+			for (int i = 0; i < numBooks; i++) {
+				StockBook book = books.get(i);
+				int record = HEADER_BYTES + i * RECORD_BYTES;
+
+				buffer.putLong(record + SALE_MISSES, book.getNumSaleMisses());
+				buffer.putLong(record + TIMES_RATED, book.getNumTimesRated());
+				buffer.putLong(record + TOTAL_RATING, book.getTotalRating());
+				buffer.putInt(record + ISBN, book.getISBN());
+				buffer.putInt(record + COPIES, book.getNumCopies());
+				buffer.putFloat(record + PRICE, book.getPrice());
+				heap = putString(buffer, record + TITLE_OFFSET, heap, strings[2 * i]);
+				heap = putString(buffer, record + AUTHOR_OFFSET, heap, strings[2 * i + 1]);
+				buffer.put(record + EDITOR_PICK, (byte) (book.isEditorPick() ? 1 : 0));
+			}
+
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(Integer.BYTES, VERSION);
+			buffer.putLong(Integer.BYTES * 2, logPosition);
+			buffer.putInt(Integer.BYTES * 2 + Long.BYTES, numBooks);
+			buffer.putInt(HEADER_BYTES - Integer.BYTES, checksum(buffer, (int) size));
+			buffer.force();
+		}
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a checkpoint, decoding its books in parallel.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @param newBook
+	 *            makes the catalog entry of a book, and must be thread-safe
+	 * @return the content, or null if there is no checkpoint
+	 * @throws IOException
+	 *             if the checkpoint cannot be read or is corrupt
+	 */
+	static Recovered read(Path file, Function<StockBook, BookStoreBook> newBook) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("The checkpoint " + file + " is corrupt");
+			}
+
+			// Absolute reads do not move the position, so the tasks can share the buffer.
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int numBooks = buffer.getInt(Integer.BYTES * 2 + Long.BYTES);
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION || numBooks < 0
+					|| HEADER_BYTES + (long) numBooks * RECORD_BYTES > size
+					|| buffer.getInt(HEADER_BYTES - Integer.BYTES) != checksum(buffer, (int) size)) {
+				throw new IOException("The checkpoint " + file + " is corrupt");
+			}
+
+			long logPosition = buffer.getLong(Integer.BYTES * 2);
+			BookStoreBook[] books = new BookStoreBook[numBooks];
+
+			IntStream.range(0, numBooks).parallel().forEach(i -> {
+				int record = HEADER_BYTES + i * RECORD_BYTES;
+				books[i] = newBook.apply(new ImmutableStockBook(buffer.getInt(record + ISBN),
+						getString(buffer, record + TITLE_OFFSET), getString(buffer, record + AUTHOR_OFFSET),
+						buffer.getFloat(record + PRICE), buffer.getInt(record + COPIES),
+						buffer.getLong(record + SALE_MISSES), buffer.getLong(record + TIMES_RATED),
+						buffer.getLong(record + TOTAL_RATING), buffer.get(record + EDITOR_PICK) != 0));
+			});
+
+			return new Recovered(books, logPosition);
+		}
+	}
+
+	/**
+	 * Puts the bytes of a string into the heap and its offset and length into
+	 * a record.
+	 *
+	 * @return the end of the string in the heap
+	 */
+	private static int putString(ByteBuffer buffer, int field, int heap, byte[] string) {
+		buffer.putInt(field, heap);
+		buffer.putInt(field + Integer.BYTES, string.length);
+		buffer.put(heap, string);
+		return heap + string.length;
+	}
+
+	private static String getString(ByteBuffer buffer, int field) {
+		byte[] string = new byte[buffer.getInt(field + Integer.BYTES)];
+		buffer.get(buffer.getInt(field), string);
+		return new String(string, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Computes the checksum of everything after the header.
+	 */
+	private static int checksum(ByteBuffer buffer, int size) {
+		CRC32 checksum = new CRC32();
+		checksum.update(buffer.duplicate().limit(size).position(HEADER_BYTES));
+		return (int) checksum.getValue();
+	}
+}
@@ -0,0 +1,205 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * {@link CatalogSnapshot} is an immutable copy of the committed catalog, made
+ * once per committed write so that reads can share it without locking or
+ * copying the books again. The books are kept in arrays sorted by ISBN, both as
+ * {@link ImmutableStockBook}s and as {@link ImmutableBook}s that do not reveal
+ * the stock fields, with a parallel array of ISBNs to binary search. The
+ * editor picks are indexed apart, by an {@link EditorPickIndex}.
+ * <p>
+ * The snapshot of a commit is derived from the last one by
+ * {@link #next(Transaction, IntFunction)}, which only looks up the books the
+ * transaction wrote: the arrays are copied and the books updated in place,
+ * and only a commit adding or removing books merges them in, without sorting
+ * the catalog again.
+ *
+ * @see SingleLockConcurrentCertainBookStore
+ */
+final class CatalogSnapshot {
+
+	/** The snapshot of the empty catalog. */
+	static final CatalogSnapshot EMPTY = of(Collections.emptyList());
+
+	/** The ISBNs of the books, sorted. */
+	private final int[] isbns;
+
+	/** The stock books, in ISBN order. */
+	private final StockBook[] stockBooks;
+
+	/** The books, in ISBN order. */
+	private final Book[] books;
+
+	private CatalogSnapshot(int[] isbns, StockBook[] stockBooks, Book[] books) {
+		this.isbns = isbns;
+		this.stockBooks = stockBooks;
+		this.books = books;
+	}
+
+	/**
+	 * Takes a snapshot of the books. The books must not change meanwhile.
+	 *
+	 * @param catalog
+	 *            the books
+	 * @return the snapshot
+	 */
+	static CatalogSnapshot of(Collection<BookStoreBook> catalog) {
+		BookStoreBook[] sorted = catalog.toArray(new BookStoreBook[catalog.size()]);
+		Arrays.sort(sorted, (book, other) -> Integer.compare(book.getISBN(), other.getISBN()));
+
+		int numBooks = sorted.length;
+		int[] isbns = new int[numBooks];
+		StockBook[] stockBooks = new StockBook[numBooks];
+		Book[] books = new Book[numBooks];
+
+		// The views of the books left unchanged since the last snapshot are reused.
+		for (int i = 0; i < numBooks; i++) {
+			isbns[i] = sorted[i].getISBN();
+			stockBooks[i] = sorted[i].immutableStockBook();
+			books[i] = sorted[i].immutableBook();
+		}
+
+		return new CatalogSnapshot(isbns, stockBooks, books);
+	}
+
+	/**
+	 * Takes the snapshot following this one after a transaction committed,
+	 * from the books the transaction wrote. The other books must be unchanged
+	 * since this snapshot was taken, and the written books must not change
+	 * meanwhile.
+	 *
+	 * @param transaction
+	 *            the transaction, which still holds its locks
+	 * @param currentState
+	 *            gets the book with an ISBN as of now, or null if it was removed
+	 * @return the snapshot
+	 */
+	CatalogSnapshot next(Transaction transaction, IntFunction<BookStoreBook> currentState) {
+		int numWrites = transaction.getNumWrites();
+		int[] written = new int[numWrites];
+
+		for (int i = 0; i < numWrites; i++) {
+			written[i] = transaction.getWrittenIsbn(i);
+		}
+
+		// Sorted and made distinct, to be merged with the ISBNs of the snapshot.
+		Arrays.sort(written);
+		int numWritten = 0;
+
+		for (int i = 0; i < numWrites; i++) {
+			if (i == 0 || written[i] != written[i - 1]) {
+				written[numWritten++] = written[i];
+			}
+		}
+
+		StockBook[] nextStockBooks = stockBooks.clone();
+		Book[] nextBooks = books.clone();
+		int numInserted = 0;
+		int numRemoved = 0;
+
+		for (int i = 0; i < numWritten; i++) {
+			int position = Arrays.binarySearch(isbns, written[i]);
+			BookStoreBook book = currentState.apply(written[i]);
+
+			if (position < 0) {
+				numInserted += (book != null) ? 1 : 0;
+			} else if (book == null) {
+				// Marks the book removed for the merge.
+				nextStockBooks[position] = null;
+				numRemoved++;
+			} else {
+				nextStockBooks[position] = book.immutableStockBook();
+				nextBooks[position] = book.immutableBook();
+			}
+		}
+
+		if (numInserted == 0 && numRemoved == 0) {
+			return new CatalogSnapshot(isbns, nextStockBooks, nextBooks);
+		}
+
+		int numBooks = isbns.length - numRemoved + numInserted;
+		int[] mergedIsbns = new int[numBooks];
+		StockBook[] mergedStockBooks = new StockBook[numBooks];
+		Book[] mergedBooks = new Book[numBooks];
+		int merged = 0;
+		int i = 0;
+		int j = 0;
+
+		while (i < isbns.length || j < numWritten) {
+			if (j == numWritten || (i < isbns.length && isbns[i] <= written[j])) {
+				if (nextStockBooks[i] != null) {
+					mergedIsbns[merged] = isbns[i];
+					mergedStockBooks[merged] = nextStockBooks[i];
+					mergedBooks[merged++] = nextBooks[i];
+				}
+
+				if (j < numWritten && isbns[i] == written[j]) {
+					j++;
+				}
+
+				i++;
+			} else {
+				BookStoreBook book = currentState.apply(written[j]);
+
+				if (book != null) {
+					mergedIsbns[merged] = written[j];
+					mergedStockBooks[merged] = book.immutableStockBook();
+					mergedBooks[merged++] = book.immutableBook();
+				}
+
+				j++;
+			}
+		}
+
+		return new CatalogSnapshot(mergedIsbns, mergedStockBooks, mergedBooks);
+	}
+
+	/**
+	 * Checks if the snapshot has a book with the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the book is in the snapshot
+	 */
+	boolean contains(int isbn) {
+		return Arrays.binarySearch(isbns, isbn) >= 0;
+	}
+
+	/**
+	 * Gets the stock book with the ISBN, which must be in the snapshot.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stock book
+	 */
+	StockBook getStockBook(int isbn) {
+		return stockBooks[Arrays.binarySearch(isbns, isbn)];
+	}
+
+	/**
+	 * Gets the book with the ISBN, which must be in the snapshot.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 */
+	Book getBook(int isbn) {
+		return books[Arrays.binarySearch(isbns, isbn)];
+	}
+
+	/**
+	 * Gets all the stock books, in ISBN order.
+	 *
+	 * @return a new list of the shared stock books
+	 */
+	List<StockBook> getStockBooks() {
+		return new ArrayList<>(Arrays.asList(stockBooks));
+	}
+}
@@ -0,0 +1,89 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntFunction;
+
+/**
+ * {@link DemandIndex} keeps the books of a catalog that had sale misses, so
+ * that the books in demand are listed in time proportional to their number
+ * instead of scanning the catalog. A book joins the index when a purchase
+ * misses it, and leaves it when copies are added, which resets its sale
+ * misses, or when it is removed.
+ * <p>
+ * The index keeps a {@link StockBook} view of every book in it, made when the
+ * book was last written, so the stores update a book in the index on every
+ * write, not only on those changing its sale misses. The updates of a book are
+ * ordered by the lock of the book; the queries do not lock anything and see
+ * every book as of some write, though not necessarily all of them as of the
+ * same time.
+ *
+ * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+ */
+final class DemandIndex {
+
+	/** The books in demand, by ISBN. */
+	private final ConcurrentMap<Integer, StockBook> books = new ConcurrentHashMap<>();
+
+	/**
+	 * Updates the index for the books written by a committing transaction.
+	 *
+	 * @param transaction
+	 *            the transaction, which still holds its locks
+	 * @param currentState
+	 *            gets the book with an ISBN as of now, or null if it was removed
+	 */
+	void publish(Transaction transaction, IntFunction<BookStoreBook> currentState) {
+		for (int i = 0; i < transaction.getNumWrites(); i++) {
+			int isbn = transaction.getWrittenIsbn(i);
+			update(isbn, currentState.apply(isbn));
+		}
+	}
+
+	/**
+	 * Indexes all the books of a catalog, e.g. after recovering it.
+	 *
+	 * @param catalog
+	 *            the books
+	 */
+	void addAll(Collection<BookStoreBook> catalog) {
+		for (BookStoreBook book : catalog) {
+			update(book.getISBN(), book);
+		}
+	}
+
+	/**
+	 * Updates a book in the index, after it was written.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book as of now, or null if it was removed
+	 */
+	void update(int isbn, BookStoreBook book) {
+		if (book != null && book.hadSaleMiss()) {
+			books.put(isbn, book.immutableStockBook());
+		} else {
+			books.remove(isbn);
+		}
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @return the books that had sale misses
+	 */
+	List<StockBook> getBooksInDemand() {
+		return new ArrayList<>(books.values());
+	}
+}
@@ -0,0 +1,175 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.utils.IntIntHashMap;
+
+/**
+ * {@link EditorPickIndex} keeps the editor picks of a catalog in a dense
+ * array, so that sampling K picks costs O(K) instead of collecting the picks
+ * from the whole catalog. A book is removed from the array by moving the last
+ * pick into its position, which an index from ISBN to position finds.
+ * <p>
+ * The picks are sampled by a partial Fisher-Yates shuffle of the array itself:
+ * the i-th pick drawn is swapped into position i, so the first K positions
+ * hold K distinct picks, each K-subset equally likely, without retrying on
+ * picks already drawn. The order of the array carries no meaning, so the
+ * shuffle is left in place. The array is guarded by the monitor of the index,
+ * which every call only holds for O(K) steps.
+ *
+ * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+ */
+final class EditorPickIndex {
+
+	/** The editor picks, in the first {@link #size} positions. */
+	private Book[] picks = new Book[16];
+
+	/** The number of editor picks. */
+	private int size;
+
+	/** The position of every editor pick, by ISBN. */
+	private final IntIntHashMap positions = new IntIntHashMap();
+
+	/**
+	 * Updates the index for the books written by a committing transaction.
+	 *
+	 * @param transaction
+	 *            the transaction, which still holds its locks
+	 * @param currentState
+	 *            gets the book with an ISBN as of now, or null if it was removed
+	 */
+	synchronized void publish(Transaction transaction, IntFunction<BookStoreBook> currentState) {
+		for (int i = 0; i < transaction.getNumWrites(); i++) {
+			int isbn = transaction.getWrittenIsbn(i);
+			update(isbn, currentState.apply(isbn));
+		}
+	}
+
+	/**
+	 * Indexes all the books of a catalog, e.g. after recovering it.
+	 *
+	 * @param catalog
+	 *            the books
+	 */
+	synchronized void addAll(Collection<BookStoreBook> catalog) {
+		for (BookStoreBook book : catalog) {
+			update(book.getISBN(), book);
+		}
+	}
+
+	/**
+	 * Adds a book to the index if it is an editor pick, and removes it
+	 * otherwise.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book as of now, or null if it was removed
+	 */
+	synchronized void update(int isbn, BookStoreBook book) {
+		set(isbn, (book != null && book.isEditorPick()) ? book.immutableBook() : null);
+	}
+
+	/**
+	 * Adds a book to the index, or removes it, given the view to keep.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param pick
+	 *            the book if it is an editor pick, or null otherwise
+	 */
+	synchronized void set(int isbn, Book pick) {
+		int position = positions.get(isbn);
+
+		if (pick != null) {
+			if (position != IntIntHashMap.NO_VALUE) {
+				// A book added again under the same ISBN may have another title.
+				picks[position] = pick;
+				return;
+			}
+
+			if (size == picks.length) {
+				picks = Arrays.copyOf(picks, size * 2);
+			}
+
+			positions.put(isbn, size);
+			picks[size++] = pick;
+		} else if (position != IntIntHashMap.NO_VALUE) {
+			positions.remove(isbn);
+			Book last = picks[--size];
+			picks[size] = null;
+
+			if (position != size) {
+				picks[position] = last;
+				positions.put(last.getISBN(), position);
+			}
+		}
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	synchronized void clear() {
+		picks = new Book[16];
+		size = 0;
+		positions.clear();
+	}
+
+	/**
+	 * Samples editor picks.
+	 *
+	 * @param numBooks
+	 *            the number of picks
+	 * @return <code>numBooks</code> distinct picks drawn at random, or all of
+	 *         them if there are not as many
+	 */
+	synchronized List<Book> sample(int numBooks) {
+		int numPicks = Math.min(numBooks, size);
+		List<Book> sample = new ArrayList<>(numPicks);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (int i = 0; i < numPicks; i++) {
+			int j = random.nextInt(i, size);
+			Book pick = picks[j];
+
+			if (j != i) {
+				picks[j] = picks[i];
+				picks[i] = pick;
+				positions.put(picks[j].getISBN(), j);
+				positions.put(pick.getISBN(), i);
+			}
+
+			sample.add(pick);
+		}
+
+		return sample;
+	}
+
+	/**
+	 * Samples books from a list, e.g. the picks collected by a locked scan,
+	 * by a partial Fisher-Yates shuffle of the list.
+	 *
+	 * @param books
+	 *            the books, which are reordered
+	 * @param numBooks
+	 *            the number of books
+	 * @return <code>numBooks</code> distinct books drawn at random, or all of
+	 *         them if there are not as many
+	 */
+	static <T> List<T> sample(List<T> books, int numBooks) {
+		int numPicks = Math.min(numBooks, books.size());
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (int i = 0; i < numPicks; i++) {
+			Collections.swap(books, i, random.nextInt(i, books.size()));
+		}
+
+		return new ArrayList<>(books.subList(0, numPicks));
+	}
+}
@@ -0,0 +1,266 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link GroupCommit} is the stage of the {@link WriteAheadLog} that makes
+ * commits durable under the {@link WriteAheadLog.FsyncPolicy#GROUP_COMMIT}
+ * policy. The committing threads, typically the Jetty threads running
+ * <code>buyBooks</code>, only wait here after releasing their locks; a single
+ * flusher thread forces the log once for all of them. When a commit arrives
+ * while no force runs, the flusher lingers for at most the maximum wait, or
+ * until the maximum batch of commits is waiting, so that the commits arriving
+ * meanwhile share the force. The number of forces therefore grows with the
+ * disk latency rather than with the number of commits, and no commit waits
+ * longer than the maximum wait plus one force.
+ * <p>
+ * The batch sizes and the commit latencies are kept as
+ * {@link GroupCommitMetrics}.
+ *
+ * @see WriteAheadLog
+ * @see GroupCommitMetrics
+ */
+final class GroupCommit {
+
+	/** The default maximum time the flusher waits for a batch to fill, in microseconds. */
+	static final long DEFAULT_MAX_WAIT_MICROS = 500;
+
+	/** The default number of waiting commits forced without waiting for more. */
+	static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	/**
+	 * {@link Force} forces the log.
+	 */
+	interface Force {
+
+		/**
+		 * Forces everything written to the log so far.
+		 *
+		 * @return the end of the log forced
+		 * @throws IOException
+		 *             if the log cannot be forced
+		 */
+		long force() throws IOException;
+	}
+
+	/** Forces the log. */
+	private final Force force;
+
+	/** The maximum time the flusher waits for a batch to fill, in nanoseconds. */
+	private final long maxWait;
+
+	/** The number of waiting commits forced without waiting for more. */
+	private final int maxBatchSize;
+
+	/** Guards the state below. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signals the flusher that commits are waiting. */
+	private final Condition commitsWaiting = lock.newCondition();
+
+	/** Signals the commits that a force completed. */
+	private final Condition forced = lock.newCondition();
+
+	/** The number of commits waiting for the next force. */
+	private int numWaiting;
+
+	/** The end of the frame of the last commit waiting. */
+	private long maxWaitingPosition;
+
+	/** The end of the log forced so far. */
+	private long durablePosition;
+
+	/** The failure of the last force, after which no commit is durable. */
+	private IOException failure;
+
+	/** Whether the stage was closed. */
+	private boolean closed;
+
+	/** The flusher thread. */
+	private final Thread flusher;
+
+	/** The number of forces. */
+	private final LongAdder numForces = new LongAdder();
+
+	/** The number of commits made durable, whether they waited for a force or not. */
+	private final LongAdder numCommits = new LongAdder();
+
+	/** The largest batch forced. */
+	private final LongAccumulator maxBatchForced = new LongAccumulator(Math::max, 0);
+
+	/** The sum of the commit latencies, in nanoseconds. */
+	private final LongAdder totalLatency = new LongAdder();
+
+	/** The largest commit latency, in nanoseconds. */
+	private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Instantiates a new {@link GroupCommit} and starts its flusher.
+	 *
+	 * @param force
+	 *            forces the log
+	 * @param durablePosition
+	 *            the end of the log already durable
+	 * @param maxWaitMicros
+	 *            the maximum time the flusher waits for a batch to fill, in
+	 *            microseconds
+	 * @param maxBatchSize
+	 *            the number of waiting commits forced without waiting for more
+	 */
+	GroupCommit(Force force, long durablePosition, long maxWaitMicros, int maxBatchSize) {
+		this.force = force;
+		this.durablePosition = durablePosition;
+		this.maxWait = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+		this.maxBatchSize = maxBatchSize;
+
+		flusher = new Thread(this::flush, "WriteAheadLog group commit");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Waits until the log is durable up to the end of the frame of a commit.
+	 *
+	 * @param position
+	 *            the end of the frame
+	 * @throws UncheckedIOException
+	 *             if the log cannot be forced
+	 */
+	void awaitDurable(long position) {
+		long start = System.nanoTime();
+		lock.lock();
+
+		try {
+			numCommits.increment();
+
+			if (durablePosition >= position) {
+				return; // covered by a force that started after the frame was written
+			}
+
+			maxWaitingPosition = Math.max(maxWaitingPosition, position);
+
+			if (++numWaiting == 1 || numWaiting >= maxBatchSize) {
+				commitsWaiting.signal();
+			}
+
+			boolean interrupted = false;
+
+			while (durablePosition < position && failure == null && !closed) {
+				try {
+					forced.await();
+				} catch (InterruptedException ex) {
+					// The commit is published, so it must not return before it is durable.
+					interrupted = true;
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (durablePosition < position) {
+				throw new UncheckedIOException("The write-ahead log cannot be forced",
+						(failure != null) ? failure : new IOException("The write-ahead log was closed"));
+			}
+
+			long latency = System.nanoTime() - start;
+			totalLatency.add(latency);
+			maxLatency.accumulate(latency);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the metrics of the forces made so far.
+	 *
+	 * @return the metrics
+	 */
+	GroupCommitMetrics getMetrics() {
+		return new GroupCommitMetrics(numForces.sum(), numCommits.sum(), maxBatchForced.get(), totalLatency.sum(),
+				maxLatency.get());
+	}
+
+	/**
+	 * Stops the flusher, failing the commits still waiting.
+	 */
+	void close() {
+		lock.lock();
+
+		try {
+			closed = true;
+			commitsWaiting.signal();
+			forced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the flusher: waits for commits, lets the batch fill for at most the
+	 * maximum wait, then forces the log for the whole batch.
+	 */
+	private void flush() {
+		lock.lock();
+
+		try {
+			while (!closed && failure == null) {
+				if (numWaiting == 0) {
+					commitsWaiting.awaitUninterruptibly();
+					continue;
+				}
+
+				long remaining = maxWait;
+
+				while (numWaiting < maxBatchSize && remaining > 0 && !closed) {
+					remaining = commitsWaiting.awaitNanos(remaining);
+				}
+
+				int batchSize = numWaiting;
+				numWaiting = 0;
+				lock.unlock();
+
+				// The commits arriving during the force wait for the next one.
+				long position;
+				IOException forceFailure = null;
+
+				try {
+					position = force.force();
+				} catch (IOException ex) {
+					position = -1;
+					forceFailure = ex;
+				} finally {
+					lock.lock();
+				}
+
+				if (forceFailure != null) {
+					failure = forceFailure;
+				} else {
+					durablePosition = Math.max(durablePosition, position);
+
+					// The commits that arrived during the force may be covered by it.
+					if (maxWaitingPosition <= durablePosition) {
+						batchSize += numWaiting;
+						numWaiting = 0;
+					}
+
+					numForces.increment();
+					maxBatchForced.accumulate(batchSize);
+				}
+
+				forced.signalAll();
+			}
+		} catch (InterruptedException ex) {
+			// Only closing the stage stops the flusher.
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link GroupCommitMetrics} is a snapshot of the metrics of the group commit
+ * stage of a {@link WriteAheadLog}: how many commits every force covered, and
+ * how long the commits waited to be durable.
+ *
+ * @see WriteAheadLog#getGroupCommitMetrics()
+ */
+public final class GroupCommitMetrics {
+
+	/** The number of forces. */
+	private final long numForces;
+
+	/** The number of commits made durable. */
+	private final long numCommits;
+
+	/** The largest number of commits forced at once. */
+	private final long maxBatchSize;
+
+	/** The sum of the commit latencies, in nanoseconds. */
+	private final long totalLatencyNanos;
+
+	/** The largest commit latency, in nanoseconds. */
+	private final long maxLatencyNanos;
+
+	/**
+	 * Instantiates a new {@link GroupCommitMetrics}.
+	 *
+	 * @param numForces
+	 *            the number of forces
+	 * @param numCommits
+	 *            the number of commits made durable
+	 * @param maxBatchSize
+	 *            the largest number of commits forced at once
+	 * @param totalLatencyNanos
+	 *            the sum of the commit latencies, in nanoseconds
+	 * @param maxLatencyNanos
+	 *            the largest commit latency, in nanoseconds
+	 */
+	GroupCommitMetrics(long numForces, long numCommits, long maxBatchSize, long totalLatencyNanos,
+			long maxLatencyNanos) {
+		this.numForces = numForces;
+		this.numCommits = numCommits;
+		this.maxBatchSize = maxBatchSize;
+		this.totalLatencyNanos = totalLatencyNanos;
+		this.maxLatencyNanos = maxLatencyNanos;
+	}
+
+	/**
+	 * Gets the number of forces.
+	 *
+	 * @return the number of forces
+	 */
+	public long getNumForces() {
+		return numForces;
+	}
+
+	/**
+	 * Gets the number of commits made durable, including those already
+	 * covered by a force when they asked.
+	 *
+	 * @return the number of commits
+	 */
+	public long getNumCommits() {
+		return numCommits;
+	}
+
+	/**
+	 * Gets the largest number of commits forced at once.
+	 *
+	 * @return the largest batch size
+	 */
+	public long getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Gets the average number of commits made durable per force.
+	 *
+	 * @return the average batch size, or 0 if there was no force
+	 */
+	public double getAverageBatchSize() {
+		return (numForces == 0) ? 0 : (double) numCommits / numForces;
+	}
+
+	/**
+	 * Gets the average time a commit waited to be durable.
+	 *
+	 * @return the average latency, in microseconds, or 0 if there was no commit
+	 */
+	public double getAverageLatencyMicros() {
+		return (numCommits == 0) ? 0 : totalLatencyNanos / 1000.0 / numCommits;
+	}
+
+	/**
+	 * Gets the longest time a commit waited to be durable.
+	 *
+	 * @return the largest latency, in microseconds
+	 */
+	public double getMaxLatencyMicros() {
+		return maxLatencyNanos / 1000.0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Forces = " + numForces + ", Commits = " + numCommits + ", Average batch = "
+				+ String.format("%.2f", getAverageBatchSize()) + ", Max batch = " + maxBatchSize
+				+ ", Average latency (us) = " + String.format("%.1f", getAverageLatencyMicros())
+				+ ", Max latency (us) = " + String.format("%.1f", getMaxLatencyMicros());
+	}
+}
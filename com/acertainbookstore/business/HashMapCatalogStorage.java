@@ -0,0 +1,103 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.acertainbookstore.interfaces.CatalogStorage;
+
+/**
+ * {@link HashMapCatalogStorage} keeps the books as {@link BookStoreBook}
+ * objects in a {@link HashMap} keyed by boxed ISBNs, as the stores originally
+ * did. It is the baseline the other storage engines are compared with.
+ *
+ * @see CatalogStorage
+ */
+public final class HashMapCatalogStorage implements CatalogStorage {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final Map<Integer, BookStoreBook> bookMap = new HashMap<>();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.CatalogStorage#newBook(com.acertainbookstore
+	 * .business.StockBook)
+	 */
+	@Override
+	public BookStoreBook newBook(StockBook book) {
+		return new BookStoreBook(book);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		return bookMap.get(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#containsKey(int)
+	 */
+	@Override
+	public boolean containsKey(int isbn) {
+		return bookMap.containsKey(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#put(int,
+	 * com.acertainbookstore.business.BookStoreBook)
+	 */
+	@Override
+	public BookStoreBook put(int isbn, BookStoreBook book) {
+		return bookMap.put(isbn, book);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#remove(int)
+	 */
+	@Override
+	public BookStoreBook remove(int isbn) {
+		return bookMap.remove(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		bookMap.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#size()
+	 */
+	@Override
+	public int size() {
+		return bookMap.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#values()
+	 */
+	@Override
+	public Collection<BookStoreBook> values() {
+		return bookMap.values();
+	}
+}
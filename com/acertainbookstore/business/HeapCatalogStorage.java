@@ -0,0 +1,102 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+
+import com.acertainbookstore.interfaces.CatalogStorage;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link HeapCatalogStorage} keeps the books as {@link BookStoreBook} objects
+ * in an {@link IntObjectHashMap}, i.e. entirely on the heap without boxing
+ * the ISBNs. It is the default storage of the lock-based stores.
+ *
+ * @see CatalogStorage
+ */
+public final class HeapCatalogStorage implements CatalogStorage {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final IntObjectHashMap<BookStoreBook> bookMap = new IntObjectHashMap<>();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.CatalogStorage#newBook(com.acertainbookstore
+	 * .business.StockBook)
+	 */
+	@Override
+	public BookStoreBook newBook(StockBook book) {
+		return new BookStoreBook(book);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		return bookMap.get(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#containsKey(int)
+	 */
+	@Override
+	public boolean containsKey(int isbn) {
+		return bookMap.containsKey(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#put(int,
+	 * com.acertainbookstore.business.BookStoreBook)
+	 */
+	@Override
+	public BookStoreBook put(int isbn, BookStoreBook book) {
+		return bookMap.put(isbn, book);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#remove(int)
+	 */
+	@Override
+	public BookStoreBook remove(int isbn) {
+		return bookMap.remove(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		bookMap.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#size()
+	 */
+	@Override
+	public int size() {
+		return bookMap.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#values()
+	 */
+	@Override
+	public Collection<BookStoreBook> values() {
+		return bookMap.values();
+	}
+}
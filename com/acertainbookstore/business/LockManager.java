@@ -0,0 +1,393 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreDeadlockException;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockManager} implements two-level multi-granularity locking over the
+ * catalog: one {@link MultiModeLock} for the whole database and a
+ * {@link StripedLockTable} of {@link MultiModeLock}s for the books. Books are
+ * always locked after the database has been locked in the matching intention
+ * mode, so that an owner locking the database in {@link LockMode#S} or
+ * {@link LockMode#X} excludes conflicting item locks without touching them.
+ * <p>
+ * The manager remembers which locks every owner holds, so that
+ * {@link #releaseAll(Object)} only visits those.
+ * <p>
+ * Since owners keep their locks across calls, they can deadlock. Whenever an
+ * owner has to wait, and again every {@link #DEADLOCK_DETECTION_INTERVAL}
+ * milliseconds while it waits, the waits-for graph is searched for a cycle
+ * through that owner. The graph is not materialized: the edges of a waiting
+ * owner are read from the lock it waits for. If there is a cycle, the owner
+ * that is about to wait is the victim: its request is withdrawn and a
+ * {@link BookStoreDeadlockException} is thrown. An owner also stops waiting
+ * after the lock timeout. In both cases the lock manager does not release the
+ * locks the owner holds: the call fails, which aborts the transaction owning
+ * them right away and releases them with {@link #releaseAll(Object)}.
+ *
+ * @see LockMode
+ * @see MultiModeLock
+ */
+public final class LockManager {
+
+	/** The time between searches for deadlocks while an owner waits, in milliseconds. */
+	public static final long DEADLOCK_DETECTION_INTERVAL = 1000;
+
+	/** The default time an owner waits for a lock, in milliseconds. */
+	public static final long DEFAULT_LOCK_TIMEOUT = 10000;
+
+	/** The per-thread buffer the stripes to lock are sorted in. */
+	private static final ThreadLocal<StripeBuffer> STRIPE_BUFFER = ThreadLocal.withInitial(StripeBuffer::new);
+
+	/** The lock on the whole database. */
+	private final MultiModeLock database = new MultiModeLock();
+
+	/** The locks on the books, striped by ISBN. */
+	private final StripedLockTable items;
+
+	/** The locks held, by owner. */
+	private final ConcurrentMap<Object, Set<MultiModeLock>> locksHeld = new ConcurrentHashMap<>();
+
+	/** The lock every waiting owner waits for. */
+	private final ConcurrentMap<Object, MultiModeLock> waitingFor = new ConcurrentHashMap<>();
+
+	/** Serializes the searches for deadlocks, so that a cycle has a single victim. */
+	private final Object detectionMonitor = new Object();
+
+	/** The number of deadlocks detected. */
+	private final AtomicLong numDeadlocks = new AtomicLong();
+
+	/** The time an owner waits for a lock, in milliseconds. */
+	private final long lockTimeout;
+
+	/**
+	 * Instantiates a new {@link LockManager} with the default lock timeout.
+	 *
+	 * @param numItemStripes
+	 *            the minimum number of stripes of the item locks
+	 */
+	public LockManager(int numItemStripes) {
+		this(numItemStripes, DEFAULT_LOCK_TIMEOUT);
+	}
+
+	/**
+	 * Instantiates a new {@link LockManager}.
+	 *
+	 * @param numItemStripes
+	 *            the minimum number of stripes of the item locks
+	 * @param lockTimeoutMillis
+	 *            the time an owner waits for a lock, in milliseconds
+	 */
+	public LockManager(int numItemStripes, long lockTimeoutMillis) {
+		items = new StripedLockTable(numItemStripes);
+		lockTimeout = lockTimeoutMillis;
+	}
+
+	/**
+	 * Locks the whole database.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param mode
+	 *            the mode
+	 * @throws BookStoreException
+	 *             if the owner was interrupted or timed out while waiting, or
+	 *             {@link BookStoreDeadlockException} if it was chosen as the
+	 *             victim of a deadlock
+	 */
+	public void lockDatabase(Object owner, LockMode mode) throws BookStoreException {
+		lock(owner, database, mode);
+	}
+
+	/**
+	 * Releases one acquisition of the database lock.
+	 *
+	 * @param owner
+	 *            the owner
+	 */
+	public void unlockDatabase(Object owner) {
+		unlock(owner, database);
+	}
+
+	/**
+	 * Locks the books of the given items in <code>mode</code>, after locking
+	 * the database in the matching intention mode. The stripes of the books are
+	 * sorted and locked in ascending order, so that operations locking several
+	 * books cannot deadlock on each other.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param items
+	 *            the items, e.g. ISBNs or book copies
+	 * @param isbnOf
+	 *            the function getting the ISBN of an item
+	 * @param mode
+	 *            the mode, either {@link LockMode#S} or {@link LockMode#X}
+	 * @throws BookStoreException
+	 *             if the owner was interrupted or timed out while waiting, or
+	 *             {@link BookStoreDeadlockException} if it was chosen as the
+	 *             victim of a deadlock
+	 */
+	public <T> void lockItems(Object owner, Collection<T> items, ToIntFunction<? super T> isbnOf, LockMode mode)
+			throws BookStoreException {
+		lock(owner, database, mode.intention());
+
+		StripeBuffer buffer = STRIPE_BUFFER.get();
+		int numStripes = buffer.sortStripes(this.items, items, isbnOf);
+
+		for (int i = 0; i < numStripes; i++) {
+			lock(owner, this.items.getStripe(buffer.stripes[i]), mode);
+		}
+	}
+
+	/**
+	 * Locks the book with an ISBN in <code>mode</code>, after locking the
+	 * database in the matching intention mode, but only if both can be granted
+	 * right away. The locks granted are kept even if the other one is not.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param isbn
+	 *            the ISBN
+	 * @param mode
+	 *            the mode, either {@link LockMode#S} or {@link LockMode#X}
+	 * @return true, if the book was locked
+	 */
+	public boolean tryLockItem(Object owner, int isbn, LockMode mode) {
+		return tryLock(owner, database, mode.intention()) && tryLock(owner, items.get(isbn), mode);
+	}
+
+	/**
+	 * Locks the whole database, but only if it can be granted right away.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param mode
+	 *            the mode
+	 * @return true, if the database was locked
+	 */
+	public boolean tryLockDatabase(Object owner, LockMode mode) {
+		return tryLock(owner, database, mode);
+	}
+
+	/**
+	 * Releases one acquisition of the stripes and of the intention lock on the
+	 * database taken by
+	 * {@link #lockItems(Object, Collection, ToIntFunction, LockMode)} for the
+	 * same items.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function getting the ISBN of an item
+	 */
+	public <T> void unlockItems(Object owner, Collection<T> items, ToIntFunction<? super T> isbnOf) {
+		StripeBuffer buffer = STRIPE_BUFFER.get();
+		int numStripes = buffer.sortStripes(this.items, items, isbnOf);
+
+		for (int i = 0; i < numStripes; i++) {
+			unlock(owner, this.items.getStripe(buffer.stripes[i]));
+		}
+
+		unlock(owner, database);
+	}
+
+	/**
+	 * Releases every lock held by the owner.
+	 *
+	 * @param owner
+	 *            the owner
+	 */
+	public void releaseAll(Object owner) {
+		Set<MultiModeLock> held = locksHeld.remove(owner);
+
+		if (held == null) {
+			return;
+		}
+
+		for (MultiModeLock lock : held) {
+			lock.unlockAll(owner);
+		}
+	}
+
+	/**
+	 * Gets the number of deadlocks detected so far.
+	 *
+	 * @return the number of deadlocks
+	 */
+	public long getNumDeadlocks() {
+		return numDeadlocks.get();
+	}
+
+	private void lock(Object owner, MultiModeLock lock, LockMode mode) throws BookStoreException {
+		if (!lock.tryLock(owner, mode)) {
+			await(owner, lock);
+		}
+
+		// Only the owner itself changes its set of locks.
+		locksHeld.computeIfAbsent(owner, key -> Collections.newSetFromMap(new IdentityHashMap<>())).add(lock);
+	}
+
+	private boolean tryLock(Object owner, MultiModeLock lock, LockMode mode) {
+		// Withdraw the request queued instead of waiting, unless it was granted meanwhile.
+		if (!lock.tryLock(owner, mode) && lock.cancel(owner)) {
+			return false;
+		}
+
+		locksHeld.computeIfAbsent(owner, key -> Collections.newSetFromMap(new IdentityHashMap<>())).add(lock);
+		return true;
+	}
+
+	/**
+	 * Waits for the request the owner queued on the lock, searching for
+	 * deadlocks before the first wait and between waits, until the lock
+	 * timeout.
+	 */
+	private void await(Object owner, MultiModeLock lock) throws BookStoreException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lockTimeout);
+		waitingFor.put(owner, lock);
+
+		try {
+			while (true) {
+				if (abortIfDeadlocked(owner, lock)) {
+					throw new BookStoreDeadlockException();
+				}
+
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+				if (remaining <= 0) {
+					if (lock.cancel(owner)) {
+						throw new BookStoreException(BookStoreConstants.LOCK_TIMEOUT);
+					}
+
+					// Granted just in time.
+					break;
+				}
+
+				if (lock.await(owner, Math.min(remaining, DEADLOCK_DETECTION_INTERVAL))) {
+					break;
+				}
+			}
+		} catch (InterruptedException ex) {
+			if (lock.cancel(owner)) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException("Interrupted while waiting for a lock", ex);
+			}
+
+			// Too late to back out, so keep the lock and the interrupt.
+			Thread.currentThread().interrupt();
+		} finally {
+			waitingFor.remove(owner);
+		}
+	}
+
+	/**
+	 * Withdraws the request of the owner if it waits for itself through the
+	 * waits-for graph.
+	 *
+	 * @return true, if the owner was chosen as the victim of a deadlock
+	 */
+	private boolean abortIfDeadlocked(Object owner, MultiModeLock lock) {
+		synchronized (detectionMonitor) {
+			if (!isWaitingForItself(owner, lock) || !lock.cancel(owner)) {
+				return false;
+			}
+
+			numDeadlocks.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Searches the waits-for graph depth first for a path from the owner back
+	 * to itself.
+	 */
+	private boolean isWaitingForItself(Object owner, MultiModeLock lock) {
+		ArrayDeque<Object> toVisit = new ArrayDeque<>();
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		lock.getBlockers(owner, toVisit);
+
+		while (!toVisit.isEmpty()) {
+			Object blocker = toVisit.pollLast();
+
+			if (blocker == owner) {
+				return true;
+			}
+
+			if (visited.add(blocker)) {
+				MultiModeLock awaited = waitingFor.get(blocker);
+
+				if (awaited != null) {
+					awaited.getBlockers(blocker, toVisit);
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private void unlock(Object owner, MultiModeLock lock) {
+		if (lock.unlock(owner)) {
+			Set<MultiModeLock> held = locksHeld.get(owner);
+			held.remove(lock);
+
+			if (held.isEmpty()) {
+				locksHeld.remove(owner);
+			}
+		}
+	}
+
+	/**
+	 * {@link StripeBuffer} is a growable scratch array reused by a thread to
+	 * sort the stripes it locks, so that locking does not allocate.
+	 */
+	private static final class StripeBuffer {
+
+		/** The stripes, sorted and distinct up to the count last returned. */
+		private int[] stripes = new int[16];
+
+		/**
+		 * Fills the buffer with the distinct stripes of the items in ascending
+		 * order.
+		 *
+		 * @return the number of stripes
+		 */
+		private <T> int sortStripes(StripedLockTable table, Collection<T> items, ToIntFunction<? super T> isbnOf) {
+			if (stripes.length < items.size()) {
+				stripes = new int[Math.max(items.size(), stripes.length * 2)];
+			}
+
+			int size = 0;
+
+			for (T item : items) {
+				stripes[size++] = table.stripeOf(isbnOf.applyAsInt(item));
+			}
+
+			Arrays.sort(stripes, 0, size);
+			int unique = 0;
+
+			for (int i = 0; i < size; i++) {
+				if (unique == 0 || stripes[unique - 1] != stripes[i]) {
+					stripes[unique++] = stripes[i];
+				}
+			}
+
+			return unique;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link LockMode} implements the modes a {@link MultiModeLock} can be held in
+ * under multi-granularity locking: the catalog is locked in an intention mode
+ * before individual books are locked in a shared or exclusive mode.
+ *
+ * @see MultiModeLock
+ * @see LockManager
+ */
+public enum LockMode {
+
+	/** Intention shared: some books below will be locked in shared mode. */
+	IS,
+
+	/** Intention exclusive: some books below will be locked in exclusive mode. */
+	IX,
+
+	/** Shared: everything below is read. */
+	S,
+
+	/** Shared and intention exclusive: everything below is read, some books are written. */
+	SIX,
+
+	/** Exclusive: everything below is read and written. */
+	X;
+
+	/** The compatibility matrix, indexed by the ordinals of both modes. */
+	private static final boolean[][] COMPATIBLE = {
+			// IS IX S SIX X
+			{ true, true, true, true, false }, // IS
+			{ true, true, false, false, false }, // IX
+			{ true, false, true, false, false }, // S
+			{ true, false, false, false, false }, // SIX
+			{ false, false, false, false, false } // X
+	};
+
+	/** The least upper bound of two modes, indexed by the ordinals of both modes. */
+	private static final LockMode[][] JOIN = {
+			// IS IX S SIX X
+			{ IS, IX, S, SIX, X }, // IS
+			{ IX, IX, SIX, SIX, X }, // IX
+			{ S, SIX, S, SIX, X }, // S
+			{ SIX, SIX, SIX, SIX, X }, // SIX
+			{ X, X, X, X, X } // X
+	};
+
+	/**
+	 * Checks if the lock can be held in this mode by one owner while another
+	 * owner holds it in <code>other</code> mode.
+	 *
+	 * @param other
+	 *            the other mode
+	 * @return true, if the modes are compatible
+	 */
+	public boolean isCompatibleWith(LockMode other) {
+		return COMPATIBLE[ordinal()][other.ordinal()];
+	}
+
+	/**
+	 * Gets the weakest mode granting everything this mode and
+	 * <code>other</code> grant, i.e. the mode to upgrade to when an owner
+	 * holding this mode asks for <code>other</code>.
+	 *
+	 * @param other
+	 *            the other mode
+	 * @return the combined mode
+	 */
+	public LockMode join(LockMode other) {
+		return JOIN[ordinal()][other.ordinal()];
+	}
+
+	/**
+	 * Checks if holding this mode already grants everything <code>other</code>
+	 * grants.
+	 *
+	 * @param other
+	 *            the other mode
+	 * @return true, if this mode covers the other mode
+	 */
+	public boolean covers(LockMode other) {
+		return join(other) == this;
+	}
+
+	/**
+	 * Gets the intention mode the parent granule has to be locked in before a
+	 * child granule can be locked in this mode.
+	 *
+	 * @return the intention mode
+	 */
+	public LockMode intention() {
+		return (this == IS || this == S) ? IS : IX;
+	}
+}
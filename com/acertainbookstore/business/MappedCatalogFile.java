@@ -0,0 +1,474 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import com.acertainbookstore.utils.IntIntHashMap;
+
+/**
+ * {@link MappedCatalogFile} keeps the books of a catalog in a memory-mapped
+ * file of fixed-size records, one per book, and their titles and authors in a
+ * memory-mapped string heap next to it (the file name plus
+ * {@link #HEAP_SUFFIX}):
+ *
+ * <pre>
+ * header:  magic, version, end of the string heap (long)
+ * record:  sale misses, times rated, total rating, title offset, author
+ *          offset (longs), ISBN, copies, price, title length, author length,
+ *          editor pick
+ * </pre>
+ *
+ * Both files are mapped in chunks that are never moved once mapped, so the
+ * books are read and updated in place, in the page cache, and the catalog may
+ * be larger than the Java heap. Opening the file only scans the ISBN of every
+ * record to index the slots, so a restart does not decode any book.
+ * <p>
+ * A free record has ISBN 0, which is not a valid ISBN, and is reused. The
+ * strings of removed books are not reclaimed until the catalog is cleared. A
+ * string never spans two heap chunks, so the title and the author must each
+ * fit in {@link #HEAP_CHUNK_BYTES}.
+ * <p>
+ * The updates reach the disk when the operating system writes the pages back,
+ * and when the file is forced or closed; they are not atomic across a crash.
+ * The file is not thread-safe: the caller locks it.
+ *
+ * @see MemoryMappedCertainBookStore
+ */
+final class MappedCatalogFile {
+
+	/** The suffix of the string heap file. */
+	static final String HEAP_SUFFIX = ".strings";
+
+	/** The size of a heap chunk. */
+	static final int HEAP_CHUNK_BYTES = 1 << 20;
+
+	/** The magic number starting a catalog file. */
+	private static final int MAGIC = 0x424b4346;
+
+	/** The version of the file format. */
+	private static final int VERSION = 1;
+
+	/** The size of the header. */
+	private static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES;
+
+	/** The offset of the end of the string heap in the header. */
+	private static final int HEAP_END = Integer.BYTES * 2;
+
+	/** The size of a record, padded to a cache line. */
+	private static final int RECORD_BYTES = 64;
+
+	/** The offsets of the fields in a record. */
+	private static final int SALE_MISSES = 0, TIMES_RATED = 8, TOTAL_RATING = 16, TITLE_OFFSET = 24,
+			AUTHOR_OFFSET = 32, ISBN = 40, COPIES = 44, PRICE = 48, TITLE_LENGTH = 52, AUTHOR_LENGTH = 56,
+			EDITOR_PICK = 60;
+
+	/** The number of records of a chunk, as a power of two. */
+	private static final int CHUNK_SHIFT = 12;
+
+	/** The number of records of a chunk. */
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/** The mask giving the index of a record in its chunk. */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** The size of a record chunk. */
+	private static final int CHUNK_BYTES = CHUNK_SIZE * RECORD_BYTES;
+
+	/** The record file. */
+	private final FileChannel records;
+
+	/** The string heap file. */
+	private final FileChannel heap;
+
+	/** The mapped header. */
+	private final MappedByteBuffer header;
+
+	/** The mapped record chunks. */
+	private MappedByteBuffer[] chunks;
+
+	/** The mapped heap chunks. */
+	private MappedByteBuffer[] heapChunks;
+
+	/** The end of the string heap. */
+	private long heapEnd;
+
+	/** The slots of the books, by ISBN. */
+	private final IntIntHashMap slots = new IntIntHashMap();
+
+	/** The free slots. */
+	private int[] freeSlots = new int[16];
+
+	/** The number of free slots. */
+	private int numFreeSlots;
+
+	private MappedCatalogFile(FileChannel records, FileChannel heap) throws IOException {
+		this.records = records;
+		this.heap = heap;
+
+		boolean created = records.size() == 0;
+		header = records.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+		if (created) {
+			header.putInt(0, MAGIC);
+			header.putInt(Integer.BYTES, VERSION);
+			header.putLong(HEAP_END, 0);
+		} else if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION) {
+			throw new IOException("The file is not a catalog file");
+		}
+
+		heapEnd = header.getLong(HEAP_END);
+		chunks = new MappedByteBuffer[(int) ((records.size() - HEADER_BYTES + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+		heapChunks = new MappedByteBuffer[(int) ((heapEnd + HEAP_CHUNK_BYTES - 1) / HEAP_CHUNK_BYTES)];
+
+		for (int c = 0; c < chunks.length; c++) {
+			chunks[c] = mapChunk(c);
+		}
+
+		for (int c = 0; c < heapChunks.length; c++) {
+			heapChunks[c] = heap.map(FileChannel.MapMode.READ_WRITE, (long) c * HEAP_CHUNK_BYTES, HEAP_CHUNK_BYTES);
+		}
+
+		// Index the books, and free the other slots, the lowest ones reused first.
+		for (int slot = chunks.length * CHUNK_SIZE - 1; slot >= 0; slot--) {
+			int isbn = getIsbn(slot);
+
+			if (isbn != 0) {
+				slots.put(isbn, slot);
+			} else {
+				pushFreeSlot(slot);
+			}
+		}
+	}
+
+	/**
+	 * Opens a catalog file, creating it if it does not exist.
+	 *
+	 * @param file
+	 *            the record file
+	 * @return the catalog file
+	 * @throws IOException
+	 *             if the file cannot be opened or is not a catalog file
+	 */
+	static MappedCatalogFile open(Path file) throws IOException {
+		FileChannel records = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			FileChannel heap = FileChannel.open(file.resolveSibling(file.getFileName() + HEAP_SUFFIX),
+					StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+			try {
+				return new MappedCatalogFile(records, heap);
+			} catch (IOException ex) {
+				heap.close();
+				throw ex;
+			}
+		} catch (IOException ex) {
+			records.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Checks whether a book fits in the file, i.e. whether its title and its
+	 * author each fit in a heap chunk.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true if the book fits
+	 */
+	static boolean fits(Book book) {
+		return book.getTitle().getBytes(StandardCharsets.UTF_8).length <= HEAP_CHUNK_BYTES
+				&& book.getAuthor().getBytes(StandardCharsets.UTF_8).length <= HEAP_CHUNK_BYTES;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Gets the slot of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or -1 if the book is not in the file
+	 */
+	int slotOf(int isbn) {
+		return slots.get(isbn);
+	}
+
+	/**
+	 * Inserts a book, which must fit, replacing the book with the same ISBN,
+	 * if any.
+	 *
+	 * @param book
+	 *            the book
+	 * @throws IOException
+	 *             if the files cannot be grown
+	 */
+	void insert(StockBook book) throws IOException {
+		remove(book.getISBN());
+
+		byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+		byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+		long titleOffset = putString(title);
+		long authorOffset = putString(author);
+
+		if (numFreeSlots == 0) {
+			int c = chunks.length;
+			MappedByteBuffer[] grown = Arrays.copyOf(chunks, c + 1);
+			grown[c] = mapChunk(c);
+			chunks = grown;
+
+			for (int slot = (c + 1) * CHUNK_SIZE - 1; slot >= c * CHUNK_SIZE; slot--) {
+				pushFreeSlot(slot);
+			}
+		}
+
+		int slot = freeSlots[--numFreeSlots];
+		ByteBuffer chunk = chunk(slot);
+		int record = record(slot);
+
+		chunk.putLong(record + SALE_MISSES, book.getNumSaleMisses());
+		chunk.putLong(record + TIMES_RATED, book.getNumTimesRated());
+		chunk.putLong(record + TOTAL_RATING, book.getTotalRating());
+		chunk.putLong(record + TITLE_OFFSET, titleOffset);
+		chunk.putLong(record + AUTHOR_OFFSET, authorOffset);
+		chunk.putInt(record + COPIES, book.getNumCopies());
+		chunk.putFloat(record + PRICE, book.getPrice());
+		chunk.putInt(record + TITLE_LENGTH, title.length);
+		chunk.putInt(record + AUTHOR_LENGTH, author.length);
+		chunk.put(record + EDITOR_PICK, (byte) (book.isEditorPick() ? 1 : 0));
+		chunk.putInt(record + ISBN, book.getISBN());
+		slots.put(book.getISBN(), slot);
+	}
+
+	/**
+	 * Removes a book, if it is in the file.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		int slot = slots.remove(isbn);
+
+		if (slot != IntIntHashMap.NO_VALUE) {
+			chunk(slot).putInt(record(slot) + ISBN, 0);
+			pushFreeSlot(slot);
+		}
+	}
+
+	/**
+	 * Removes all the books, and empties the string heap.
+	 */
+	void clear() {
+		numFreeSlots = 0;
+
+		for (int slot = chunks.length * CHUNK_SIZE - 1; slot >= 0; slot--) {
+			chunk(slot).putInt(record(slot) + ISBN, 0);
+			pushFreeSlot(slot);
+		}
+
+		slots.clear();
+		heapEnd = 0;
+		header.putLong(HEAP_END, 0);
+	}
+
+	/**
+	 * Calls a consumer with the slot of every book, in slot order.
+	 *
+	 * @param slotConsumer
+	 *            gets the slots
+	 */
+	void forEachSlot(IntConsumer slotConsumer) {
+		for (int c = 0; c < chunks.length; c++) {
+			ByteBuffer chunk = chunks[c];
+
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				if (chunk.getInt(i * RECORD_BYTES + ISBN) != 0) {
+					slotConsumer.accept((c << CHUNK_SHIFT) | i);
+				}
+			}
+		}
+	}
+
+	int getIsbn(int slot) {
+		return chunk(slot).getInt(record(slot) + ISBN);
+	}
+
+	String getTitle(int slot) {
+		return getString(chunk(slot).getLong(record(slot) + TITLE_OFFSET),
+				chunk(slot).getInt(record(slot) + TITLE_LENGTH));
+	}
+
+	String getAuthor(int slot) {
+		return getString(chunk(slot).getLong(record(slot) + AUTHOR_OFFSET),
+				chunk(slot).getInt(record(slot) + AUTHOR_LENGTH));
+	}
+
+	float getPrice(int slot) {
+		return chunk(slot).getFloat(record(slot) + PRICE);
+	}
+
+	int getNumCopies(int slot) {
+		return chunk(slot).getInt(record(slot) + COPIES);
+	}
+
+	void setNumCopies(int slot, int numCopies) {
+		chunk(slot).putInt(record(slot) + COPIES, numCopies);
+	}
+
+	long getNumSaleMisses(int slot) {
+		return chunk(slot).getLong(record(slot) + SALE_MISSES);
+	}
+
+	void setNumSaleMisses(int slot, long numSaleMisses) {
+		chunk(slot).putLong(record(slot) + SALE_MISSES, numSaleMisses);
+	}
+
+	long getNumTimesRated(int slot) {
+		return chunk(slot).getLong(record(slot) + TIMES_RATED);
+	}
+
+	void setNumTimesRated(int slot, long numTimesRated) {
+		chunk(slot).putLong(record(slot) + TIMES_RATED, numTimesRated);
+	}
+
+	long getTotalRating(int slot) {
+		return chunk(slot).getLong(record(slot) + TOTAL_RATING);
+	}
+
+	void setTotalRating(int slot, long totalRating) {
+		chunk(slot).putLong(record(slot) + TOTAL_RATING, totalRating);
+	}
+
+	boolean isEditorPick(int slot) {
+		return chunk(slot).get(record(slot) + EDITOR_PICK) != 0;
+	}
+
+	void setEditorPick(int slot, boolean editorPick) {
+		chunk(slot).put(record(slot) + EDITOR_PICK, (byte) (editorPick ? 1 : 0));
+	}
+
+	/**
+	 * Decodes the book of a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	ImmutableBook book(int slot) {
+		return new ImmutableBook(getIsbn(slot), getTitle(slot), getAuthor(slot), getPrice(slot));
+	}
+
+	/**
+	 * Decodes the book of a slot with its stock.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	ImmutableStockBook stockBook(int slot) {
+		return new ImmutableStockBook(getIsbn(slot), getTitle(slot), getAuthor(slot), getPrice(slot),
+				getNumCopies(slot), getNumSaleMisses(slot), getNumTimesRated(slot), getTotalRating(slot),
+				isEditorPick(slot));
+	}
+
+	/**
+	 * Forces the mapped records and strings to the disk.
+	 */
+	void force() {
+		for (MappedByteBuffer heapChunk : heapChunks) {
+			heapChunk.force();
+		}
+
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+
+		header.force();
+	}
+
+	/**
+	 * Forces and closes the files. The mappings stay valid until they are
+	 * garbage collected, but must not be used any more.
+	 *
+	 * @throws IOException
+	 *             if the files cannot be closed
+	 */
+	void close() throws IOException {
+		force();
+
+		try {
+			heap.close();
+		} finally {
+			records.close();
+		}
+	}
+
+	private MappedByteBuffer mapChunk(int c) throws IOException {
+		return records.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long) c * CHUNK_BYTES, CHUNK_BYTES);
+	}
+
+	/**
+	 * Appends a string to the heap, starting a new chunk if it does not fit in
+	 * the last one.
+	 *
+	 * @return the offset of the string
+	 */
+	private long putString(byte[] string) throws IOException {
+		int c = (int) (heapEnd / HEAP_CHUNK_BYTES);
+		int offset = (int) (heapEnd % HEAP_CHUNK_BYTES);
+
+		if (offset + string.length > HEAP_CHUNK_BYTES) {
+			c++;
+			offset = 0;
+		}
+
+		if (c == heapChunks.length) {
+			MappedByteBuffer[] grown = Arrays.copyOf(heapChunks, c + 1);
+			grown[c] = heap.map(FileChannel.MapMode.READ_WRITE, (long) c * HEAP_CHUNK_BYTES, HEAP_CHUNK_BYTES);
+			heapChunks = grown;
+		}
+
+		heapChunks[c].put(offset, string);
+		long start = (long) c * HEAP_CHUNK_BYTES + offset;
+		heapEnd = start + string.length;
+		header.putLong(HEAP_END, heapEnd);
+		return start;
+	}
+
+	private String getString(long offset, int length) {
+		byte[] string = new byte[length];
+		heapChunks[(int) (offset / HEAP_CHUNK_BYTES)].get((int) (offset % HEAP_CHUNK_BYTES), string);
+		return new String(string, StandardCharsets.UTF_8);
+	}
+
+	private void pushFreeSlot(int slot) {
+		if (numFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, numFreeSlots * 2);
+		}
+
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	private ByteBuffer chunk(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT];
+	}
+
+	private static int record(int slot) {
+		return (slot & CHUNK_MASK) * RECORD_BYTES;
+	}
+}
@@ -0,0 +1,616 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.business.RatingAccumulator.PendingRatings;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntHashSet;
+
+/**
+ * {@link MemoryMappedCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities over a {@link MappedCatalogFile}: the
+ * books are fixed-size records of a memory-mapped file rather than
+ * {@link BookStoreBook} objects, so the store restarts without decoding its
+ * catalog and serves catalogs larger than the Java heap. Only an index from
+ * ISBN to record is kept on the heap.
+ * <p>
+ * Every call locks the whole catalog, shared for reads and exclusive for
+ * writes, and validates all its arguments before writing, so that every call
+ * is atomic. Ratings are validated and accumulated by a
+ * {@link RatingAccumulator} under the shared lock, but unlike in the
+ * lock-based stores, every rating call then folds them under the exclusive
+ * lock, since the catalog has no finer lock: the accumulator only lets the
+ * raters waiting for that lock find their ratings folded by the one holding
+ * it, in one batch. Explicit transactions are not supported. The writes reach
+ * the file through the page cache and are forced by {@link #close()}; they
+ * are not logged, so a crash may lose the writes not yet written back.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see MappedCatalogFile
+ */
+public class MemoryMappedCertainBookStore implements BookStore, StockManager {
+
+	/** The books. */
+	private final MappedCatalogFile catalog;
+
+	/** The lock of the catalog, shared by the reads and exclusive for the writes. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** The ratings not yet folded into the catalog. */
+	private final RatingAccumulator ratings = new RatingAccumulator();
+
+	/** The ISBNs of the books that had sale misses, guarded by the lock. */
+	private final IntHashSet inDemand = new IntHashSet();
+
+	/** The editor picks, updated under the lock. */
+	private final EditorPickIndex editorPickIndex = new EditorPickIndex();
+
+	/**
+	 * Instantiates a new {@link MemoryMappedCertainBookStore} serving the
+	 * books of a catalog file, which is created if it does not exist.
+	 *
+	 * @param file
+	 *            the catalog file; the titles and authors are kept next to it
+	 * @throws IOException
+	 *             if the file cannot be opened or is not a catalog file
+	 */
+	public MemoryMappedCertainBookStore(Path file) throws IOException {
+		catalog = MappedCatalogFile.open(file);
+		catalog.forEachSlot(slot -> {
+			if (catalog.getNumSaleMisses(slot) > 0) {
+				inDemand.add(catalog.getIsbn(slot));
+			}
+
+			if (catalog.isEditorPick(slot)) {
+				editorPickIndex.set(catalog.getIsbn(slot), catalog.book(slot));
+			}
+		});
+	}
+
+	/**
+	 * Forces the catalog to the disk and closes its files. The store must not
+	 * be used any more.
+	 *
+	 * @throws IOException
+	 *             if the files cannot be closed
+	 */
+	public void close() throws IOException {
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			catalog.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!MappedCatalogFile.fits(book)) { // Check if the title and the author fit in the file
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (catalog.slotOf(isbn) >= 0) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int getSlotInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		int slot = catalog.slotOf(ISBN);
+
+		if (slot < 0) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return slot;
+	}
+
+	private int getSlotInStock(BookCopy bookCopy) throws BookStoreException {
+		int slot = getSlotInStock(bookCopy.getISBN()); // Check if the book has valid ISBN and in stock
+		int numCopies = bookCopy.getNumCopies();
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		getSlotInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				catalog.insert(book);
+
+				if (book.getNumSaleMisses() > 0) {
+					inDemand.add(book.getISBN());
+				}
+
+				if (book.isEditorPick()) {
+					editorPickIndex.set(book.getISBN(), catalog.book(catalog.slotOf(book.getISBN())));
+				}
+			}
+		} catch (IOException ex) {
+			// The books inserted before the file could not grow are taken out again.
+			for (StockBook book : bookSet) {
+				catalog.remove(book.getISBN());
+				inDemand.remove(book.getISBN());
+				editorPickIndex.set(book.getISBN(), null);
+			}
+
+			throw new BookStoreException(BookStoreConstants.CATALOG_FILE_FAILED, ex);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				getSlotInStock(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = catalog.slotOf(bookCopy.getISBN());
+				catalog.setNumCopies(slot, catalog.getNumCopies(slot) + bookCopy.getNumCopies());
+				catalog.setNumSaleMisses(slot, 0);
+				inDemand.remove(bookCopy.getISBN());
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		Lock readLock = lock.readLock();
+		readLock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(catalog.size());
+			catalog.forEachSlot(slot -> books.add(catalog.stockBook(slot)));
+			return books;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				getSlotInStock(editorPickArg.getISBN());
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int slot = catalog.slotOf(editorPickArg.getISBN());
+				catalog.setEditorPick(slot, editorPickArg.isEditorPick());
+				editorPickIndex.set(editorPickArg.getISBN(), editorPickArg.isEditorPick() ? catalog.book(slot) : null);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = getSlotInStock(bookCopyToBuy);
+				int numCopies = catalog.getNumCopies(slot);
+
+				if (numCopies < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - numCopies);
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					int slot = saleMissEntry.getKey();
+					catalog.setNumSaleMisses(slot, catalog.getNumSaleMisses(slot) + saleMissEntry.getValue());
+					inDemand.add(catalog.getIsbn(slot));
+				}
+
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = catalog.slotOf(bookCopyToBuy.getISBN());
+				catalog.setNumCopies(slot, catalog.getNumCopies(slot) - bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock readLock = lock.readLock();
+		readLock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				getSlotInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				books.add(catalog.stockBook(catalog.slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock readLock = lock.readLock();
+		readLock.lock();
+
+		try {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				getSlotInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				books.add(catalog.book(catalog.slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		Lock readLock = lock.readLock();
+		readLock.lock();
+
+		try {
+			// Only the ratings are scanned; an index would keep the rated books on the heap.
+			int[] isbns = RatingIndex.selectTopRated(numBooks, selection -> catalog.forEachSlot(
+					slot -> selection.offer(catalog.getNumTimesRated(slot), catalog.getTotalRating(slot),
+							catalog.getIsbn(slot))));
+			List<Book> books = new ArrayList<>(isbns.length);
+
+			for (int isbn : isbns) {
+				books.add(catalog.book(catalog.slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		Lock readLock = lock.readLock();
+		readLock.lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(inDemand.size());
+
+			for (int isbn : inDemand) {
+				books.add(catalog.stockBook(catalog.slotOf(isbn)));
+			}
+
+			return books;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The raters share the lock while their ratings are accumulated.
+		Lock readLock = lock.readLock();
+		readLock.lock();
+
+		try {
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				ratings.add(rating.getISBN(), rating.getRating());
+			}
+		} finally {
+			readLock.unlock();
+		}
+
+		ratings.fold(this::foldRatings);
+	}
+
+	/**
+	 * Adds the accumulated ratings to the books still in the catalog.
+	 *
+	 * @param pendingRatings
+	 *            the ratings, one per book
+	 * @return the ratings not written, none
+	 */
+	private List<PendingRatings> foldRatings(List<PendingRatings> pendingRatings) {
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			for (PendingRatings bookRatings : pendingRatings) {
+				int slot = catalog.slotOf(bookRatings.getISBN());
+
+				if (slot < 0) { // removed since it was rated
+					ratings.forget(bookRatings.getISBN());
+					continue;
+				}
+
+				catalog.setNumTimesRated(slot, catalog.getNumTimesRated(slot) + bookRatings.getNumRatings());
+				catalog.setTotalRating(slot, catalog.getTotalRating(slot) + bookRatings.getTotalRating());
+			}
+
+			return Collections.emptyList();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			catalog.clear();
+			inDemand.clear();
+			editorPickIndex.clear();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				getSlotInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				catalog.remove(isbn);
+				inDemand.remove(isbn);
+				editorPickIndex.set(isbn, null);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#begin()
+	 */
+	@Override
+	public BookStoreTransaction begin() throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.TRANSACTIONS_NOT_SUPPORTED);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#commit(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	@Override
+	public void commit(BookStoreTransaction transaction) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.TRANSACTIONS_NOT_SUPPORTED);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#abort(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	@Override
+	public void abort(BookStoreTransaction transaction) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.TRANSACTIONS_NOT_SUPPORTED);
+	}
+}
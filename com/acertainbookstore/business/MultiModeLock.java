@@ -0,0 +1,384 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MultiModeLock} is a lock on one granule of the lock hierarchy, e.g.
+ * the whole catalog or a stripe of books, that can be held by several owners in
+ * compatible {@link LockMode}s. Locks are reentrant per owner, and an owner
+ * asking for a stronger mode than it holds is upgraded to the join of both
+ * modes.
+ * <p>
+ * Requests that cannot be granted wait in a FIFO queue, and a new request is
+ * never granted ahead of a queued one, so that writers are not starved by a
+ * stream of readers. Upgrades are queued ahead of new requests since their
+ * owners already hold the lock.
+ * <p>
+ * Besides the blocking {@link #lock(Object, LockMode)}, requests can be queued
+ * with {@link #tryLock(Object, LockMode)} and waited for in slices with
+ * {@link #await(Object, long)}, so that a {@link LockManager} can look for
+ * deadlocks in between. An owner waits for at most one request per lock.
+ *
+ * @see LockMode
+ * @see LockManager
+ */
+public final class MultiModeLock {
+
+	/** The longest single wait, so that deadlines cannot overflow. */
+	private static final long MAX_WAIT_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	/** The grants, by owner. */
+	private final Map<Object, Grant> grants = new HashMap<>();
+
+	/** The number of owners holding the lock in each mode, by mode ordinal. */
+	private final int[] numGranted = new int[LockMode.values().length];
+
+	/** The requests waiting to be granted, in the order they will be granted. */
+	private final LinkedList<Request> waiters = new LinkedList<>();
+
+	/**
+	 * Acquires the lock in <code>mode</code> for the owner, waiting until the
+	 * mode is compatible with the modes held by all other owners.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param mode
+	 *            the mode
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public void lock(Object owner, LockMode mode) throws InterruptedException {
+		if (tryLock(owner, mode)) {
+			return;
+		}
+
+		try {
+			while (!await(owner, Long.MAX_VALUE)) {
+				// Keep waiting.
+			}
+		} catch (InterruptedException ex) {
+			if (!cancel(owner)) {
+				// Too late to back out, so keep the lock and the interrupt.
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			throw ex;
+		}
+	}
+
+	/**
+	 * Acquires the lock in <code>mode</code> for the owner if it can be granted
+	 * right away, and queues a request otherwise. The owner must then either
+	 * {@link #await(Object, long)} the request or {@link #cancel(Object)} it.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param mode
+	 *            the mode
+	 * @return true, if the lock was granted, false if the request was queued
+	 */
+	public synchronized boolean tryLock(Object owner, LockMode mode) {
+		Grant grant = grants.get(owner);
+
+		if (grant != null && grant.mode.covers(mode)) {
+			grant.count++;
+			return true;
+		}
+
+		boolean upgrade = grant != null;
+		LockMode requested = upgrade ? grant.mode.join(mode) : mode;
+
+		if ((upgrade || waiters.isEmpty()) && isCompatible(owner, requested)) {
+			grant(owner, requested);
+			return true;
+		}
+
+		enqueue(new Request(owner, requested, upgrade));
+		return false;
+	}
+
+	/**
+	 * Waits for the request queued by the owner to be granted.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param timeoutMillis
+	 *            the maximum time to wait, in milliseconds
+	 * @return true, if the lock was granted, false if the request is still
+	 *         queued
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public synchronized boolean await(Object owner, long timeoutMillis) throws InterruptedException {
+		Request request = findRequest(owner);
+
+		if (request == null) {
+			return true;
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMillis, MAX_WAIT_MILLIS));
+
+		while (!request.granted) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+			if (remaining <= 0) {
+				return false;
+			}
+
+			wait(remaining);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Withdraws the request queued by the owner.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @return true, if the request was withdrawn, false if it had already been
+	 *         granted
+	 */
+	public synchronized boolean cancel(Object owner) {
+		Request request = findRequest(owner);
+
+		if (request == null) {
+			return false;
+		}
+
+		waiters.remove(request);
+		grantWaiters();
+		return true;
+	}
+
+	/**
+	 * Adds the owners the request queued by the owner waits for, i.e. the
+	 * holders of incompatible modes and the requests queued ahead of it, to the
+	 * waits-for edges.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @param blockers
+	 *            the collection the owners waited for are added to
+	 */
+	public synchronized void getBlockers(Object owner, Collection<Object> blockers) {
+		Request request = findRequest(owner);
+
+		if (request == null) {
+			return;
+		}
+
+		for (Map.Entry<Object, Grant> entry : grants.entrySet()) {
+			if (entry.getKey() != owner && !entry.getValue().mode.isCompatibleWith(request.mode)) {
+				blockers.add(entry.getKey());
+			}
+		}
+
+		for (Request ahead : waiters) {
+			if (ahead == request) {
+				break;
+			}
+
+			blockers.add(ahead.owner);
+		}
+	}
+
+	/**
+	 * Releases one acquisition of the lock by the owner. The mode is kept until
+	 * all acquisitions are released.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @return true, if the owner no longer holds the lock
+	 */
+	public synchronized boolean unlock(Object owner) {
+		Grant grant = grants.get(owner);
+
+		if (grant == null) {
+			throw new IllegalMonitorStateException("The lock is not held by " + owner);
+		}
+
+		if (--grant.count > 0) {
+			return false;
+		}
+
+		grants.remove(owner);
+		numGranted[grant.mode.ordinal()]--;
+		grantWaiters();
+		return true;
+	}
+
+	/**
+	 * Releases all acquisitions of the lock by the owner.
+	 *
+	 * @param owner
+	 *            the owner
+	 */
+	public synchronized void unlockAll(Object owner) {
+		Grant grant = grants.remove(owner);
+
+		if (grant != null) {
+			numGranted[grant.mode.ordinal()]--;
+			grantWaiters();
+		}
+	}
+
+	/**
+	 * Gets the mode the owner holds the lock in.
+	 *
+	 * @param owner
+	 *            the owner
+	 * @return the mode, or null if the owner does not hold the lock
+	 */
+	public synchronized LockMode getMode(Object owner) {
+		Grant grant = grants.get(owner);
+		return grant == null ? null : grant.mode;
+	}
+
+	/**
+	 * Gets the number of requests waiting for the lock.
+	 *
+	 * @return the number of waiting requests
+	 */
+	public synchronized int getQueueLength() {
+		return waiters.size();
+	}
+
+	/**
+	 * Checks whether the owner could hold the lock in <code>mode</code> given
+	 * the modes held by all other owners.
+	 */
+	private boolean isCompatible(Object owner, LockMode mode) {
+		Grant own = grants.get(owner);
+
+		for (LockMode granted : LockMode.values()) {
+			int others = numGranted[granted.ordinal()] - (own != null && own.mode == granted ? 1 : 0);
+
+			if (others > 0 && !granted.isCompatibleWith(mode)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private Request findRequest(Object owner) {
+		for (Request request : waiters) {
+			if (request.owner == owner) {
+				return request;
+			}
+		}
+
+		return null;
+	}
+
+	private void grant(Object owner, LockMode mode) {
+		Grant grant = grants.get(owner);
+
+		if (grant == null) {
+			grants.put(owner, new Grant(mode));
+		} else {
+			numGranted[grant.mode.ordinal()]--;
+			grant.mode = mode;
+			grant.count++;
+		}
+
+		numGranted[mode.ordinal()]++;
+	}
+
+	/**
+	 * Queues the request, upgrades behind the upgrades already queued and all
+	 * other requests at the tail.
+	 */
+	private void enqueue(Request request) {
+		if (!request.upgrade) {
+			waiters.addLast(request);
+			return;
+		}
+
+		ListIterator<Request> it = waiters.listIterator();
+
+		while (it.hasNext()) {
+			if (!it.next().upgrade) {
+				it.previous();
+				break;
+			}
+		}
+
+		it.add(request);
+	}
+
+	/**
+	 * Grants the requests at the head of the queue for as long as they are
+	 * compatible with the modes held.
+	 */
+	private void grantWaiters() {
+		boolean granted = false;
+
+		for (Iterator<Request> it = waiters.iterator(); it.hasNext();) {
+			Request request = it.next();
+
+			if (!isCompatible(request.owner, request.mode)) {
+				break;
+			}
+
+			it.remove();
+			grant(request.owner, request.mode);
+			request.granted = true;
+			granted = true;
+		}
+
+		if (granted) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * {@link Grant} is the mode an owner holds the lock in and the number of
+	 * times it acquired it.
+	 */
+	private static final class Grant {
+
+		/** The mode. */
+		private LockMode mode;
+
+		/** The number of acquisitions not yet released. */
+		private int count;
+
+		private Grant(LockMode mode) {
+			this.mode = mode;
+			this.count = 1;
+		}
+	}
+
+	/**
+	 * {@link Request} is a request waiting for the lock.
+	 */
+	private static final class Request {
+
+		/** The owner. */
+		private final Object owner;
+
+		/** The mode requested, already joined with the mode held if any. */
+		private final LockMode mode;
+
+		/** Whether the owner already holds the lock. */
+		private final boolean upgrade;
+
+		/** Whether the request has been granted. */
+		private boolean granted;
+
+		private Request(Object owner, LockMode mode, boolean upgrade) {
+			this.owner = owner;
+			this.mode = mode;
+			this.upgrade = upgrade;
+		}
+	}
+}
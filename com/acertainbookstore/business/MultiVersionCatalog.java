@@ -0,0 +1,212 @@
+package com.acertainbookstore.business;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * {@link MultiVersionCatalog} keeps the committed versions of the books, so
+ * that whole-catalog reads can see a consistent snapshot without taking any
+ * lock.
+ * <p>
+ * Every ISBN maps to a chain of immutable versions, newest first, each tagged
+ * with the timestamp of the commit that published it; a removed book is
+ * published as a version without a book. A transaction publishes the books it
+ * wrote under a single, new commit timestamp, and the timestamp only becomes
+ * visible once all of them are installed, so readers see either all or none of
+ * its writes. A reader takes the last visible timestamp as its snapshot and
+ * reads, for every ISBN, the newest version not newer than the snapshot.
+ * <p>
+ * Versions no open snapshot can read any more are collected in the background
+ * every {@link #GARBAGE_COLLECTION_INTERVAL} milliseconds.
+ *
+ * @see Transaction
+ */
+final class MultiVersionCatalog {
+
+	/** The time between garbage collections, in milliseconds. */
+	static final long GARBAGE_COLLECTION_INTERVAL = 1000;
+
+	/** The daemon thread collecting the old versions of every catalog. */
+	private static final ScheduledExecutorService COLLECTOR = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "MultiVersionCatalog collector");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * {@link Version} is a committed version of a book.
+	 */
+	private static final class Version {
+
+		/** The book, or null if the book was removed. */
+		final StockBook book;
+
+		/** The timestamp of the commit that published the version. */
+		final long commitTimestamp;
+
+		/** The previous version, or null once it was collected. */
+		volatile Version previous;
+
+		Version(StockBook book, long commitTimestamp, Version previous) {
+			this.book = book;
+			this.commitTimestamp = commitTimestamp;
+			this.previous = previous;
+		}
+	}
+
+	/** The newest version of every book, by ISBN. */
+	private final ConcurrentMap<Integer, Version> versions = new ConcurrentHashMap<>();
+
+	/** Serializes the publications, so that commit timestamps are installed in order. */
+	private final Object publishMonitor = new Object();
+
+	/** The timestamp of the last commit whose versions are all installed. */
+	private volatile long lastCommitTimestamp;
+
+	/**
+	 * The number of open snapshots, by timestamp. Guarded by itself, so that
+	 * the collector never misses a snapshot being opened.
+	 */
+	private final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+
+	/**
+	 * Instantiates a new, empty {@link MultiVersionCatalog}.
+	 */
+	MultiVersionCatalog() {
+		// The collector must not keep a catalog nobody uses any more alive.
+		WeakReference<MultiVersionCatalog> catalogReference = new WeakReference<>(this);
+		ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+
+		self[0] = COLLECTOR.scheduleWithFixedDelay(() -> {
+			MultiVersionCatalog catalog = catalogReference.get();
+
+			if (catalog != null) {
+				catalog.collectGarbage();
+			} else if (self[0] != null) {
+				self[0].cancel(false);
+			}
+		}, GARBAGE_COLLECTION_INTERVAL, GARBAGE_COLLECTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Publishes the current state of the books written by a committing
+	 * transaction under a new commit timestamp. The transaction must still hold
+	 * its write locks, so that the writes to a book are published in the order
+	 * they were made.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param currentState
+	 *            gets the book with an ISBN as of now, or null if it was removed
+	 */
+	void publish(Transaction transaction, IntFunction<BookStoreBook> currentState) {
+		synchronized (publishMonitor) {
+			long commitTimestamp = lastCommitTimestamp + 1;
+
+			for (int i = 0; i < transaction.getNumWrites(); i++) {
+				int isbn = transaction.getWrittenIsbn(i);
+				Version newest = versions.get(isbn);
+
+				if (newest != null && newest.commitTimestamp == commitTimestamp) {
+					continue; // written several times by the transaction
+				}
+
+				BookStoreBook book = currentState.apply(isbn);
+				StockBook committed = (book == null) ? null : book.immutableStockBook();
+				versions.put(isbn, new Version(committed, commitTimestamp, newest));
+			}
+
+			// Make the versions visible all at once.
+			lastCommitTimestamp = commitTimestamp;
+		}
+	}
+
+	/**
+	 * Reads a consistent snapshot of the committed books without locking them.
+	 *
+	 * @param filter
+	 *            selects the books to read
+	 * @param view
+	 *            maps a selected book to the element returned
+	 * @return the elements for the selected books
+	 */
+	<T> List<T> read(Predicate<StockBook> filter, Function<StockBook, T> view) {
+		long snapshot = openSnapshot();
+
+		try {
+			List<T> books = new ArrayList<>();
+
+			for (Version version : versions.values()) {
+				while (version != null && version.commitTimestamp > snapshot) {
+					version = version.previous;
+				}
+
+				if (version != null && version.book != null && filter.test(version.book)) {
+					books.add(view.apply(version.book));
+				}
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	private long openSnapshot() {
+		synchronized (openSnapshots) {
+			long snapshot = lastCommitTimestamp;
+			openSnapshots.merge(snapshot, 1, Integer::sum);
+			return snapshot;
+		}
+	}
+
+	private void closeSnapshot(long snapshot) {
+		synchronized (openSnapshots) {
+			openSnapshots.computeIfPresent(snapshot, (timestamp, count) -> (count == 1) ? null : count - 1);
+		}
+	}
+
+	/**
+	 * Unlinks the versions that no open or future snapshot can read, and drops
+	 * the books whose removal every snapshot sees.
+	 */
+	void collectGarbage() {
+		long oldestReadable;
+
+		synchronized (openSnapshots) {
+			oldestReadable = openSnapshots.isEmpty() ? lastCommitTimestamp : openSnapshots.firstKey();
+		}
+
+		for (Map.Entry<Integer, Version> entry : versions.entrySet()) {
+			Version newest = entry.getValue();
+			Version version = newest;
+
+			// Find the version the oldest snapshot reads; older ones are garbage.
+			while (version != null && version.commitTimestamp > oldestReadable) {
+				version = version.previous;
+			}
+
+			if (version == null) {
+				continue;
+			}
+
+			version.previous = null;
+
+			if (version == newest && version.book == null) {
+				versions.remove(entry.getKey(), version);
+			}
+		}
+	}
+}
@@ -0,0 +1,807 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.business.RatingAccumulator.PendingRatings;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link OptimisticConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities using optimistic concurrency
+ * control. Operations read the books without taking any locks and remember the
+ * version stamps of the books they read; writers validate these stamps when
+ * they install their changes and restart the operation if another writer got
+ * there first. Adding and removing books bumps the version stamp of the whole
+ * catalog, which is validated by every operation.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see BookStoreBook#tryLockVersion(long)
+ */
+public class OptimisticConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final ConcurrentMap<Integer, BookStoreBook> bookMap;
+
+	/** The version stamp of the catalog, odd while books are added or removed. */
+	private final AtomicLong catalogVersion;
+
+	/** The rated books, best first, updated when their ratings are installed. */
+	private final RatingIndex ratingIndex;
+
+	/** The ratings not yet folded into the catalog. */
+	private final RatingAccumulator ratings;
+
+	/** The books in demand, updated when writers unlock the books they wrote. */
+	private final DemandIndex demandIndex;
+
+	/** The editor picks, updated when they are installed. */
+	private final EditorPickIndex editorPickIndex;
+
+	/**
+	 * Instantiates a new {@link OptimisticConcurrentCertainBookStore}.
+	 */
+	public OptimisticConcurrentCertainBookStore() {
+		bookMap = new ConcurrentHashMap<>();
+		catalogVersion = new AtomicLong();
+		ratingIndex = new RatingIndex();
+		ratings = new RatingAccumulator();
+		demandIndex = new DemandIndex();
+		editorPickIndex = new EditorPickIndex();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private BookStoreBook getBookInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook getBookInStock(BookCopy bookCopy) throws BookStoreException {
+		BookStoreBook book = getBookInStock(bookCopy.getISBN()); // Check if the book has valid ISBN and in stock
+		int numCopies = bookCopy.getNumCopies();
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		getBookInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Waits until no books are being added or removed and returns the version
+	 * stamp of the catalog.
+	 */
+	private long awaitCatalogVersion() {
+		long version;
+
+		while (((version = catalogVersion.get()) & 1L) != 0) {
+			Thread.yield();
+		}
+
+		return version;
+	}
+
+	/**
+	 * Checks that no books were added or removed since <code>version</code> was
+	 * obtained.
+	 */
+	private boolean validateCatalogVersion(long version) {
+		VarHandle.acquireFence();
+		return catalogVersion.get() == version;
+	}
+
+	/**
+	 * Locks the catalog against concurrent additions and removals of books.
+	 */
+	private long lockCatalog() {
+		long version;
+
+		while (((version = catalogVersion.get()) & 1L) != 0 || !catalogVersion.compareAndSet(version, version + 1)) {
+			Thread.yield();
+		}
+
+		return version;
+	}
+
+	private void unlockCatalog(long version, boolean modified) {
+		catalogVersion.set(modified ? version + 2 : version);
+	}
+
+	/**
+	 * Waits until no writer is installing changes on the book and returns its
+	 * version stamp.
+	 */
+	private static long awaitVersion(BookStoreBook book) {
+		long version;
+
+		while (((version = book.getVersion()) & 1L) != 0) {
+			Thread.onSpinWait();
+		}
+
+		return version;
+	}
+
+	/**
+	 * Locks the book at whatever version it currently has.
+	 */
+	private static long lockVersion(BookStoreBook book) {
+		long version;
+
+		while (!book.tryLockVersion(version = awaitVersion(book))) {
+			Thread.onSpinWait();
+		}
+
+		return version;
+	}
+
+	private static BookCopy[] sortByISBN(Set<BookCopy> bookCopies) {
+		return bookCopies.stream()
+				.sorted(Comparator.comparingInt(BookCopy::getISBN))
+				.toArray(BookCopy[]::new);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long version = lockCatalog();
+		boolean modified = false;
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookToAdd = new BookStoreBook(book);
+				bookMap.put(isbn, bookToAdd);
+				ratingIndex.update(isbn, bookToAdd);
+				demandIndex.update(isbn, bookToAdd);
+				editorPickIndex.update(isbn, bookToAdd);
+			}
+
+			modified = true;
+		} finally {
+			unlockCatalog(version, modified);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookCopy[] bookCopies = sortByISBN(bookCopiesSet);
+		ReadSet writeSet = new ReadSet(bookCopies.length);
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			writeSet.clear();
+
+			try {
+				for (BookCopy bookCopy : bookCopies) {
+					BookStoreBook book = getBookInStock(bookCopy);
+					writeSet.add(book, awaitVersion(book));
+				}
+			} catch (BookStoreException ex) {
+				if (validateCatalogVersion(catalog)) {
+					throw ex;
+				}
+
+				continue;
+			}
+
+			if (!writeSet.tryLock(catalog)) {
+				continue;
+			}
+
+			// Update the number of copies
+			for (int i = 0; i < bookCopies.length; i++) {
+				writeSet.books[i].addCopies(bookCopies[i].getNumCopies());
+			}
+
+			writeSet.unlock(true);
+			return;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		ReadSet readSet = new ReadSet(bookMap.size());
+		List<StockBook> books = new ArrayList<>(bookMap.size());
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			readSet.clear();
+			books.clear();
+
+			for (BookStoreBook book : bookMap.values()) {
+				readSet.add(book, awaitVersion(book));
+				books.add(book.immutableStockBook());
+			}
+
+			if (readSet.validate(catalog)) {
+				return books;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookEditorPick[] picks = editorPicks.stream()
+				.sorted(Comparator.comparingInt(BookEditorPick::getISBN))
+				.toArray(BookEditorPick[]::new);
+		ReadSet writeSet = new ReadSet(picks.length);
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			writeSet.clear();
+
+			try {
+				for (BookEditorPick editorPickArg : picks) {
+					BookStoreBook book = getBookInStock(editorPickArg.getISBN());
+					writeSet.add(book, awaitVersion(book));
+				}
+			} catch (BookStoreException ex) {
+				if (validateCatalogVersion(catalog)) {
+					throw ex;
+				}
+
+				continue;
+			}
+
+			if (!writeSet.tryLock(catalog)) {
+				continue;
+			}
+
+			for (int i = 0; i < picks.length; i++) {
+				writeSet.books[i].setEditorPick(picks[i].isEditorPick());
+				editorPickIndex.update(picks[i].getISBN(), writeSet.books[i]);
+			}
+
+			writeSet.unlock(true);
+			return;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookCopy[] bookCopies = sortByISBN(bookCopiesToBuy);
+		ReadSet writeSet = new ReadSet(bookCopies.length);
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			boolean saleMiss = false;
+			writeSet.clear();
+
+			// Check that all ISBNs that we buy are there first.
+			try {
+				for (BookCopy bookCopyToBuy : bookCopies) {
+					BookStoreBook book = getBookInStock(bookCopyToBuy);
+					writeSet.add(book, awaitVersion(book));
+
+					// If we cannot sell the copies of the book, it is a miss.
+					saleMiss |= !book.areCopiesInStore(bookCopyToBuy.getNumCopies());
+				}
+			} catch (BookStoreException ex) {
+				if (validateCatalogVersion(catalog)) {
+					throw ex;
+				}
+
+				continue;
+			}
+
+			// The decision above was taken on the versions we read, so it
+			// stands as long as none of the books changed in the meantime.
+			if (!writeSet.tryLock(catalog)) {
+				continue;
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (int i = 0; i < bookCopies.length; i++) {
+					BookStoreBook book = writeSet.books[i];
+					int numCopies = bookCopies[i].getNumCopies();
+
+					if (!book.areCopiesInStore(numCopies)) {
+						book.addSaleMiss(numCopies - book.getNumCopies());
+					}
+				}
+
+				writeSet.unlock(true);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (int i = 0; i < bookCopies.length; i++) {
+				writeSet.books[i].buyCopies(bookCopies[i].getNumCopies());
+			}
+
+			writeSet.unlock(true);
+			return;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		ReadSet readSet = new ReadSet(isbnSet.size());
+		List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			readSet.clear();
+			books.clear();
+
+			try {
+				for (Integer ISBN : isbnSet) {
+					BookStoreBook book = getBookInStock(ISBN);
+					readSet.add(book, awaitVersion(book));
+					books.add(book.immutableStockBook());
+				}
+			} catch (BookStoreException ex) {
+				if (validateCatalogVersion(catalog)) {
+					throw ex;
+				}
+
+				continue;
+			}
+
+			if (readSet.validate(catalog)) {
+				return books;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		ReadSet readSet = new ReadSet(isbnSet.size());
+		List<Book> books = new ArrayList<>(isbnSet.size());
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			readSet.clear();
+			books.clear();
+
+			// Check that all ISBNs that we rate are there to start with.
+			try {
+				for (Integer ISBN : isbnSet) {
+					BookStoreBook book = getBookInStock(ISBN);
+					readSet.add(book, awaitVersion(book));
+					books.add(book.immutableBook());
+				}
+			} catch (BookStoreException ex) {
+				if (validateCatalogVersion(catalog)) {
+					throw ex;
+				}
+
+				continue;
+			}
+
+			if (readSet.validate(catalog)) {
+				return books;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return ratingIndex.getTopRated(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return demandIndex.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Validate all the ratings before accumulating any.
+		while (true) {
+			long catalog = awaitCatalogVersion();
+
+			try {
+				for (BookRating rating : bookRating) {
+					validate(rating);
+				}
+			} catch (BookStoreException ex) {
+				if (validateCatalogVersion(catalog)) {
+					throw ex;
+				}
+
+				continue;
+			}
+
+			break;
+		}
+
+		for (BookRating rating : bookRating) {
+			ratings.add(rating.getISBN(), rating.getRating());
+		}
+
+		ratings.fold(this::foldRatings);
+	}
+
+	/**
+	 * Adds the accumulated ratings to the books still in the catalog, locking
+	 * all of them at once like any other writer.
+	 *
+	 * @param pendingRatings
+	 *            the ratings, one per book
+	 * @return the ratings not written, none
+	 */
+	private List<PendingRatings> foldRatings(List<PendingRatings> pendingRatings) {
+		ReadSet writeSet = new ReadSet(pendingRatings.size());
+		List<PendingRatings> found = new ArrayList<>(pendingRatings.size());
+
+		while (true) {
+			long catalog = awaitCatalogVersion();
+			writeSet.clear();
+			found.clear();
+
+			for (PendingRatings bookRatings : pendingRatings) {
+				BookStoreBook book = bookMap.get(bookRatings.getISBN());
+
+				if (book == null) { // removed since it was rated
+					ratings.forget(bookRatings.getISBN());
+					continue;
+				}
+
+				writeSet.add(book, awaitVersion(book));
+				found.add(bookRatings);
+			}
+
+			if (!writeSet.tryLock(catalog)) {
+				continue;
+			}
+
+			for (int i = 0; i < found.size(); i++) {
+				BookStoreBook book = writeSet.books[i];
+				book.addRatings(found.get(i).getNumRatings(), found.get(i).getTotalRating());
+				ratingIndex.update(book.getISBN(), book);
+			}
+
+			writeSet.unlock(true);
+			return Collections.emptyList();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		long version = lockCatalog();
+
+		try {
+			for (BookStoreBook book : bookMap.values()) {
+				// Wait for writers that validated before we locked the catalog.
+				book.unlockVersion(lockVersion(book), true);
+			}
+
+			bookMap.clear();
+			ratingIndex.clear();
+			demandIndex.clear();
+			editorPickIndex.clear();
+		} finally {
+			unlockCatalog(version, true);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long version = lockCatalog();
+		boolean modified = false;
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				getBookInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				BookStoreBook book = bookMap.get(isbn);
+				long bookVersion = lockVersion(book);
+				bookMap.remove(isbn);
+				ratingIndex.update(isbn, null);
+				demandIndex.update(isbn, null);
+				editorPickIndex.update(isbn, null);
+				book.unlockVersion(bookVersion, true);
+			}
+
+			modified = true;
+		} finally {
+			unlockCatalog(version, modified);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#begin()
+	 */
+	@Override
+	public BookStoreTransaction begin() throws BookStoreException {
+		// Read sets are only validated within a call.
+		throw new BookStoreException(BookStoreConstants.TRANSACTIONS_NOT_SUPPORTED);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#commit(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	@Override
+	public void commit(BookStoreTransaction transaction) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.TRANSACTIONS_NOT_SUPPORTED);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#abort(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	@Override
+	public void abort(BookStoreTransaction transaction) throws BookStoreException {
+		throw new BookStoreException(BookStoreConstants.TRANSACTIONS_NOT_SUPPORTED);
+	}
+
+	/**
+	 * {@link ReadSet} records the books an operation read together with the
+	 * version stamps they had at the time.
+	 */
+	private final class ReadSet {
+
+		/** The books read, in the order they were read. */
+		private BookStoreBook[] books;
+
+		/** The version stamps of the books when they were read. */
+		private long[] versions;
+
+		/** The number of books read. */
+		private int size;
+
+		private ReadSet(int capacity) {
+			books = new BookStoreBook[Math.max(capacity, 1)];
+			versions = new long[books.length];
+		}
+
+		private void clear() {
+			Arrays.fill(books, 0, size, null);
+			size = 0;
+		}
+
+		private void add(BookStoreBook book, long version) {
+			if (size == books.length) {
+				books = Arrays.copyOf(books, size * 2);
+				versions = Arrays.copyOf(versions, size * 2);
+			}
+
+			books[size] = book;
+			versions[size++] = version;
+		}
+
+		/**
+		 * Checks that neither the catalog nor any of the books changed since
+		 * they were read.
+		 */
+		private boolean validate(long catalog) {
+			for (int i = 0; i < size; i++) {
+				if (!books[i].validateVersion(versions[i])) {
+					return false;
+				}
+			}
+
+			return validateCatalogVersion(catalog);
+		}
+
+		/**
+		 * Locks all books at the versions they were read, in the order they
+		 * were read, and checks that the catalog did not change meanwhile.
+		 * Fails without holding any lock if another writer got there first.
+		 */
+		private boolean tryLock(long catalog) {
+			for (int i = 0; i < size; i++) {
+				if (!books[i].tryLockVersion(versions[i])) {
+					unlock(i, false);
+					return false;
+				}
+			}
+
+			if (!validateCatalogVersion(catalog)) {
+				unlock(size, false);
+				return false;
+			}
+
+			return true;
+		}
+
+		/**
+		 * Unlocks all books, first updating the books in demand if they were
+		 * modified, since those keep a view of every book in them.
+		 */
+		private void unlock(boolean modified) {
+			if (modified) {
+				for (int i = 0; i < size; i++) {
+					demandIndex.update(books[i].getISBN(), books[i]);
+				}
+			}
+
+			unlock(size, modified);
+		}
+
+		private void unlock(int count, boolean modified) {
+			for (int i = 0; i < count; i++) {
+				books[i].unlockVersion(versions[i], modified);
+			}
+		}
+	}
+}
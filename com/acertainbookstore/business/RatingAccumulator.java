@@ -0,0 +1,189 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RatingAccumulator} collects the ratings of the books before they are
+ * folded into the catalog, so that concurrent raters of the same book do not
+ * wait for each other's write lock on it.
+ * <p>
+ * The pending ratings of a book are counted in a {@link LongAdder}, whose
+ * cells are striped across the raters. Every rating adds one to the upper 32
+ * bits and the rating to the lower 32 bits, so a sum always holds the number
+ * of ratings and their total for the same ratings, and a fold never sees a
+ * total without its count. Up to 2^32 / 5 ratings of a book may be pending.
+ * <p>
+ * A rater then calls {@link #fold(Fold)}. Only one thread folds at a time,
+ * and it folds the pending ratings of every rater, in one write, so that the
+ * raters waiting meanwhile usually find their ratings already folded. A fold
+ * never waits for the lock of a book while other raters wait for it: the
+ * ratings of a book locked by someone else, e.g. a buyer or an explicit
+ * transaction, stay pending. The store must then fold again whenever a
+ * transaction releases its locks, so that they are folded as soon as the
+ * lock of their book is free. A fold started while another one runs waits for
+ * it, then folds what it left, so that no release goes unnoticed.
+ * <p>
+ * A rating is accepted once it is added, and is then folded exactly once. Its
+ * rater may thus return before the rating is visible, and, if the store has a
+ * {@link WriteAheadLog}, before it is durable: the rating is logged by the
+ * fold that writes it, and is lost if the store stops before.
+ *
+ * @see com.acertainbookstore.interfaces.BookStore#rateBooks(Set)
+ */
+final class RatingAccumulator {
+
+	/** The bits holding the total rating in a sum. */
+	private static final long TOTAL_RATING_MASK = 0xffffffffL;
+
+	/** The pending ratings, by ISBN. */
+	private final ConcurrentMap<Integer, LongAdder> pending = new ConcurrentHashMap<>();
+
+	/** The ISBNs of the books which may have pending ratings. */
+	private final Set<Integer> rated = ConcurrentHashMap.newKeySet();
+
+	/** Held by the thread folding the pending ratings. */
+	private final ReentrantLock folding = new ReentrantLock();
+
+	/**
+	 * {@link Fold} writes a batch of pending ratings into the catalog.
+	 */
+	@FunctionalInterface
+	interface Fold {
+
+		/**
+		 * Adds the ratings to the books still in the catalog, all at once,
+		 * except those of the books that cannot be locked without waiting.
+		 *
+		 * @param ratings
+		 *            the pending ratings, one per book
+		 * @return the ratings not written, which are pending again
+		 * @throws BookStoreException
+		 *             if none of the ratings were written, in which case they
+		 *             are all pending again
+		 */
+		List<PendingRatings> apply(List<PendingRatings> ratings) throws BookStoreException;
+	}
+
+	/**
+	 * {@link PendingRatings} are the ratings of a book not yet folded.
+	 */
+	static final class PendingRatings {
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The number of ratings and their total, packed. */
+		private final long sum;
+
+		private PendingRatings(int isbn, long sum) {
+			this.isbn = isbn;
+			this.sum = sum;
+		}
+
+		int getISBN() {
+			return isbn;
+		}
+
+		long getNumRatings() {
+			return sum >>> Integer.SIZE;
+		}
+
+		long getTotalRating() {
+			return sum & TOTAL_RATING_MASK;
+		}
+	}
+
+	/**
+	 * Adds a valid rating of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param rating
+	 *            the rating
+	 */
+	void add(int isbn, int rating) {
+		pending.computeIfAbsent(isbn, key -> new LongAdder()).add((1L << Integer.SIZE) | rating);
+
+		// Marked after adding, so a fold that unmarks the book afterwards takes the rating.
+		rated.add(isbn);
+	}
+
+	/**
+	 * Folds the pending ratings into the catalog, unless there are none or the
+	 * calling thread is folding already, e.g. when the transaction of its fold
+	 * releases its locks. The ratings not written stay pending.
+	 *
+	 * @param fold
+	 *            writes the ratings into the catalog
+	 */
+	void fold(Fold fold) {
+		// The lock is read before the marks, since a fold marks the books it
+		// skipped again before unlocking.
+		if (folding.isHeldByCurrentThread() || (!folding.isLocked() && rated.isEmpty())) {
+			return;
+		}
+
+		folding.lock();
+
+		try {
+			if (rated.isEmpty()) {
+				return;
+			}
+
+			List<PendingRatings> ratings = drain();
+			List<PendingRatings> left;
+
+			try {
+				left = fold.apply(ratings);
+			} catch (BookStoreException ex) {
+				left = ratings;
+			}
+
+			for (PendingRatings pendingRatings : left) {
+				pending.computeIfAbsent(pendingRatings.isbn, key -> new LongAdder()).add(pendingRatings.sum);
+				rated.add(pendingRatings.isbn);
+			}
+		} finally {
+			folding.unlock();
+		}
+	}
+
+	/**
+	 * Forgets the pending ratings of a book found removed by a fold. A rating
+	 * added concurrently is lost with the book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void forget(int isbn) {
+		pending.remove(isbn);
+	}
+
+	/**
+	 * Takes the pending ratings of every marked book.
+	 */
+	private List<PendingRatings> drain() {
+		List<PendingRatings> ratings = new ArrayList<>(rated.size());
+
+		for (Integer isbn : rated) {
+			// Unmarked before taking the sum, so a rating added meanwhile stays marked.
+			rated.remove(isbn);
+			LongAdder adder = pending.get(isbn);
+			long sum = (adder == null) ? 0 : adder.sumThenReset();
+
+			if (sum != 0) {
+				ratings.add(new PendingRatings(isbn, sum));
+			}
+		}
+
+		return ratings;
+	}
+}
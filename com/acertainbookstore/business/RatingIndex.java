@@ -0,0 +1,211 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.utils.IntHashSet;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link RatingIndex} orders the rated books of a catalog by average rating,
+ * best first, so that the top rated books are read from the head of the index
+ * instead of sorting the catalog: a query for K books costs O(log n + K). Books
+ * never rated are not indexed. Books with the same average rating are ordered
+ * by ISBN.
+ * <p>
+ * The stores update the index when writes become visible, e.g. when a
+ * transaction publishes them, one book at a time under the monitor of the
+ * index. The queries do not lock anything; a query running while the rating of
+ * a book changes sees that book at its old or at its new rank, but never twice,
+ * unless the book rises past the query, which then misses it.
+ *
+ * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+ */
+final class RatingIndex {
+
+	/**
+	 * {@link Rank} is the key of a book in the index.
+	 */
+	private static final class Rank implements Comparable<Rank> {
+
+		/** The average rating. */
+		final float averageRating;
+
+		/** The ISBN. */
+		final int isbn;
+
+		Rank(float averageRating, int isbn) {
+			this.averageRating = averageRating;
+			this.isbn = isbn;
+		}
+
+		@Override
+		public int compareTo(Rank other) {
+			int byRating = Float.compare(other.averageRating, averageRating);
+			return (byRating != 0) ? byRating : Integer.compare(isbn, other.isbn);
+		}
+	}
+
+	/** The rated books, best first. */
+	private final ConcurrentSkipListMap<Rank, Book> ranking = new ConcurrentSkipListMap<>();
+
+	/** The rank of every indexed book, guarded by this. */
+	private final IntObjectHashMap<Rank> ranks = new IntObjectHashMap<>();
+
+	/**
+	 * Updates the index for the books written by a committing transaction.
+	 *
+	 * @param transaction
+	 *            the transaction, which still holds its locks
+	 * @param currentState
+	 *            gets the book with an ISBN as of now, or null if it was removed
+	 */
+	void publish(Transaction transaction, IntFunction<BookStoreBook> currentState) {
+		for (int i = 0; i < transaction.getNumWrites(); i++) {
+			int isbn = transaction.getWrittenIsbn(i);
+			update(isbn, currentState.apply(isbn));
+		}
+	}
+
+	/**
+	 * Indexes all the books of a catalog, e.g. after recovering it.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	void addAll(Collection<BookStoreBook> books) {
+		for (BookStoreBook book : books) {
+			update(book.getISBN(), book);
+		}
+	}
+
+	/**
+	 * Updates the rank of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book as of now, or null if it was removed
+	 */
+	synchronized void update(int isbn, BookStoreBook book) {
+		Rank rank = (book == null || book.getNumTimesRated() == 0) ? null
+				: new Rank(book.getAverageRating(), isbn);
+		Rank previous = (rank == null) ? ranks.remove(isbn) : ranks.put(isbn, rank);
+
+		if (rank != null) {
+			// A book added again under the same ISBN may have another title.
+			ranking.put(rank, book.immutableBook());
+		}
+
+		// Removed after the new rank is in, so a query past the old rank sees the new one.
+		if (previous != null && (rank == null || previous.compareTo(rank) != 0)) {
+			ranking.remove(previous);
+		}
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	synchronized void clear() {
+		ranks.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return at most <code>numBooks</code> books, best first
+	 */
+	List<Book> getTopRated(int numBooks) {
+		List<Book> books = new ArrayList<>(Math.min(numBooks, ranking.size()));
+		IntHashSet seen = new IntHashSet(Math.min(numBooks, ranking.size()));
+
+		for (Map.Entry<Rank, Book> entry : ranking.entrySet()) {
+			if (books.size() == numBooks) {
+				break;
+			}
+
+			if (seen.add(entry.getKey().isbn)) {
+				books.add(entry.getValue());
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * Finds the ISBNs of the top rated books among candidates without an
+	 * index, keeping only the best <code>numBooks</code> offered so far, so
+	 * that a scan of n books costs O(n log K).
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @param candidates
+	 *            offers the number of times rated, the total rating and the
+	 *            ISBN of every candidate to the given selection
+	 * @return the ISBNs of at most <code>numBooks</code> books, best first
+	 */
+	static int[] selectTopRated(int numBooks, Consumer<Selection> candidates) {
+		Selection selection = new Selection(numBooks);
+		candidates.accept(selection);
+		int[] isbns = new int[selection.best.size()];
+
+		for (int i = isbns.length - 1; i >= 0; i--) {
+			isbns[i] = selection.best.poll().isbn;
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * {@link Selection} keeps the best books offered by a scan.
+	 */
+	static final class Selection {
+
+		/** The number of books kept. */
+		private final int numBooks;
+
+		/** The best books offered so far, worst first. */
+		private final PriorityQueue<Rank> best;
+
+		private Selection(int numBooks) {
+			this.numBooks = numBooks;
+			this.best = new PriorityQueue<>(Comparator.reverseOrder());
+		}
+
+		/**
+		 * Offers a book, which is kept if it was rated and is among the best
+		 * offered so far.
+		 *
+		 * @param numTimesRated
+		 *            the number of times the book was rated
+		 * @param totalRating
+		 *            the total rating of the book
+		 * @param isbn
+		 *            the ISBN
+		 */
+		void offer(long numTimesRated, long totalRating, int isbn) {
+			if (numBooks == 0 || numTimesRated == 0) {
+				return;
+			}
+
+			Rank rank = new Rank((float) totalRating / numTimesRated, isbn);
+
+			if (best.size() < numBooks) {
+				best.add(rank);
+			} else if (rank.compareTo(best.peek()) < 0) {
+				best.poll();
+				best.add(rank);
+			}
+		}
+	}
+}
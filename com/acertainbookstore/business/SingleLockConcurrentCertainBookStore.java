@@ -1,19 +1,19 @@
 package com.acertainbookstore.business;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import com.acertainbookstore.business.RatingAccumulator.PendingRatings;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.CatalogStorage;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
@@ -21,24 +21,222 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
+ * <p>
+ * Every call runs in a transaction that locks the whole catalog, shared for
+ * reads and exclusive for writes, and keeps the lock until the transaction
+ * commits or aborts, which is when the call returns unless the client began a
+ * transaction explicitly.
+ * <p>
+ * Every transaction that commits writes publishes a new, immutable
+ * {@link CatalogSnapshot} while it still holds the exclusive lock. Reads made
+ * outside an explicit transaction are served from the last snapshot without
+ * taking the lock or copying any book.
+ * <p>
+ * The books are kept in a {@link CatalogStorage}, by default a
+ * {@link HeapCatalogStorage}, which the store locks before using it.
+ * <p>
+ * Ratings made outside an explicit transaction only take shared locks: they
+ * are accumulated by a {@link RatingAccumulator} and folded into the catalog
+ * in batches, each written by a transaction of its own. A fold skips the books
+ * it cannot lock right away, and every transaction folds again once it
+ * released its locks, so that the ratings skipped are folded as soon as their
+ * books are free.
+ * <p>
+ * Given a {@link WriteAheadLog}, the store recovers its catalog from the log
+ * and appends every commit to it before making the commit visible. Its
+ * {@link #checkpoint()} bounds the part of the log the next recovery replays.
  * 
  * @see BookStore
  * @see StockManager
  */
 public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
-	private ReentrantReadWriteLock lock;
-
+	/** The storage of the books, mapping ISBNs to {@link BookStoreBook}. */
+	private CatalogStorage bookMap = null;
+	private LockManager lockManager; // only the database lock is used
+	private TransactionManager transactionManager; // the transactions owning the lock
+	private volatile CatalogSnapshot snapshot; // the committed catalog, for lock-free reads
+	private RatingIndex ratingIndex; // the committed rated books, best first
+	private DemandIndex demandIndex; // the committed books in demand
+	private EditorPickIndex editorPickIndex; // the committed editor picks
+	private RatingAccumulator ratings; // the ratings not yet folded into the catalog
+	private WriteAheadLog log; // the log the commits are appended to, or null if not durable
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}, optionally keeping the
+	 * counters and the editor picks of the books off the heap, in a
+	 * {@link StockColumnCatalogStorage}.
+	 *
+	 * @param offHeapStock
+	 *            whether to keep the stock columns off the heap
+	 */
+	public SingleLockConcurrentCertainBookStore(boolean offHeapStock) {
+		this(offHeapStock ? new StockColumnCatalogStorage() : new HeapCatalogStorage());
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} keeping its books in the
+	 * given storage.
+	 *
+	 * @param storage
+	 *            the empty storage, which the store owns from now on
+	 */
+	public SingleLockConcurrentCertainBookStore(CatalogStorage storage) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
-		lock = new ReentrantReadWriteLock();
+		bookMap = storage;
+		ratingIndex = new RatingIndex();
+		demandIndex = new DemandIndex();
+		editorPickIndex = new EditorPickIndex();
+		ratings = new RatingAccumulator();
+		lockManager = new LockManager(1);
+		snapshot = CatalogSnapshot.EMPTY;
+		transactionManager = new TransactionManager(lockManager, transaction -> transaction.undo(bookMap),
+				this::publish, this::awaitDurable, () -> ratings.fold(this::foldRatings),
+				TransactionManager.DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} whose writes are durable in
+	 * a {@link WriteAheadLog}. The catalog is first recovered by replaying the
+	 * log.
+	 *
+	 * @param offHeapStock
+	 *            whether to keep the stock columns off the heap
+	 * @param log
+	 *            the write-ahead log, which the store owns from now on
+	 * @throws IOException
+	 *             if the log cannot be replayed
+	 */
+	public SingleLockConcurrentCertainBookStore(boolean offHeapStock, WriteAheadLog log) throws IOException {
+		this(offHeapStock ? new StockColumnCatalogStorage() : new HeapCatalogStorage(), log);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} keeping its books in the
+	 * given storage, whose writes are durable in a {@link WriteAheadLog}. The
+	 * catalog is first recovered by replaying the log.
+	 *
+	 * @param storage
+	 *            the empty storage, which the store owns from now on
+	 * @param log
+	 *            the write-ahead log, which the store owns from now on
+	 * @throws IOException
+	 *             if the log cannot be replayed
+	 */
+	public SingleLockConcurrentCertainBookStore(CatalogStorage storage, WriteAheadLog log) throws IOException {
+		this(storage);
+		log.replay(bookMap);
+		this.log = log;
+		ratingIndex.addAll(bookMap.values());
+		demandIndex.addAll(bookMap.values());
+		editorPickIndex.addAll(bookMap.values());
+		snapshot = CatalogSnapshot.of(bookMap.values());
+	}
+
+	/**
+	 * Publishes the writes of a committing transaction, first to the log, if
+	 * any, then as a new snapshot and to the rating, demand and editor pick
+	 * indexes.
+	 *
+	 * @param transaction
+	 *            the transaction, which still holds its locks
+	 * @throws BookStoreException
+	 *             if the writes cannot be logged, in which case nothing was
+	 *             published and the transaction is undone
+	 */
+	private void publish(Transaction transaction) throws BookStoreException {
+		if (log != null) {
+			try {
+				transaction.setLogPosition(log.append(transaction, bookMap::get));
+			} catch (UncheckedIOException ex) {
+				throw new BookStoreException(BookStoreConstants.LOG_WRITE_FAILED, ex.getCause());
+			}
+		}
+
+		snapshot = snapshot.next(transaction, bookMap::get);
+		ratingIndex.publish(transaction, bookMap::get);
+		demandIndex.publish(transaction, bookMap::get);
+		editorPickIndex.publish(transaction, bookMap::get);
+	}
+
+	/**
+	 * Waits until the writes of a committed transaction are in the log on disk,
+	 * as far as the policy of the log requires.
+	 *
+	 * @param transaction
+	 *            the transaction, which released its locks
+	 */
+	private void awaitDurable(Transaction transaction) {
+		if (log != null) {
+			log.awaitDurable(transaction.getLogPosition());
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the catalog next to the write-ahead log, so that
+	 * recovery only replays the log after it. The catalog is copied under a
+	 * share lock on the database, which only waits for the running writers,
+	 * and the checkpoint is written after releasing it, while new writes go
+	 * on.
+	 *
+	 * @throws BookStoreException
+	 *             if the store has no log, the calling thread runs an explicit
+	 *             transaction, or the checkpoint cannot be written
+	 */
+	public void checkpoint() throws BookStoreException {
+		BookStoreTransaction current = BookStoreTransaction.current();
+
+		if (log == null) {
+			throw new BookStoreException(BookStoreConstants.NOT_DURABLE);
+		}
+
+		if (current != null) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + current.getId()
+					+ BookStoreConstants.ALREADY_ACTIVE);
+		}
+
+		List<StockBook> books;
+		long position;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			// No transaction commits meanwhile, so the copy is the state as of the position.
+			books = bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+			position = log.getWrittenPosition();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
+
+		try {
+			log.checkpoint(books, position);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.CHECKPOINT_FAILED, ex);
+		}
+	}
+
+	/**
+	 * Collects the editor picks of the catalog, which must be locked, letting
+	 * the storage find them.
+	 *
+	 * @return the editor picks
+	 */
+	private List<Book> collectEditorPicks() {
+		List<Book> editorPicks = new ArrayList<>();
+		bookMap.forEachEditorPick(book -> editorPicks.add(book.immutableBook()));
+		return editorPicks;
 	}
 
 	private void validate(StockBook book) throws BookStoreException {
@@ -89,7 +287,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -100,7 +309,17 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 	}
 
-	
+	private void validateISBNInSnapshot(CatalogSnapshot committed, Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		if (!committed.contains(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -113,30 +332,28 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// acquire the exclusive lock, since ReetrantReadWriteLock doesn't support upgrade, need to release read lock first
-		for (int i = 0; i < lock.getReadHoldCount(); i++) {
-			lock.readLock().unlock();
-		}
-		lock.writeLock().lock();
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			try {
+		try {
+			// acquire the exclusive lock, upgrading a shared lock held by the transaction
+			lockManager.lockDatabase(transaction, LockMode.X);
+
+			// Check if all are there
+			for (StockBook book : bookSet) {
 				validate(book);
- 			}
-			catch(BookStoreException e) {
-				lock.writeLock().unlock();
-				throw new BookStoreException(e);
 			}
-		}
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
-		}
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				transaction.logInsert(isbn);
+				bookMap.put(isbn, bookMap.newBook(book));
+			}
 
-		// release the exclusive lock
-		// lock.writeLock().unlock();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -146,42 +363,32 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		int isbn;
-		int numCopies;
-
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// acquire the exclusive lock
-		for (int i = 0; i < lock.getReadHoldCount(); i++) {
-			lock.readLock().unlock();
-		}
-		lock.writeLock().lock();
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			try {
+		try {
+			// acquire the exclusive lock
+			lockManager.lockDatabase(transaction, LockMode.X);
+
+			for (BookCopy bookCopy : bookCopiesSet) {
 				validate(bookCopy);
 			}
-			catch (BookStoreException e) {
-				lock.writeLock().unlock();
-				throw new BookStoreException(e);
-			}
-		}
 
-		BookStoreBook book;
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = bookMap.get(bookCopy.getISBN());
+				transaction.logUpdate(book);
+				book.addCopies(bookCopy.getNumCopies());
+			}
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-
-		// release the exclusive lock
-		// lock.writeLock().unlock();
-
 	}
 
 	/*
@@ -189,19 +396,28 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public List<StockBook> getBooks() {
+	public List<StockBook> getBooks() throws BookStoreException {
+		if (BookStoreTransaction.current() == null) {
+			return snapshot.getStockBooks();
+		}
 
-		// acquire share lock
-		lock.readLock().lock();
+		// an explicit transaction must see its own writes
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+		try {
+			// acquire share lock
+			lockManager.lockDatabase(transaction, LockMode.S);
 
-		// release share lock
-		// lock.readLock().unlock();
+			List<StockBook> books = bookMap.values().stream()
+	                .map(book -> book.immutableStockBook())
+	                .collect(Collectors.toList());
 
-		return bookMapValues.stream()
-                .map(book -> book.immutableStockBook())
-                .collect(Collectors.toList());
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -217,30 +433,27 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		int isbnValue;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		// acquire the exclusive lock
-		for (int i = 0; i < lock.getReadHoldCount(); i++) {
-			lock.readLock().unlock();
-		}
-		lock.writeLock().lock();
+		try {
+			// acquire the exclusive lock
+			lockManager.lockDatabase(transaction, LockMode.X);
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			try {
+			for (BookEditorPick editorPickArg : editorPicks) {
 				validate(editorPickArg);
 			}
-			catch (BookStoreException e) {
-				lock.writeLock().unlock();
-				throw new BookStoreException(e);
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				transaction.logUpdate(book);
+				book.setEditorPick(editorPickArg.isEditorPick());
 			}
-		}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-
-		// release the exclusive lock
-		// lock.writeLock().unlock();
 	}
 
 	/*
@@ -253,54 +466,58 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we buy are there first.
-		int isbn;
-		BookStoreBook book;
-		Boolean saleMiss = false;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
 
-		// acquire exclusive lock
-		lock.writeLock().lock();
+			Map<Integer, Integer> salesMisses = new HashMap<>();
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
-			try {
+			// acquire exclusive lock
+			lockManager.lockDatabase(transaction, LockMode.X);
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
 				validate(bookCopyToBuy);
-			}
-			catch (BookStoreException e){
-				lock.writeLock().unlock();
-				throw new BookStoreException(e);
-			}
 
-			book = bookMap.get(isbn);
+				book = bookMap.get(isbn);
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
 			}
-		}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					transaction.logUpdate(book);
+					book.addSaleMiss(saleMissEntry.getValue());
+				}
+
+				// The misses are kept even though the purchase fails.
+				succeeded = true;
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
 
-			lock.writeLock().unlock();
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-		}
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				transaction.logUpdate(book);
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
 
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-
-		// lock.writeLock().unlock();
 	}
 
 	/*
@@ -315,28 +532,38 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// acquire share lock
-		lock.readLock().lock();
+		if (BookStoreTransaction.current() == null) {
+			CatalogSnapshot committed = snapshot;
 
-		for (Integer ISBN : isbnSet) {
-			try {
-				validateISBNInStock(ISBN);
-			}
-			catch (BookStoreException e)
-			{
-				lock.readLock().unlock();
-				throw new BookStoreException(e);
+			for (Integer ISBN : isbnSet) {
+				validateISBNInSnapshot(committed, ISBN);
 			}
+
+			return isbnSet.stream()
+	                .map(isbn -> committed.getStockBook(isbn))
+	                .collect(Collectors.toList());
 		}
 
-		List<StockBook> books = isbnSet.stream()
-                .map(isbn -> bookMap.get(isbn).immutableStockBook())
-                .collect(Collectors.toList());
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			// acquire share lock
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
 
-		// release share lock
-		// lock.readLock().unlock();
+			List<StockBook> books = isbnSet.stream()
+	                .map(isbn -> bookMap.get(isbn).immutableStockBook())
+	                .collect(Collectors.toList());
 
-		return books;
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -349,26 +576,38 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		lock.readLock().lock();
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			try {
-				validateISBNInStock(ISBN);
-			}
-			catch (BookStoreException e)
-			{
-				lock.readLock().unlock();
-				throw new BookStoreException(e);
+		if (BookStoreTransaction.current() == null) {
+			CatalogSnapshot committed = snapshot;
+
+			for (Integer ISBN : isbnSet) {
+				validateISBNInSnapshot(committed, ISBN);
 			}
+
+			return isbnSet.stream()
+	                .map(isbn -> committed.getBook(isbn))
+	                .collect(Collectors.toList());
 		}
 
-		List<Book> books = isbnSet.stream()
-                .map(isbn -> bookMap.get(isbn).immutableBook())
-                .collect(Collectors.toList());
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
 
-		// lock.readLock().unlock();
+			List<Book> books = isbnSet.stream()
+	                .map(isbn -> bookMap.get(isbn).immutableBook())
+	                .collect(Collectors.toList());
 
-		return books;
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -381,41 +620,27 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		lock.readLock().lock();
-
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                .map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-                .collect(Collectors.toList());
-
-		// lock.readLock().unlock();
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+		if (BookStoreTransaction.current() == null) {
+			return editorPickIndex.sample(numBooks);
+		}
 
-		if (rangePicks <= numBooks) {
+		// an explicit transaction must see its own writes, which are only indexed once committed
+		List<Book> listAllEditorPicks;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+			// Copy the picks while they are locked.
+			listAllEditorPicks = collectEditorPicks();
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
 
-        // Return all the books by the randomly chosen indices.
-        return tobePicked.stream()
-                .map(index -> listAllEditorPicks.get(index).immutableBook())
-                .collect(Collectors.toList());
+		return EditorPickIndex.sample(listAllEditorPicks, numBooks);
 	}
 
 	/*
@@ -425,7 +650,35 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (BookStoreTransaction.current() == null) {
+			return ratingIndex.getTopRated(numBooks);
+		}
+
+		// an explicit transaction must see its own writes, which are only indexed once committed
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			int[] isbns = RatingIndex.selectTopRated(numBooks, selection -> {
+				for (BookStoreBook book : bookMap.values()) {
+					selection.offer(book.getNumTimesRated(), book.getTotalRating(), book.getISBN());
+				}
+			});
+			List<Book> books = Arrays.stream(isbns)
+					.<Book>mapToObj(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -435,17 +688,111 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		if (BookStoreTransaction.current() == null) {
+			return demandIndex.getBooksInDemand();
+		}
+
+		// an explicit transaction must see its own writes, which are only indexed once committed
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			List<StockBook> books = new ArrayList<>();
+			bookMap.forEachSaleMiss(book -> books.add(book.immutableStockBook()));
+
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Outside an explicit transaction, the ratings are folded into the catalog
+	 * once the call released its locks, unless another transaction holds the
+	 * lock of a book, in which case they are folded once it releases it. The
+	 * call may thus return before its ratings are visible and, given a
+	 * {@link WriteAheadLog}, before they are durable.
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		boolean explicit = BookStoreTransaction.current() != null;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			// An explicit transaction rates the books under the exclusive lock, so that
+			// it can abort the ratings; otherwise the raters share the lock.
+			lockManager.lockDatabase(transaction, explicit ? LockMode.X : LockMode.S);
+
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				if (explicit) {
+					BookStoreBook book = bookMap.get(rating.getISBN());
+					transaction.logUpdate(book);
+					book.addRating(rating.getRating());
+				} else {
+					ratings.add(rating.getISBN(), rating.getRating());
+				}
+			}
+
+			succeeded = true;
+		} finally {
+			// Releasing the locks folds the ratings.
+			transactionManager.exitCall(transaction, succeeded);
+		}
+	}
+
+	/**
+	 * Adds the accumulated ratings to the books still in the catalog, in a
+	 * transaction of its own, which publishes and logs them like any other
+	 * write. If the catalog cannot be locked right away, nothing is written.
+	 *
+	 * @param pendingRatings
+	 *            the ratings, one per book
+	 * @return the ratings not written
+	 * @throws BookStoreException
+	 *             if the transaction failed
+	 */
+	private List<PendingRatings> foldRatings(List<PendingRatings> pendingRatings) throws BookStoreException {
+		// Not in the transaction bound to the thread, if any, which may have failed.
+		Transaction transaction = transactionManager.enterOwnCall();
+		boolean succeeded = false;
+
+		try {
+			// Not waiting for the exclusive lock, which would keep every other rater waiting.
+			if (!lockManager.tryLockDatabase(transaction, LockMode.X)) {
+				return pendingRatings;
+			}
+
+			for (PendingRatings bookRatings : pendingRatings) {
+				BookStoreBook book = bookMap.get(bookRatings.getISBN());
+
+				if (book == null) { // removed since it was rated
+					ratings.forget(bookRatings.getISBN());
+					continue;
+				}
+
+				transaction.logUpdate(book);
+				book.addRatings(bookRatings.getNumRatings(), bookRatings.getTotalRating());
+			}
+
+			succeeded = true;
+			return Collections.emptyList();
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -453,22 +800,23 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
+	public void removeAllBooks() throws BookStoreException {
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-	public void releaseAllLocks() throws BookStoreException{
-		int readCount = lock.getReadHoldCount();
-		for (int i = 0; i < readCount; i++) {
-			lock.readLock().unlock();
-		}
-		int writeCount = lock.getWriteHoldCount();
-		for (int j = 0; j < writeCount; j++) {
-			lock.writeLock().unlock();
-		}
-	}
+		try {
+			lockManager.lockDatabase(transaction, LockMode.X);
 
-	public void removeAllBooks() throws BookStoreException {
-		lock.writeLock().lock();
-		bookMap.clear();
-		// lock.writeLock().unlock();
+			// every removal is logged, so that a new snapshot is published when committing
+			for (BookStoreBook book : bookMap.values()) {
+				transaction.logDelete(book);
+			}
+
+			bookMap.clear();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -482,24 +830,61 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		lock.writeLock().lock();
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				lock.writeLock().unlock();
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.X);
+
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				lock.writeLock().unlock();
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			for (int isbn : isbnSet) {
+				transaction.logDelete(bookMap.remove(isbn));
 			}
-		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#begin()
+	 */
+	public BookStoreTransaction begin() throws BookStoreException {
+		return transactionManager.begin();
+	}
 
-		// lock.writeLock().unlock();
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#commit(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void commit(BookStoreTransaction transaction) throws BookStoreException {
+		transactionManager.commit(transaction);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#abort(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void abort(BookStoreTransaction transaction) throws BookStoreException {
+		transactionManager.abort(transaction);
 	}
 
 }
@@ -0,0 +1,178 @@
+package com.acertainbookstore.business;
+
+import java.lang.ref.Cleaner;
+
+/**
+ * {@link StockColumnBook} is a {@link BookStoreBook} whose counters and editor
+ * pick live in a slot of a {@link StockColumnTable} rather than in its own
+ * fields, so the rest of the bookstore uses it like any other book. The slot is
+ * freed once the book is no longer referenced, i.e. neither by the catalog nor
+ * by the undo log of a transaction, which may put the book back.
+ *
+ * @see StockColumnTable
+ */
+final class StockColumnBook extends BookStoreBook {
+
+	/** Frees the slots of the unreferenced books. */
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/** The table holding the counters and the editor pick. */
+	private final StockColumnTable table;
+
+	/** The slot of the book in the table. */
+	private final int slot;
+
+	/**
+	 * Instantiates a new {@link StockColumnBook} from a {@link StockBook}
+	 * instance, allocating its slot in the table.
+	 *
+	 * @param table
+	 *            the table
+	 * @param bookToCopy
+	 *            the book to copy
+	 */
+	StockColumnBook(StockColumnTable table, StockBook bookToCopy) {
+		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice(), 0);
+		this.table = table;
+		this.slot = table.allocate(bookToCopy.getISBN());
+
+		table.setNumSaleMisses(slot, bookToCopy.getNumSaleMisses());
+		table.setNumTimesRated(slot, bookToCopy.getNumTimesRated());
+		table.setNumCopies(slot, bookToCopy.getNumCopies());
+		table.setTotalRating(slot, bookToCopy.getTotalRating());
+		table.setEditorPick(slot, bookToCopy.isEditorPick());
+		CLEANER.register(this, new SlotRelease(table, slot));
+	}
+
+	/**
+	 * Gets the slot of the book in the table.
+	 *
+	 * @return the slot
+	 */
+	int getSlot() {
+		return slot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getTotalRating()
+	 */
+	@Override
+	public long getTotalRating() {
+		return table.getTotalRating(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumTimesRated()
+	 */
+	@Override
+	public long getNumTimesRated() {
+		return table.getNumTimesRated(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumCopies()
+	 */
+	@Override
+	public int getNumCopies() {
+		return table.getNumCopies(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumSaleMisses()
+	 */
+	@Override
+	public long getNumSaleMisses() {
+		return table.getNumSaleMisses(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#isEditorPick()
+	 */
+	@Override
+	public boolean isEditorPick() {
+		return table.isEditorPick(slot);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#setTotalRating(long)
+	 */
+	@Override
+	void setTotalRating(long totalRating) {
+		table.setTotalRating(slot, totalRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#setNumTimesRated(long)
+	 */
+	@Override
+	void setNumTimesRated(long numTimesRated) {
+		table.setNumTimesRated(slot, numTimesRated);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#setNumCopies(int)
+	 */
+	@Override
+	void setNumCopies(int numCopies) {
+		table.setNumCopies(slot, numCopies);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#setNumSaleMisses(long)
+	 */
+	@Override
+	void setNumSaleMisses(long numSaleMisses) {
+		table.setNumSaleMisses(slot, numSaleMisses);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#setEditorPick(boolean)
+	 */
+	@Override
+	public void setEditorPick(boolean editorPick) {
+		table.setEditorPick(slot, editorPick);
+	}
+
+	/**
+	 * {@link SlotRelease} frees the slot of a book. It must not refer to the
+	 * book, or the book would never become unreachable.
+	 */
+	private static final class SlotRelease implements Runnable {
+
+		/** The table. */
+		private final StockColumnTable table;
+
+		/** The slot. */
+		private final int slot;
+
+		SlotRelease(StockColumnTable table, int slot) {
+			this.table = table;
+			this.slot = slot;
+		}
+
+		@Override
+		public void run() {
+			table.free(slot);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import com.acertainbookstore.interfaces.CatalogStorage;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link StockColumnCatalogStorage} keeps the books as {@link StockColumnBook}
+ * objects in an {@link IntObjectHashMap}, with their counters and editor picks
+ * off the heap, in a {@link StockColumnTable}. The editor picks are found by
+ * scanning the editor pick column instead of every book.
+ *
+ * @see CatalogStorage
+ */
+public final class StockColumnCatalogStorage implements CatalogStorage {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final IntObjectHashMap<BookStoreBook> bookMap = new IntObjectHashMap<>();
+
+	/** The off-heap stock columns. */
+	private final StockColumnTable stockTable = new StockColumnTable();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.CatalogStorage#newBook(com.acertainbookstore
+	 * .business.StockBook)
+	 */
+	@Override
+	public BookStoreBook newBook(StockBook book) {
+		return new StockColumnBook(stockTable, book);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#get(int)
+	 */
+	@Override
+	public BookStoreBook get(int isbn) {
+		return bookMap.get(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#containsKey(int)
+	 */
+	@Override
+	public boolean containsKey(int isbn) {
+		return bookMap.containsKey(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#put(int,
+	 * com.acertainbookstore.business.BookStoreBook)
+	 */
+	@Override
+	public BookStoreBook put(int isbn, BookStoreBook book) {
+		return bookMap.put(isbn, book);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#remove(int)
+	 */
+	@Override
+	public BookStoreBook remove(int isbn) {
+		return bookMap.remove(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#clear()
+	 */
+	@Override
+	public void clear() {
+		bookMap.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#size()
+	 */
+	@Override
+	public int size() {
+		return bookMap.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.CatalogStorage#values()
+	 */
+	@Override
+	public Collection<BookStoreBook> values() {
+		return bookMap.values();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.CatalogStorage#forEachEditorPick(java.
+	 * util.function.Consumer)
+	 */
+	@Override
+	public void forEachEditorPick(Consumer<BookStoreBook> consumer) {
+		stockTable.forEachEditorPick(slot -> {
+			BookStoreBook book = bookMap.get(stockTable.getIsbn(slot));
+
+			// A slot whose book was removed, and is not freed yet, is skipped.
+			if (book instanceof StockColumnBook && ((StockColumnBook) book).getSlot() == slot) {
+				consumer.accept(book);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.CatalogStorage#forEachSaleMiss(java.
+	 * util.function.Consumer)
+	 */
+	@Override
+	public void forEachSaleMiss(Consumer<BookStoreBook> consumer) {
+		stockTable.forEachSaleMiss(slot -> {
+			BookStoreBook book = bookMap.get(stockTable.getIsbn(slot));
+
+			// A slot whose book was removed, and is not freed yet, is skipped.
+			if (book instanceof StockColumnBook && ((StockColumnBook) book).getSlot() == slot) {
+				consumer.accept(book);
+			}
+		});
+	}
+}
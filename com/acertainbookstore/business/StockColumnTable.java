@@ -0,0 +1,207 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * {@link StockColumnTable} keeps the counters and the editor pick of the books
+ * off the heap, in columns indexed by a dense slot per book. The columns live
+ * in direct buffers of {@link #CHUNK_SIZE} slots each; a chunk stores every
+ * column contiguously, so that a scan over one column, e.g. to find the editor
+ * picks, reads memory sequentially instead of visiting a heap object per book.
+ * Chunks are never moved once allocated, so growing the table does not race
+ * with the writers of other slots.
+ * <p>
+ * The slots of books that are no longer referenced are freed by
+ * {@link StockColumnBook}, and reused. A free slot has ISBN 0, which is not a
+ * valid ISBN, so scans skip it.
+ * <p>
+ * Reading and writing a slot is not synchronized: the caller must hold the
+ * locks of the book. Allocating and freeing slots is thread-safe.
+ *
+ * @see StockColumnBook
+ */
+final class StockColumnTable {
+
+	/** The number of slots of a chunk, as a power of two. */
+	private static final int CHUNK_SHIFT = 12;
+
+	/** The number of slots of a chunk. */
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/** The mask giving the index of a slot in its chunk. */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** The offset of the ISBN column in a chunk. */
+	private static final int ISBN_OFFSET = 0;
+
+	/** The offset of the number of copies column in a chunk. */
+	private static final int NUM_COPIES_OFFSET = ISBN_OFFSET + Integer.BYTES * CHUNK_SIZE;
+
+	/** The offset of the total rating column in a chunk. */
+	private static final int TOTAL_RATING_OFFSET = NUM_COPIES_OFFSET + Integer.BYTES * CHUNK_SIZE;
+
+	/** The offset of the number of times rated column in a chunk. */
+	private static final int NUM_TIMES_RATED_OFFSET = TOTAL_RATING_OFFSET + Long.BYTES * CHUNK_SIZE;
+
+	/** The offset of the number of sale misses column in a chunk. */
+	private static final int NUM_SALE_MISSES_OFFSET = NUM_TIMES_RATED_OFFSET + Long.BYTES * CHUNK_SIZE;
+
+	/** The offset of the editor pick column in a chunk. */
+	private static final int EDITOR_PICK_OFFSET = NUM_SALE_MISSES_OFFSET + Long.BYTES * CHUNK_SIZE;
+
+	/** The size of a chunk, in bytes. */
+	private static final int CHUNK_BYTES = EDITOR_PICK_OFFSET + CHUNK_SIZE;
+
+	/** The chunks. Only grown, under the monitor, by copying the references. */
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+	/** The number of slots ever allocated, guarded by this. */
+	private int numSlots;
+
+	/** The free slots, guarded by this. */
+	private int[] freeSlots = new int[16];
+
+	/** The number of free slots, guarded by this. */
+	private int numFreeSlots;
+
+	/**
+	 * Allocates a slot for a book, with zero counters and no editor pick.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the slot
+	 */
+	synchronized int allocate(int isbn) {
+		int slot;
+
+		if (numFreeSlots > 0) {
+			slot = freeSlots[--numFreeSlots];
+		} else {
+			slot = numSlots++;
+
+			if ((slot >>> CHUNK_SHIFT) == chunks.length) {
+				ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+				grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+				chunks = grown;
+			}
+		}
+
+		setNumCopies(slot, 0);
+		setTotalRating(slot, 0);
+		setNumTimesRated(slot, 0);
+		setNumSaleMisses(slot, 0);
+		setEditorPick(slot, false);
+		chunk(slot).putInt(ISBN_OFFSET + Integer.BYTES * (slot & CHUNK_MASK), isbn);
+		return slot;
+	}
+
+	/**
+	 * Frees a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	synchronized void free(int slot) {
+		chunk(slot).putInt(ISBN_OFFSET + Integer.BYTES * (slot & CHUNK_MASK), 0);
+
+		if (numFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, numFreeSlots * 2);
+		}
+
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	int getIsbn(int slot) {
+		return chunk(slot).getInt(ISBN_OFFSET + Integer.BYTES * (slot & CHUNK_MASK));
+	}
+
+	int getNumCopies(int slot) {
+		return chunk(slot).getInt(NUM_COPIES_OFFSET + Integer.BYTES * (slot & CHUNK_MASK));
+	}
+
+	void setNumCopies(int slot, int numCopies) {
+		chunk(slot).putInt(NUM_COPIES_OFFSET + Integer.BYTES * (slot & CHUNK_MASK), numCopies);
+	}
+
+	long getTotalRating(int slot) {
+		return chunk(slot).getLong(TOTAL_RATING_OFFSET + Long.BYTES * (slot & CHUNK_MASK));
+	}
+
+	void setTotalRating(int slot, long totalRating) {
+		chunk(slot).putLong(TOTAL_RATING_OFFSET + Long.BYTES * (slot & CHUNK_MASK), totalRating);
+	}
+
+	long getNumTimesRated(int slot) {
+		return chunk(slot).getLong(NUM_TIMES_RATED_OFFSET + Long.BYTES * (slot & CHUNK_MASK));
+	}
+
+	void setNumTimesRated(int slot, long numTimesRated) {
+		chunk(slot).putLong(NUM_TIMES_RATED_OFFSET + Long.BYTES * (slot & CHUNK_MASK), numTimesRated);
+	}
+
+	long getNumSaleMisses(int slot) {
+		return chunk(slot).getLong(NUM_SALE_MISSES_OFFSET + Long.BYTES * (slot & CHUNK_MASK));
+	}
+
+	void setNumSaleMisses(int slot, long numSaleMisses) {
+		chunk(slot).putLong(NUM_SALE_MISSES_OFFSET + Long.BYTES * (slot & CHUNK_MASK), numSaleMisses);
+	}
+
+	boolean isEditorPick(int slot) {
+		return chunk(slot).get(EDITOR_PICK_OFFSET + (slot & CHUNK_MASK)) != 0;
+	}
+
+	void setEditorPick(int slot, boolean editorPick) {
+		chunk(slot).put(EDITOR_PICK_OFFSET + (slot & CHUNK_MASK), (byte) (editorPick ? 1 : 0));
+	}
+
+	/**
+	 * Scans the editor pick column for the slots of the picked books.
+	 *
+	 * @param slotConsumer
+	 *            gets the slots found
+	 */
+	void forEachEditorPick(IntConsumer slotConsumer) {
+		ByteBuffer[] scanned = chunks;
+
+		for (int c = 0; c < scanned.length; c++) {
+			ByteBuffer chunk = scanned[c];
+
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				if (chunk.get(EDITOR_PICK_OFFSET + i) != 0
+						&& chunk.getInt(ISBN_OFFSET + Integer.BYTES * i) != 0) {
+					slotConsumer.accept((c << CHUNK_SHIFT) | i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scans the sale misses column for the slots of the books that had sale
+	 * misses.
+	 *
+	 * @param slotConsumer
+	 *            gets the slots found
+	 */
+	void forEachSaleMiss(IntConsumer slotConsumer) {
+		ByteBuffer[] scanned = chunks;
+
+		for (int c = 0; c < scanned.length; c++) {
+			ByteBuffer chunk = scanned[c];
+
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				if (chunk.getLong(NUM_SALE_MISSES_OFFSET + Long.BYTES * i) > 0
+						&& chunk.getInt(ISBN_OFFSET + Integer.BYTES * i) != 0) {
+					slotConsumer.accept((c << CHUNK_SHIFT) | i);
+				}
+			}
+		}
+	}
+
+	private ByteBuffer chunk(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT];
+	}
+}
@@ -0,0 +1,80 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link StripedLockTable} maps ISBNs onto a fixed, power-of-two number of
+ * {@link MultiModeLock}s, so that the memory used for item locks is bounded no matter
+ * how many books are in the catalog. Books whose ISBNs hash to the same stripe
+ * share a lock.
+ * <p>
+ * Operations locking several ISBNs must acquire the stripes in ascending
+ * stripe order, cf. {@link LockManager}, so that no two operations can wait for
+ * each other.
+ */
+public final class StripedLockTable {
+
+	/** The stripes. */
+	private final MultiModeLock[] stripes;
+
+	/** The mask selecting a stripe from a hash. */
+	private final int mask;
+
+	/**
+	 * Instantiates a new {@link StripedLockTable}.
+	 *
+	 * @param numStripes
+	 *            the minimum number of stripes, rounded up to a power of two
+	 */
+	public StripedLockTable(int numStripes) {
+		int size = Integer.highestOneBit(Math.max(numStripes - 1, 1)) << 1;
+		stripes = new MultiModeLock[size];
+		mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new MultiModeLock();
+		}
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int size() {
+		return stripes.length;
+	}
+
+	/**
+	 * Gets the stripe the ISBN is mapped onto.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe
+	 */
+	public int stripeOf(int isbn) {
+		// ISBNs are often consecutive, so spread them over all the stripes.
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the lock of the stripe.
+	 *
+	 * @param stripe
+	 *            the stripe
+	 * @return the lock
+	 */
+	public MultiModeLock getStripe(int stripe) {
+		return stripes[stripe];
+	}
+
+	/**
+	 * Gets the lock guarding the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the lock
+	 */
+	public MultiModeLock get(int isbn) {
+		return stripes[stripeOf(isbn)];
+	}
+}
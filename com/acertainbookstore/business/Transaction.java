@@ -0,0 +1,325 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+
+import com.acertainbookstore.interfaces.CatalogStorage;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.IntHashSet;
+
+/**
+ * {@link Transaction} is the server side state of a transaction. It is the
+ * owner of the locks taken on its behalf and records the ISBNs of the books it
+ * writes, so that their new state can be published when it commits. It also
+ * keeps an undo log of before-images, so that it can be aborted, even as it
+ * commits when its writes cannot be logged.
+ *
+ * @see TransactionManager
+ * @see BookStoreTransaction
+ */
+final class Transaction {
+
+	/**
+	 * The states of a transaction.
+	 */
+	enum State {
+		ACTIVE, COMMITTED, ABORTED
+	}
+
+	/** The id, 0 for the transaction of a single call. */
+	private final long id;
+
+	/** The state, guarded by this. */
+	private State state = State.ACTIVE;
+
+	/** Whether a call is running in the transaction, guarded by this. */
+	private boolean inCall;
+
+	/** The time the last call returned, in nanoseconds, guarded by this. */
+	private long lastUsed = System.nanoTime();
+
+	/** The ISBNs of the books written, possibly repeated. */
+	private int[] writtenIsbns;
+
+	/** The number of entries in the write set. */
+	private int numWrites;
+
+	/** The ISBNs of the books added, or null if none was. */
+	private IntHashSet insertedIsbns;
+
+	/** The end of the frame of the transaction in the write-ahead log, or 0. */
+	private long logPosition;
+
+	/** The ISBNs of the undo log. */
+	private int[] undoIsbns;
+
+	/** The before-images of the undo log, null for books that were added. */
+	private BookStoreBook[] undoImages;
+
+	/** The number of entries in the undo log. */
+	private int undoSize;
+
+	/**
+	 * Instantiates a new {@link Transaction}.
+	 *
+	 * @param id
+	 *            the id, 0 for the transaction of a single call
+	 */
+	Transaction(long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Gets the id.
+	 *
+	 * @return the id
+	 */
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * Checks if the transaction was begun explicitly and may span several
+	 * calls.
+	 *
+	 * @return true, if the transaction is explicit
+	 */
+	boolean isExplicit() {
+		return id != 0;
+	}
+
+	/**
+	 * Marks a call as running in the transaction.
+	 *
+	 * @throws BookStoreException
+	 *             if the transaction is not active or already runs a call
+	 */
+	synchronized void enterCall() throws BookStoreException {
+		if (state != State.ACTIVE) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + id + BookStoreConstants.NOT_ACTIVE);
+		}
+
+		if (inCall) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + id + BookStoreConstants.BUSY);
+		}
+
+		inCall = true;
+	}
+
+	/**
+	 * Marks the running call as returned.
+	 */
+	synchronized void exitCall() {
+		inCall = false;
+		lastUsed = System.nanoTime();
+	}
+
+	/**
+	 * Ends the transaction unless it already ended or runs a call.
+	 *
+	 * @param newState
+	 *            either {@link State#COMMITTED} or {@link State#ABORTED}
+	 * @return true, if the transaction was ended
+	 */
+	synchronized boolean end(State newState) {
+		if (state != State.ACTIVE || inCall) {
+			return false;
+		}
+
+		state = newState;
+		return true;
+	}
+
+	/**
+	 * Aborts the transaction if no call ran in it for longer than the timeout.
+	 *
+	 * @param now
+	 *            the current time, in nanoseconds
+	 * @param idleTimeout
+	 *            the timeout, in nanoseconds
+	 * @return true, if the transaction was aborted
+	 */
+	synchronized boolean expire(long now, long idleTimeout) {
+		if (state != State.ACTIVE || inCall || now - lastUsed < idleTimeout) {
+			return false;
+		}
+
+		state = State.ABORTED;
+		lastUsed = now; // its client gets another timeout to abort it too
+		return true;
+	}
+
+	/**
+	 * Checks if the transaction was aborted.
+	 *
+	 * @return true, if the transaction was aborted
+	 */
+	synchronized boolean isAborted() {
+		return state == State.ABORTED;
+	}
+
+	/**
+	 * Checks if the transaction was aborted longer than the timeout ago, or
+	 * returned its last call that long ago.
+	 *
+	 * @param now
+	 *            the current time, in nanoseconds
+	 * @param idleTimeout
+	 *            the timeout, in nanoseconds
+	 * @return true, if the transaction is aborted and idle
+	 */
+	synchronized boolean isStale(long now, long idleTimeout) {
+		return state == State.ABORTED && !inCall && now - lastUsed >= idleTimeout;
+	}
+
+	/**
+	 * Logs the before-image of a book about to be updated.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void logUpdate(BookStoreBook book) {
+		logWrite(book.getISBN());
+		log(book.getISBN(), new BookStoreBook(book));
+	}
+
+	/**
+	 * Logs a book about to be added.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void logInsert(int isbn) {
+		logWrite(isbn);
+
+		if (insertedIsbns == null) {
+			insertedIsbns = new IntHashSet();
+		}
+
+		insertedIsbns.add(isbn);
+		log(isbn, null);
+	}
+
+	/**
+	 * Logs a book about to be removed. The book itself is the before-image
+	 * since it is not changed once removed.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void logDelete(BookStoreBook book) {
+		logWrite(book.getISBN());
+		log(book.getISBN(), book);
+	}
+
+	/**
+	 * Gets the number of entries in the write set.
+	 *
+	 * @return the number of writes
+	 */
+	int getNumWrites() {
+		return numWrites;
+	}
+
+	/**
+	 * Gets the ISBN of an entry in the write set.
+	 *
+	 * @param index
+	 *            the index of the entry
+	 * @return the ISBN
+	 */
+	int getWrittenIsbn(int index) {
+		return writtenIsbns[index];
+	}
+
+	/**
+	 * Checks if the transaction added a book with the ISBN, possibly after
+	 * removing another one.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if a book with the ISBN was added
+	 */
+	boolean wasInserted(int isbn) {
+		return insertedIsbns != null && insertedIsbns.contains(isbn);
+	}
+
+	/**
+	 * Gets the end of the frame of the transaction in the write-ahead log.
+	 *
+	 * @return the position, or 0 if the transaction was not logged
+	 */
+	long getLogPosition() {
+		return logPosition;
+	}
+
+	/**
+	 * Sets the end of the frame of the transaction in the write-ahead log.
+	 *
+	 * @param logPosition
+	 *            the position
+	 */
+	void setLogPosition(long logPosition) {
+		this.logPosition = logPosition;
+	}
+
+	/**
+	 * Restores the before-images in the undo log, latest first, and clears it.
+	 * The counters of a book still in the catalog are restored in place, so
+	 * that the catalog keeps the same book objects; a removed book is put back
+	 * as it was removed. The transaction must still hold its locks.
+	 *
+	 * @param bookMap
+	 *            the storage of the catalog
+	 */
+	void undo(CatalogStorage bookMap) {
+		for (int i = undoSize - 1; i >= 0; i--) {
+			BookStoreBook current = bookMap.get(undoIsbns[i]);
+
+			if (undoImages[i] == null) {
+				bookMap.remove(undoIsbns[i]);
+			} else if (current != null) {
+				current.restore(undoImages[i]);
+			} else {
+				bookMap.put(undoIsbns[i], undoImages[i]);
+			}
+		}
+
+		undoIsbns = null;
+		undoImages = null;
+		undoSize = 0;
+	}
+
+	private void logWrite(int isbn) {
+		if (writtenIsbns == null) {
+			writtenIsbns = new int[8];
+		} else if (numWrites == writtenIsbns.length) {
+			writtenIsbns = Arrays.copyOf(writtenIsbns, numWrites * 2);
+		}
+
+		writtenIsbns[numWrites++] = isbn;
+	}
+
+	private void log(int isbn, BookStoreBook beforeImage) {
+		if (undoIsbns == null) {
+			undoIsbns = new int[8];
+			undoImages = new BookStoreBook[8];
+		} else if (undoSize == undoIsbns.length) {
+			undoIsbns = Arrays.copyOf(undoIsbns, undoSize * 2);
+			undoImages = Arrays.copyOf(undoImages, undoSize * 2);
+		}
+
+		undoIsbns[undoSize] = isbn;
+		undoImages[undoSize++] = beforeImage;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Transaction " + id;
+	}
+}
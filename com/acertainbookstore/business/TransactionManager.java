@@ -0,0 +1,403 @@
+package com.acertainbookstore.business;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TransactionManager} keeps the transactions of a lock-based store. Every
+ * call runs in a {@link Transaction}: the explicit one bound to the calling
+ * thread through its {@link BookStoreTransaction} handle, or one of its own
+ * that is committed or aborted when the call returns. Committing publishes the
+ * books the transaction wrote, then releases its locks in the
+ * {@link LockManager}; aborting restores the before-images of its undo log
+ * instead of publishing. A call failing in an explicit transaction aborts it,
+ * and so does a commit failing to publish, e.g. when its writes cannot be
+ * logged.
+ * <p>
+ * Explicit transactions no call ran in for longer than the idle timeout are
+ * aborted lazily by later calls, so that clients that went away do not keep
+ * their locks forever.
+ * <p>
+ * A transaction aborted by the store, after a failed call or for being idle,
+ * is kept until its client aborts it too, which then succeeds, so that the
+ * client can end every transaction that failed the same way. Later calls in it
+ * and its commit fail. It is forgotten anyway after another idle timeout.
+ *
+ * @see Transaction
+ * @see BookStoreTransaction
+ */
+final class TransactionManager {
+
+	/** The default idle timeout of explicit transactions, in milliseconds. */
+	static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	/** The explicit transactions, by id. */
+	private final ConcurrentMap<Long, Transaction> transactions = new ConcurrentHashMap<>();
+
+	/**
+	 * Draws the ids of the explicit transactions. The ids travel in the
+	 * requests of the clients, so they must not be guessable: a client knowing
+	 * the id of a transaction can run calls in it, commit it or abort it.
+	 */
+	private final SecureRandom ids = new SecureRandom();
+
+	/** The lock manager the transactions own locks in. */
+	private final LockManager lockManager;
+
+	/** Restores the before-images of a transaction being aborted. */
+	private final Consumer<Transaction> undo;
+
+	/** Publishes the writes of a transaction being committed. */
+	private final Publisher publish;
+
+	/** Waits until the writes of a committed transaction are durable. */
+	private final Consumer<Transaction> awaitDurable;
+
+	/** Runs after every transaction released its locks. */
+	private final Runnable released;
+
+	/** The idle timeout, in nanoseconds. */
+	private final long idleTimeout;
+
+	/** The earliest time to look for idle transactions again, in nanoseconds. */
+	private volatile long nextReap = System.nanoTime();
+
+	/**
+	 * {@link Publisher} publishes the writes of a transaction being committed.
+	 */
+	@FunctionalInterface
+	interface Publisher {
+
+		/**
+		 * Publishes the books the transaction wrote, while it still holds its
+		 * locks.
+		 *
+		 * @param transaction
+		 *            the transaction
+		 * @throws BookStoreException
+		 *             if the writes cannot be published, in which case none
+		 *             was and the transaction is aborted
+		 */
+		void publish(Transaction transaction) throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link TransactionManager} for a store that does not
+	 * publish the writes of transactions.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param undo
+	 *            restores the before-images of a transaction being aborted
+	 * @param idleTimeoutMillis
+	 *            the idle timeout of explicit transactions, in milliseconds
+	 */
+	TransactionManager(LockManager lockManager, Consumer<Transaction> undo, long idleTimeoutMillis) {
+		this(lockManager, undo, transaction -> {
+		}, idleTimeoutMillis);
+	}
+
+	/**
+	 * Instantiates a new {@link TransactionManager}.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param undo
+	 *            restores the before-images of a transaction being aborted
+	 * @param publish
+	 *            publishes the writes of a transaction being committed, while
+	 *            it still holds its locks
+	 * @param idleTimeoutMillis
+	 *            the idle timeout of explicit transactions, in milliseconds
+	 */
+	TransactionManager(LockManager lockManager, Consumer<Transaction> undo, Publisher publish,
+			long idleTimeoutMillis) {
+		this(lockManager, undo, publish, transaction -> {
+		}, idleTimeoutMillis);
+	}
+
+	/**
+	 * Instantiates a new {@link TransactionManager} for a store whose writes
+	 * become durable after they are published.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param undo
+	 *            restores the before-images of a transaction being aborted
+	 * @param publish
+	 *            publishes the writes of a transaction being committed, while
+	 *            it still holds its locks
+	 * @param awaitDurable
+	 *            waits until the writes of a committed transaction are
+	 *            durable, once it released its locks
+	 * @param idleTimeoutMillis
+	 *            the idle timeout of explicit transactions, in milliseconds
+	 */
+	TransactionManager(LockManager lockManager, Consumer<Transaction> undo, Publisher publish,
+			Consumer<Transaction> awaitDurable, long idleTimeoutMillis) {
+		this(lockManager, undo, publish, awaitDurable, () -> {
+		}, idleTimeoutMillis);
+	}
+
+	/**
+	 * Instantiates a new {@link TransactionManager} for a store whose writes
+	 * become durable after they are published, and which does some work
+	 * whenever locks are released.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param undo
+	 *            restores the before-images of a transaction being aborted
+	 * @param publish
+	 *            publishes the writes of a transaction being committed, while
+	 *            it still holds its locks
+	 * @param awaitDurable
+	 *            waits until the writes of a committed transaction are
+	 *            durable, once it released its locks
+	 * @param released
+	 *            runs after every transaction released its locks, whether it
+	 *            committed or aborted, e.g. to write what waited for them
+	 * @param idleTimeoutMillis
+	 *            the idle timeout of explicit transactions, in milliseconds
+	 */
+	TransactionManager(LockManager lockManager, Consumer<Transaction> undo, Publisher publish,
+			Consumer<Transaction> awaitDurable, Runnable released, long idleTimeoutMillis) {
+		this.lockManager = lockManager;
+		this.undo = undo;
+		this.publish = publish;
+		this.awaitDurable = awaitDurable;
+		this.released = released;
+		this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+	}
+
+	/**
+	 * Begins an explicit transaction and binds its handle to the calling thread.
+	 *
+	 * @return the handle
+	 * @throws BookStoreException
+	 *             if a transaction is already bound to the calling thread
+	 */
+	BookStoreTransaction begin() throws BookStoreException {
+		BookStoreTransaction current = BookStoreTransaction.current();
+
+		if (current != null) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + current.getId()
+					+ BookStoreConstants.ALREADY_ACTIVE);
+		}
+
+		reapIdle();
+		Transaction transaction;
+
+		// Zero is the id of the transactions of single calls, and an id in use is drawn again.
+		do {
+			transaction = new Transaction(ids.nextLong());
+		} while (transaction.getId() == 0 || transactions.putIfAbsent(transaction.getId(), transaction) != null);
+
+		BookStoreTransaction handle = new BookStoreTransaction(transaction.getId());
+		BookStoreTransaction.bind(handle);
+		return handle;
+	}
+
+	/**
+	 * Commits the explicit transaction and unbinds its handle from the calling
+	 * thread.
+	 *
+	 * @param handle
+	 *            the handle
+	 * @throws BookStoreException
+	 *             if the transaction is not active or runs a call, or if its
+	 *             writes cannot be published, in which case it was aborted
+	 */
+	void commit(BookStoreTransaction handle) throws BookStoreException {
+		end(handle, Transaction.State.COMMITTED);
+	}
+
+	/**
+	 * Aborts the explicit transaction and unbinds its handle from the calling
+	 * thread.
+	 *
+	 * @param handle
+	 *            the handle
+	 * @throws BookStoreException
+	 *             if the transaction is neither active nor aborted by the
+	 *             store, or runs a call
+	 */
+	void abort(BookStoreTransaction handle) throws BookStoreException {
+		end(handle, Transaction.State.ABORTED);
+	}
+
+	/**
+	 * Starts a call in the transaction bound to the calling thread, or in a
+	 * transaction of its own if there is none.
+	 *
+	 * @return the transaction
+	 * @throws BookStoreException
+	 *             if the transaction bound is not active or already runs a call
+	 */
+	Transaction enterCall() throws BookStoreException {
+		reapIdle();
+		BookStoreTransaction handle = BookStoreTransaction.current();
+		Transaction transaction = (handle == null) ? new Transaction(0) : lookup(handle);
+		transaction.enterCall();
+		return transaction;
+	}
+
+	/**
+	 * Starts a call in a transaction of its own, even if a transaction is bound
+	 * to the calling thread, e.g. to write on behalf of other clients.
+	 *
+	 * @return the transaction
+	 */
+	Transaction enterOwnCall() {
+		// No other thread knows the transaction, so it need not be marked as in a call.
+		return new Transaction(0);
+	}
+
+	/**
+	 * Ends a call started with {@link #enterCall()} or {@link #enterOwnCall()}. A transaction of its own is
+	 * committed or aborted, while an explicit transaction is only aborted if
+	 * the call failed.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param succeeded
+	 *            whether the call succeeded
+	 * @throws BookStoreException
+	 *             if the writes of a transaction of its own cannot be
+	 *             published, in which case it was aborted
+	 */
+	void exitCall(Transaction transaction, boolean succeeded) throws BookStoreException {
+		transaction.exitCall();
+
+		if (succeeded && transaction.isExplicit()) {
+			return;
+		}
+
+		Transaction.State state = succeeded ? Transaction.State.COMMITTED : Transaction.State.ABORTED;
+
+		if (transaction.end(state)) {
+			terminate(transaction, state);
+		}
+	}
+
+	private Transaction lookup(BookStoreTransaction handle) throws BookStoreException {
+		Transaction transaction = transactions.get(handle.getId());
+
+		if (transaction == null) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + handle.getId()
+					+ BookStoreConstants.NOT_ACTIVE);
+		}
+
+		return transaction;
+	}
+
+	private void end(BookStoreTransaction handle, Transaction.State state) throws BookStoreException {
+		if (handle == null) {
+			throw new BookStoreException(BookStoreConstants.NO_TRANSACTION);
+		}
+
+		if (handle.equals(BookStoreTransaction.current())) {
+			BookStoreTransaction.unbind();
+		}
+
+		Transaction transaction = lookup(handle);
+
+		if (!transaction.end(state)) {
+			// Aborted by the store, which only kept it for its client to end it.
+			if (transaction.isAborted()) {
+				transactions.remove(handle.getId(), transaction);
+
+				if (state == Transaction.State.ABORTED) {
+					return;
+				}
+			}
+
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + handle.getId()
+					+ BookStoreConstants.NOT_ACTIVE);
+		}
+
+		try {
+			terminate(transaction, state);
+		} finally {
+			transactions.remove(handle.getId());
+		}
+	}
+
+	/**
+	 * Undoes an aborted transaction or publishes a committed one, then releases
+	 * its locks. A committed transaction that wrote then waits until its writes
+	 * are durable, without holding its locks, so that the transactions waiting
+	 * meanwhile can share a force of the log. A committed transaction whose
+	 * writes cannot be published is undone instead.
+	 */
+	private void terminate(Transaction transaction, Transaction.State state) throws BookStoreException {
+		if (state == Transaction.State.ABORTED) {
+			rollBack(transaction);
+			return;
+		}
+
+		if (transaction.getNumWrites() == 0) {
+			release(transaction);
+			return;
+		}
+
+		boolean published = false;
+
+		try {
+			publish.publish(transaction);
+			published = true;
+		} finally {
+			if (published) {
+				release(transaction);
+			} else {
+				rollBack(transaction);
+			}
+		}
+
+		awaitDurable.accept(transaction);
+	}
+
+	/**
+	 * Restores the before-images of a transaction, then releases its locks.
+	 */
+	private void rollBack(Transaction transaction) {
+		try {
+			undo.accept(transaction);
+		} finally {
+			release(transaction);
+		}
+	}
+
+	private void release(Transaction transaction) {
+		lockManager.releaseAll(transaction);
+		released.run();
+	}
+
+	/**
+	 * Aborts the idle explicit transactions, and forgets the aborted ones their
+	 * clients did not end, at most a few times per idle timeout.
+	 */
+	private void reapIdle() {
+		long now = System.nanoTime();
+
+		if (now - nextReap < 0 || transactions.isEmpty()) {
+			return;
+		}
+
+		nextReap = now + idleTimeout / 4;
+
+		for (Transaction transaction : transactions.values()) {
+			if (transaction.expire(now, idleTimeout)) {
+				rollBack(transaction);
+			} else if (transaction.isStale(now, idleTimeout)) {
+				transactions.remove(transaction.getId(), transaction);
+			}
+		}
+	}
+}
@@ -1,47 +1,252 @@
 package com.acertainbookstore.business;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
-import java.util.concurrent.ConcurrentHashMap;
 
+import com.acertainbookstore.business.RatingAccumulator.PendingRatings;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.CatalogStorage;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreDeadlockException;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
+ * <p>
+ * Every call runs in a transaction under strict two-phase locking: the locks
+ * it takes are kept until its transaction commits or aborts, which is when the
+ * call returns unless the client began a transaction explicitly.
+ * <p>
+ * Committed transactions publish the books they wrote to a
+ * {@link MultiVersionCatalog}, from which the whole-catalog reads made outside
+ * an explicit transaction take a consistent snapshot without any lock, so that
+ * they neither wait for buyers nor block them.
+ * <p>
+ * The books are kept in a {@link CatalogStorage}, by default a
+ * {@link HeapCatalogStorage}, which the store locks before using it.
+ * <p>
+ * Ratings made outside an explicit transaction only take shared locks: they
+ * are accumulated by a {@link RatingAccumulator} and folded into the catalog
+ * in batches, each written by a transaction of its own. A fold skips the books
+ * it cannot lock right away, and every transaction folds again once it
+ * released its locks, so that the ratings skipped are folded as soon as their
+ * books are free.
+ * <p>
+ * Given a {@link WriteAheadLog}, the store recovers its catalog from the log
+ * and appends every commit to it before making the commit visible. Its
+ * {@link #checkpoint()} bounds the part of the log the next recovery replays.
  * 
  * @see BookStore
  * @see StockManager
  */
 public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
-	private ConcurrentHashMap<Integer, ReentrantReadWriteLock> lockMap; // the mapping of locks from ISBN to lock
-	private ReentrantReadWriteLock lock; //Read Write lock for db
-	private IntentionalLock intentionalLock; //Intentional lock for db
+	/** The number of stripes of the item lock table. */
+	private static final int NUM_LOCK_STRIPES = 1024;
+
+	/** The storage of the books, mapping ISBNs to {@link BookStoreBook}. */
+	private CatalogStorage bookMap = null;
+	private LockManager lockManager; // the database lock and the item locks, striped by ISBN
+	private TransactionManager transactionManager; // the transactions owning the locks
+	private MultiVersionCatalog catalog; // the committed versions of the books, for snapshot reads
+	private RatingIndex ratingIndex; // the committed rated books, best first
+	private DemandIndex demandIndex; // the committed books in demand
+	private EditorPickIndex editorPickIndex; // the committed editor picks
+	private RatingAccumulator ratings; // the ratings not yet folded into the catalog
+	private WriteAheadLog log; // the log the commits are appended to, or null if not durable
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}, optionally keeping the
+	 * counters and the editor picks of the books off the heap, in a
+	 * {@link StockColumnCatalogStorage}.
+	 *
+	 * @param offHeapStock
+	 *            whether to keep the stock columns off the heap
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean offHeapStock) {
+		this(offHeapStock ? new StockColumnCatalogStorage() : new HeapCatalogStorage());
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} keeping its books in the
+	 * given storage.
+	 *
+	 * @param storage
+	 *            the empty storage, which the store owns from now on
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(CatalogStorage storage) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
-		lockMap = new ConcurrentHashMap<>();
-		lock = new ReentrantReadWriteLock();
-		intentionalLock = new IntentionalLock(lock);
+		bookMap = storage;
+		ratingIndex = new RatingIndex();
+		demandIndex = new DemandIndex();
+		editorPickIndex = new EditorPickIndex();
+		ratings = new RatingAccumulator();
+		lockManager = new LockManager(NUM_LOCK_STRIPES);
+		catalog = new MultiVersionCatalog();
+		transactionManager = new TransactionManager(lockManager, transaction -> transaction.undo(bookMap),
+				this::publish, this::awaitDurable, () -> ratings.fold(this::foldRatings),
+				TransactionManager.DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} whose writes are durable in
+	 * a {@link WriteAheadLog}. The catalog is first recovered by replaying the
+	 * log.
+	 *
+	 * @param offHeapStock
+	 *            whether to keep the stock columns off the heap
+	 * @param log
+	 *            the write-ahead log, which the store owns from now on
+	 * @throws IOException
+	 *             if the log cannot be replayed
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean offHeapStock, WriteAheadLog log) throws IOException {
+		this(offHeapStock ? new StockColumnCatalogStorage() : new HeapCatalogStorage(), log);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} keeping its books in the
+	 * given storage, whose writes are durable in a {@link WriteAheadLog}. The
+	 * catalog is first recovered by replaying the log.
+	 *
+	 * @param storage
+	 *            the empty storage, which the store owns from now on
+	 * @param log
+	 *            the write-ahead log, which the store owns from now on
+	 * @throws IOException
+	 *             if the log cannot be replayed
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(CatalogStorage storage, WriteAheadLog log) throws IOException {
+		this(storage);
+		log.replay(bookMap);
+		this.log = log;
+		ratingIndex.addAll(bookMap.values());
+		demandIndex.addAll(bookMap.values());
+		editorPickIndex.addAll(bookMap.values());
+
+		// Publish the recovered books as the first committed versions.
+		Transaction recovery = new Transaction(0);
+
+		for (BookStoreBook book : bookMap.values()) {
+			recovery.logInsert(book.getISBN());
+		}
+
+		catalog.publish(recovery, bookMap::get);
+	}
+
+	/**
+	 * Publishes the writes of a committing transaction, first to the log, if
+	 * any, then to the catalog of committed versions and to the rating,
+	 * demand and editor pick indexes.
+	 *
+	 * @param transaction
+	 *            the transaction, which still holds its locks
+	 * @throws BookStoreException
+	 *             if the writes cannot be logged, in which case nothing was
+	 *             published and the transaction is undone
+	 */
+	private void publish(Transaction transaction) throws BookStoreException {
+		if (log != null) {
+			try {
+				transaction.setLogPosition(log.append(transaction, bookMap::get));
+			} catch (UncheckedIOException ex) {
+				throw new BookStoreException(BookStoreConstants.LOG_WRITE_FAILED, ex.getCause());
+			}
+		}
+
+		catalog.publish(transaction, bookMap::get);
+		ratingIndex.publish(transaction, bookMap::get);
+		demandIndex.publish(transaction, bookMap::get);
+		editorPickIndex.publish(transaction, bookMap::get);
+	}
+
+	/**
+	 * Waits until the writes of a committed transaction are in the log on disk,
+	 * as far as the policy of the log requires.
+	 *
+	 * @param transaction
+	 *            the transaction, which released its locks
+	 */
+	private void awaitDurable(Transaction transaction) {
+		if (log != null) {
+			log.awaitDurable(transaction.getLogPosition());
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the catalog next to the write-ahead log, so that
+	 * recovery only replays the log after it. The catalog is copied under a
+	 * share lock on the database, which only waits for the running writers,
+	 * and the checkpoint is written after releasing it, while new writes go
+	 * on.
+	 *
+	 * @throws BookStoreException
+	 *             if the store has no log, the calling thread runs an explicit
+	 *             transaction, or the checkpoint cannot be written
+	 */
+	public void checkpoint() throws BookStoreException {
+		BookStoreTransaction current = BookStoreTransaction.current();
+
+		if (log == null) {
+			throw new BookStoreException(BookStoreConstants.NOT_DURABLE);
+		}
+
+		if (current != null) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + current.getId()
+					+ BookStoreConstants.ALREADY_ACTIVE);
+		}
+
+		List<StockBook> books;
+		long position;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			// No transaction commits meanwhile, so the copy is the state as of the position.
+			books = bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+			position = log.getWrittenPosition();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
+
+		try {
+			log.checkpoint(books, position);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreConstants.CHECKPOINT_FAILED, ex);
+		}
 	}
 	
+	/**
+	 * Collects the editor picks of the catalog, which must be locked, letting
+	 * the storage find them.
+	 *
+	 * @return the editor picks
+	 */
+	private List<Book> collectEditorPicks() {
+		List<Book> editorPicks = new ArrayList<>();
+		bookMap.forEachEditorPick(book -> editorPicks.add(book.immutableBook()));
+		return editorPicks;
+	}
+
 	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
 		String bookTitle = book.getTitle();
@@ -89,8 +294,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		int isbn = editorPickArg.getISBN();
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -111,10 +327,13 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// acquire the exclusive lock of database when add books
-		lock.writeLock().lock();
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
 		try {
+			// adding books changes the catalog itself, so lock the whole database
+			lockManager.lockDatabase(transaction, LockMode.X);
+
 			// Check if all are there
 			for (StockBook book : bookSet) {
 				validate(book);
@@ -122,11 +341,13 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 			for (StockBook book : bookSet) {
 				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
-				lockMap.put(isbn, new ReentrantReadWriteLock());
+				transaction.logInsert(isbn);
+				bookMap.put(isbn, bookMap.newBook(book));
 			}
+
+			succeeded = true;
 		} finally {
-			lock.writeLock().unlock();
+			transactionManager.exitCall(transaction, succeeded);
 		}
 	}
 
@@ -137,48 +358,32 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		int isbn;
-		int numCopies;
-
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// acquire the intentional exclusive lock on db
-		intentionalLock.AcquireIntentionExclusiveLock();
-		HashSet<BookCopy> validatedCopies = new HashSet<>();
-
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		for (BookCopy bookCopy : bookCopiesSet) {
+		try {
+			// acquire the intentional exclusive lock on db and the exclusive item locks
+			lockManager.lockItems(transaction, bookCopiesSet, BookCopy::getISBN, LockMode.X);
 
-			try {
+			for (BookCopy bookCopy : bookCopiesSet) {
 				validate(bookCopy);
-				lockMap.get(bookCopy.getISBN()).writeLock().lock();
-				validatedCopies.add(bookCopy);
 			}
-			catch (BookStoreException e) {
-				releaseAllLocks();
-				///for(BookCopy validatedBookCopy : validatedCopies) {
-				///	lockMap.get(validatedBookCopy.getISBN()).writeLock().unlock();
-				///}
-				///intentionalLock.ReleaseIntentionExclusiveLock();
-				throw new BookStoreException(e);
-			}
-		}
 
-		BookStoreBook book;
-
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = bookMap.get(bookCopy.getISBN());
+				transaction.logUpdate(book);
+				book.addCopies(bookCopy.getNumCopies());
+			}
 
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
-			//lockMap.get(isbn).writeLock().unlock();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-
-		//intentionalLock.ReleaseIntentionExclusiveLock();
 	}
 
 	/*
@@ -187,25 +392,28 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
 	public List<StockBook> getBooks() throws BookStoreException{
-		// acquire intentional share lock
-		intentionalLock.AcquireIntentionShareLock();
-		for (HashMap.Entry book : bookMap.entrySet()){
-			lockMap.get(book.getKey()).readLock().lock();
+		if (BookStoreTransaction.current() == null) {
+			// the committed versions are immutable, so they are returned as they are
+			return catalog.read(book -> true, book -> book);
 		}
 
+		// an explicit transaction must see its own writes
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+		try {
+			// a share lock on db covers every book without locking them one by one
+			lockManager.lockDatabase(transaction, LockMode.S);
 
+			List<StockBook> books = bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
 
-		for (HashMap.Entry book : bookMap.entrySet()){
-			lockMap.get(book.getKey()).readLock().unlock();
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-		intentionalLock.ReleaseIntentionShareLock();
-
-		//
-		return bookMapValues.stream()
-				.map(book -> book.immutableStockBook())
-				.collect(Collectors.toList());
 	}
 
 	/*
@@ -221,36 +429,27 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		int isbnValue;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		// acquire the intentional exclusive lock
-		intentionalLock.AcquireIntentionExclusiveLock();
-		HashSet<BookEditorPick> validatedPicks = new HashSet<>();
+		try {
+			// acquire the intentional exclusive lock and the exclusive item locks
+			lockManager.lockItems(transaction, editorPicks, BookEditorPick::getISBN, LockMode.X);
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			try {
+			for (BookEditorPick editorPickArg : editorPicks) {
 				validate(editorPickArg);
-				lockMap.get(editorPickArg.getISBN()).writeLock().lock();
-				validatedPicks.add(editorPickArg);
-
 			}
-			catch (BookStoreException e){
-				for (BookEditorPick validatedPickArg : validatedPicks)
-				{
-					lockMap.get(validatedPickArg.getISBN()).writeLock().unlock();
-				}
-				intentionalLock.ReleaseIntentionExclusiveLock();
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				transaction.logUpdate(book);
+				book.setEditorPick(editorPickArg.isEditorPick());
 			}
-		}
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
-			lockMap.get(editorPickArg.getISBN()).writeLock().unlock();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-
-		// release the intentional exclusive lock
-		intentionalLock.ReleaseIntentionExclusiveLock();
-
 	}
 
 	/*
@@ -263,66 +462,56 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we buy are there first.
-		int isbn;
-		BookStoreBook book;
-		Boolean saleMiss = false;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			BookStoreBook book;
+			boolean saleMiss = false;
 
-		// acquire intentional exclusive lock
-		intentionalLock.AcquireIntentionExclusiveLock();
-		HashSet<BookCopy> validatedCopies = new HashSet<>();
+			// acquire intentional exclusive lock and the exclusive item locks
+			lockManager.lockItems(transaction, bookCopiesToBuy, BookCopy::getISBN, LockMode.X);
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
-			try{
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 				validate(bookCopyToBuy);
-				lockMap.get(bookCopyToBuy.getISBN()).writeLock().lock();
-				validatedCopies.add(bookCopyToBuy);
 
-			}
-			catch (BookStoreException e) {
-				releaseAllLocks();
-//				for (BookCopy validatedCopy : validatedCopies){
-//					lockMap.get(validatedCopy.getISBN()).writeLock().unlock();
-//				}
-//				intentionalLock.ReleaseIntentionExclusiveLock();
-				throw new BookStoreException(e);
+				if (!bookMap.get(bookCopyToBuy.getISBN()).areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					saleMiss = true;
+				}
 			}
 
-			book = bookMap.get(isbn);
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				// The books are still locked, so the misses can be computed again
+				// instead of being collected in a map.
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = bookMap.get(bookCopyToBuy.getISBN());
+
+					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+						transaction.logUpdate(book);
+						book.addSaleMiss(bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					}
+				}
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+				// The misses are kept even though the purchase fails.
+				succeeded = true;
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
-		}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				transaction.logUpdate(book);
+				book.buyCopies(bookCopyToBuy.getNumCopies());
 			}
 
-			releaseAllLocks();
-//			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-//				lockMap.get(bookCopyToBuy.getISBN()).writeLock().unlock();
-//			}
-//			intentionalLock.ReleaseIntentionExclusiveLock();
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-		}
-
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
-			//lockMap.get(bookCopyToBuy.getISBN()).writeLock().unlock();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-		//intentionalLock.ReleaseIntentionExclusiveLock();
 	}
 
 	/*
@@ -337,38 +526,28 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// acquire intentional share lock
-		intentionalLock.AcquireIntentionShareLock();
-		HashSet<Integer> validatedISBN = new HashSet<>();
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		for (Integer ISBN : isbnSet) {
-			try {
-				validateISBNInStock(ISBN);
-				lockMap.get(ISBN).readLock().lock();
-				validatedISBN.add(ISBN);
+		try {
+			// acquire intentional share lock and the shared item locks
+			lockManager.lockItems(transaction, isbnSet, Integer::intValue, LockMode.S);
 
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
 			}
-			catch (BookStoreException e) {
-				for (Integer validatedIsbn : validatedISBN){
-					lockMap.get(validatedIsbn).readLock().unlock();
-				}
-				intentionalLock.ReleaseIntentionShareLock();
-				throw new BookStoreException(e);
-			}
-		}
 
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
 
-		List<StockBook> books =  isbnSet.stream()
-				.map(isbn -> bookMap.get(isbn).immutableStockBook())
-				.collect(Collectors.toList());
+			for (int isbn : isbnSet) {
+				books.add(bookMap.get(isbn).immutableStockBook());
+			}
 
-		// release locks
-		for (Integer ISBN : isbnSet) {
-			lockMap.get(ISBN).readLock().unlock();
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-		intentionalLock.ReleaseIntentionShareLock();
-
-		return books;
 	}
 
 	/*
@@ -381,34 +560,28 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		intentionalLock.AcquireIntentionShareLock();
-		HashSet<Integer> validatedISBN = new HashSet<>();
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			try	{
+		try {
+			lockManager.lockItems(transaction, isbnSet, Integer::intValue, LockMode.S);
+
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
 				validateISBNInStock(ISBN);
-				lockMap.get(ISBN).readLock().lock();
-				validatedISBN.add(ISBN);
-			} catch (BookStoreException e) {
-				for (Integer validatedIsbn : validatedISBN) {
-					lockMap.get(validatedIsbn).readLock().unlock();
-				}
-				intentionalLock.ReleaseIntentionShareLock();
-				throw new BookStoreException(e);
 			}
-		}
 
-		List<Book> books = isbnSet.stream()
-				.map(isbn -> bookMap.get(isbn).immutableBook())
-				.collect(Collectors.toList());
+			List<Book> books = new ArrayList<>(isbnSet.size());
 
-		for (Integer ISBN : isbnSet) {
-			lockMap.get(ISBN).readLock().unlock();
-		}
-		intentionalLock.ReleaseIntentionShareLock();
+			for (int isbn : isbnSet) {
+				books.add(bookMap.get(isbn).immutableBook());
+			}
 
-		return books;
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -421,47 +594,36 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		intentionalLock.AcquireIntentionShareLock();
-		for (HashMap.Entry book : bookMap.entrySet()) {
-			lockMap.get(book.getKey()).readLock().lock();
-		}
-
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-				.map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-				.collect(Collectors.toList());
-
-		for (HashMap.Entry book : bookMap.entrySet()) {
-			lockMap.get(book.getKey()).readLock().unlock();
+		if (BookStoreTransaction.current() == null) {
+			return editorPickIndex.sample(numBooks);
 		}
-		intentionalLock.ReleaseIntentionShareLock();
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+		return EditorPickIndex.sample(getEditorPicksLocked(), numBooks);
+	}
 
-		if (rangePicks <= numBooks) {
+	/**
+	 * Gets all the editor picks under a share lock on the database, so that an
+	 * explicit transaction sees its own writes.
+	 *
+	 * @return the editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<Book> getEditorPicksLocked() throws BookStoreException {
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+			// Copy the picks while they are locked.
+			List<Book> editorPicks = collectEditorPicks();
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+			succeeded = true;
+			return editorPicks;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
 	}
 
 	/*
@@ -471,7 +633,35 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (BookStoreTransaction.current() == null) {
+			return ratingIndex.getTopRated(numBooks);
+		}
+
+		// an explicit transaction must see its own writes, which are only indexed once committed
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			int[] isbns = RatingIndex.selectTopRated(numBooks, selection -> {
+				for (BookStoreBook book : bookMap.values()) {
+					selection.offer(book.getNumTimesRated(), book.getTotalRating(), book.getISBN());
+				}
+			});
+			List<Book> books = Arrays.stream(isbns)
+					.<Book>mapToObj(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
 	/*
@@ -481,17 +671,114 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		if (BookStoreTransaction.current() == null) {
+			return demandIndex.getBooksInDemand();
+		}
+
+		// an explicit transaction must see its own writes, which are only indexed once committed
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			lockManager.lockDatabase(transaction, LockMode.S);
+
+			List<StockBook> books = new ArrayList<>();
+			bookMap.forEachSaleMiss(book -> books.add(book.immutableStockBook()));
+
+			succeeded = true;
+			return books;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Outside an explicit transaction, the ratings are folded into the catalog
+	 * once the call released its locks, unless another transaction holds the
+	 * lock of a book, in which case they are folded once it releases it. The
+	 * call may thus return before its ratings are visible and, given a
+	 * {@link WriteAheadLog}, before they are durable.
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		boolean explicit = BookStoreTransaction.current() != null;
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			// An explicit transaction rates the books under exclusive item locks, so that
+			// it can abort the ratings; otherwise the raters share the item locks.
+			lockManager.lockItems(transaction, bookRating, BookRating::getISBN, explicit ? LockMode.X : LockMode.S);
+
+			for (BookRating rating : bookRating) {
+				validate(rating);
+			}
+
+			for (BookRating rating : bookRating) {
+				if (explicit) {
+					BookStoreBook book = bookMap.get(rating.getISBN());
+					transaction.logUpdate(book);
+					book.addRating(rating.getRating());
+				} else {
+					ratings.add(rating.getISBN(), rating.getRating());
+				}
+			}
+
+			succeeded = true;
+		} finally {
+			// Releasing the locks folds the ratings.
+			transactionManager.exitCall(transaction, succeeded);
+		}
+	}
+
+	/**
+	 * Adds the accumulated ratings to the books still in the catalog, in a
+	 * transaction of its own, which publishes and logs them like any other
+	 * write. The books that cannot be locked right away are skipped.
+	 *
+	 * @param pendingRatings
+	 *            the ratings, one per book
+	 * @return the ratings not written
+	 * @throws BookStoreException
+	 *             if the transaction failed
+	 */
+	private List<PendingRatings> foldRatings(List<PendingRatings> pendingRatings) throws BookStoreException {
+		List<PendingRatings> left = new ArrayList<>();
+		// Not in the transaction bound to the thread, if any, which may have failed.
+		Transaction transaction = transactionManager.enterOwnCall();
+		boolean succeeded = false;
+
+		try {
+			for (PendingRatings bookRatings : pendingRatings) {
+				// Not waiting for the item lock, which would keep every other rater waiting.
+				if (!lockManager.tryLockItem(transaction, bookRatings.getISBN(), LockMode.X)) {
+					left.add(bookRatings);
+					continue;
+				}
+
+				BookStoreBook book = bookMap.get(bookRatings.getISBN());
+
+				if (book == null) { // removed since it was rated
+					ratings.forget(bookRatings.getISBN());
+					continue;
+				}
+
+				transaction.logUpdate(book);
+				book.addRatings(bookRatings.getNumRatings(), bookRatings.getTotalRating());
+			}
+
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
+		}
+
+		return left;
 	}
 
 	/*
@@ -500,17 +787,23 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		intentionalLock.AcquireIntentionExclusiveLock();
-		for (HashMap.Entry book : bookMap.entrySet()) {
-			lockMap.get(book.getKey()).writeLock().lock();
-		}
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			// an exclusive lock on db excludes every item lock without touching them
+			lockManager.lockDatabase(transaction, LockMode.X);
 
-		bookMap.clear();
+			// every removal is logged, so that it is published when committing
+			for (BookStoreBook book : bookMap.values()) {
+				transaction.logDelete(book);
+			}
 
-		for (HashMap.Entry book : bookMap.entrySet()) {
-			lockMap.get(book.getKey()).writeLock().unlock();
+			bookMap.clear();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
-		intentionalLock.ReleaseIntentionExclusiveLock();
 	}
 
 	/*
@@ -524,179 +817,71 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		intentionalLock.AcquireIntentionExclusiveLock();
-		HashSet<Integer> validatedISBN = new HashSet<>();
+		Transaction transaction = transactionManager.enterCall();
+		boolean succeeded = false;
+
+		try {
+			// removing books changes the catalog itself, so lock the whole database
+			lockManager.lockDatabase(transaction, LockMode.X);
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				for (Integer validatedIsbn : validatedISBN) {
-					lockMap.get(validatedIsbn).writeLock().unlock();
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 				}
-				intentionalLock.ReleaseIntentionExclusiveLock();
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				for (Integer validatedIsbn : validatedISBN) {
-					lockMap.get(validatedIsbn).writeLock().unlock();
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 				}
-				intentionalLock.ReleaseIntentionExclusiveLock();
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 			}
 
-			lockMap.get(ISBN).writeLock().lock();
-			validatedISBN.add(ISBN);
-		}
-
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
-			lockMap.get(isbn).writeLock().unlock();
-		}
-
-		intentionalLock.ReleaseIntentionExclusiveLock();
-	}
-
-	public void releaseAllLocks() throws BookStoreException
-	{
-		// release all read / write lock
-		int readHoldCount;
-		int writeHoldCount;
-
-		for (HashMap.Entry book : bookMap.entrySet())
-		{
-		 	readHoldCount = lockMap.get(book.getKey()).getReadHoldCount();
-		 	writeHoldCount = lockMap.get(book.getKey()).getWriteHoldCount();
-			for (int i = 0; i < readHoldCount; i++){
-				lockMap.get(book.getKey()).readLock().unlock();
+			for (int isbn : isbnSet) {
+				transaction.logDelete(bookMap.remove(isbn));
 			}
-			for (int j = 0; j < writeHoldCount; j++){
-				lockMap.get(book.getKey()).writeLock().unlock();
-			}
-		}
-
-		// release all intentional lock
-		int intentionReadHoldCount = intentionalLock.getReadHolderCount();
-		int intentionWriteHoldCount = intentionalLock.getWriteHolderCount();
 
-		for (int i = 0; i < intentionReadHoldCount; i++){
-			intentionalLock.ReleaseIntentionShareLock();
-		}
-
-		for (int j = 0; j < intentionWriteHoldCount; j++) {
-			intentionalLock.ReleaseIntentionExclusiveLock();
+			succeeded = true;
+		} finally {
+			transactionManager.exitCall(transaction, succeeded);
 		}
 	}
-}
-
-class IntentionalLock {
-	// Read Write lock
-	private ReentrantReadWriteLock lock;
-
-	// two intentional locks mapping from Thread ID to Reentrant count
-	private ConcurrentHashMap<Long, Integer> readHolder = null;
-	private ConcurrentHashMap<Long, Integer> writeHolder = null;
-
-	// constructor
-	public IntentionalLock( ReentrantReadWriteLock readWriteLock) {
-		readHolder = new ConcurrentHashMap<>();
-		writeHolder = new ConcurrentHashMap<>();
-		lock = readWriteLock;
-	}
 
-	// get read holder count for specific thread
-	public int getReadHolderCount(){
-		Long ID = Thread.currentThread().getId();
-		if (readHolder.containsKey(ID))
-			return readHolder.get(ID).intValue();
-		else return 0;
-	}
-
-	// get write holder count for specific thread
-	public int getWriteHolderCount(){
-		Long ID = Thread.currentThread().getId();
-		if (writeHolder.containsKey(ID))
-			return writeHolder.get(ID).intValue();
-		else return 0;
-	}
-
-	// check whether the current thread has intentional share lock
-	public boolean IsIntentionReadLockedByOthers()
-	{
-		Long ID = Thread.currentThread().getId();
-		int itself = readHolder.containsKey(ID) ? 1 : 0;
-		boolean isIntentionShareLock = (readHolder.size() - itself > 0) ? true : false;
-		return  isIntentionShareLock;
-	}
-
-	// check whether the other thread has intentional exclusive lock
-	public boolean IsIntentionWriteLockedByOthers() {
-		Long ID = Thread.currentThread().getId();
-		int itself = writeHolder.containsKey(ID) ? 1 : 0;
-		boolean isIntentionExclusiveLock = (writeHolder.size() - itself > 0) ? true : false;
-		return isIntentionExclusiveLock;
-	}
-
-	// acquire intentional share lock
-	public synchronized void AcquireIntentionShareLock() {
-//		If the exclusive lock of the entire database is already occupied, then wait.
-//		while (!lock.isWriteLockedByCurrentThread() && lock.isWriteLocked()){
-//			wait();
-//		}
-
-		Long ID = Thread.currentThread().getId();
-		if (readHolder.containsKey(ID)) {
-			int newVal =  readHolder.get(ID) + 1;
-			readHolder.replace(ID, newVal);
-		}
-		else {
-			readHolder.put(ID, 1);
-		}
+	/**
+	 * Gets the number of deadlocks detected so far, each of which aborted the
+	 * transaction of one client with a {@link BookStoreDeadlockException}.
+	 *
+	 * @return the number of deadlocks
+	 */
+	public long getNumDeadlocks() {
+		return lockManager.getNumDeadlocks();
 	}
 
-	// release intentional share lock
-	public void ReleaseIntentionShareLock() throws BookStoreException {
-		Long ID = Thread.currentThread().getId();
-		if (readHolder.containsKey(ID)) {
-			int newVal = readHolder.get(ID) - 1;
-			readHolder.replace(ID, newVal);
-			if (newVal == 0)
-				readHolder.remove(ID);
-		}
-		else {
-			throw new BookStoreException("Should acquire intentional share lock before release");
-		}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#begin()
+	 */
+	public BookStoreTransaction begin() throws BookStoreException {
+		return transactionManager.begin();
 	}
 
-	// acquire intentional exclusive lock
-	public synchronized void AcquireIntentionExclusiveLock() {
-//		if the share or exclusive lock of the entire database is already occupied, then wait.
-//		while (lock.getReadLockCount() != lock.getReadHoldCount() || (!lock.isWriteLockedByCurrentThread() && lock.isWriteLocked())){
-//			wait();
-//		}
-
-		Long ID = Thread.currentThread().getId();
-		if (writeHolder.containsKey(ID)) {
-			int newVal = writeHolder.get(ID) + 1;
-			writeHolder.replace(ID, newVal);
-		}
-		else {
-			writeHolder.put(ID, 1);
-		}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#commit(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void commit(BookStoreTransaction transaction) throws BookStoreException {
+		transactionManager.commit(transaction);
 	}
 
-	// release intentional exclusive lock
-	public void ReleaseIntentionExclusiveLock() throws BookStoreException {
-		Long ID = Thread.currentThread().getId();
-		if (writeHolder.containsKey(ID)) {
-			int newVal	= writeHolder.get(ID) - 1;
-			writeHolder.replace(ID, newVal);
-			if (newVal == 0)
-				writeHolder.remove(ID);
-		}
-		else {
-			throw new BookStoreException("Should acquire intentional exclusive lock before release");
-		}
-
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#abort(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void abort(BookStoreTransaction transaction) throws BookStoreException {
+		transactionManager.abort(transaction);
 	}
-
 }
@@ -0,0 +1,584 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.CatalogStorage;
+import com.acertainbookstore.utils.IntHashSet;
+
+/**
+ * {@link WriteAheadLog} makes the writes of a lock-based store durable. Every
+ * transaction that commits writes, e.g. <code>addBooks</code>,
+ * <code>addCopies</code>, <code>buyBooks</code>,
+ * <code>updateEditorPicks</code>, <code>removeBooks</code> or
+ * <code>removeAllBooks</code>, appends one frame to the log while it still
+ * holds its locks, so that the frames are in the order the conflicting
+ * transactions committed. A frame is a length, a CRC32 checksum, and one binary
+ * record per book written, carrying its state after the transaction:
+ * <ul>
+ * <li>{@link #BOOK_RECORD}, a book the transaction added, with all its fields;
+ * </li>
+ * <li>{@link #STOCK_RECORD}, a book the transaction changed, with only its
+ * counters and editor pick;</li>
+ * <li>{@link #REMOVE_RECORD}, a book the transaction removed, with its ISBN.
+ * </li>
+ * </ul>
+ * The store replays the log when it is created; a frame left incomplete or
+ * corrupt by a crash ends the log and is truncated, since its transaction never
+ * returned to the client as durable.
+ * <p>
+ * The store may also write a {@link CatalogCheckpoint} of its catalog next to
+ * the log, as of a position of the log. Recovery then loads the checkpoint and
+ * only replays the frames after that position, so that its time is bounded by
+ * the size of the catalog and the frames since the last checkpoint rather
+ * than by the whole history.
+ * <p>
+ * When a commit is durable depends on the {@link FsyncPolicy}.
+ *
+ * @see FsyncPolicy
+ */
+public final class WriteAheadLog implements Closeable {
+
+	/**
+	 * The policies of forcing the log to the disk.
+	 */
+	public enum FsyncPolicy {
+
+		/** Every commit forces its own frame before releasing its locks. */
+		PER_OPERATION,
+
+		/**
+		 * Every commit waits after releasing its locks until its frame is
+		 * forced by the {@link GroupCommit} stage, which forces the frames of
+		 * concurrent commits together.
+		 */
+		GROUP_COMMIT,
+
+		/**
+		 * The log is forced every {@link WriteAheadLog#PERIODIC_FSYNC_INTERVAL}
+		 * milliseconds and commits do not wait, so a crash may lose the commits
+		 * of the last interval.
+		 */
+		PERIODIC
+	}
+
+	/** The time between forces of the {@link FsyncPolicy#PERIODIC} policy, in milliseconds. */
+	static final long PERIODIC_FSYNC_INTERVAL = 100;
+
+	/** The type of the record of a book added. */
+	static final byte BOOK_RECORD = 1;
+
+	/** The type of the record of the counters and editor pick of a book changed. */
+	static final byte STOCK_RECORD = 2;
+
+	/** The type of the record of a book removed. */
+	static final byte REMOVE_RECORD = 3;
+
+	/** The size of the frame header: the length of the records and their checksum. */
+	private static final int FRAME_HEADER_BYTES = Integer.BYTES * 2;
+
+	/** The size of a stock record. */
+	private static final int STOCK_RECORD_BYTES = 1 + Integer.BYTES * 2 + Long.BYTES * 3 + 1;
+
+	/** The suffix of the name of the checkpoint file, after the name of the log file. */
+	static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	/** The initial size of the frame buffer. */
+	private static final int INITIAL_BUFFER_BYTES = 4096;
+
+	/** The log file. */
+	private final FileChannel channel;
+
+	/** The checkpoint file. */
+	private final Path checkpointFile;
+
+	/** Serializes the checkpoints. */
+	private final Object checkpointMonitor = new Object();
+
+	/** The position of the last checkpoint written, guarded by the checkpoint monitor. */
+	private long checkpointPosition = -1;
+
+	/** The policy of forcing the log. */
+	private final FsyncPolicy fsyncPolicy;
+
+	/** The thread forcing the log of the {@link FsyncPolicy#PERIODIC} policy, or null. */
+	private final ScheduledExecutorService periodicForcer;
+
+	/** The maximum time the group commit stage waits for a batch to fill, in microseconds. */
+	private final long groupCommitMaxWaitMicros;
+
+	/** The number of waiting commits the group commit stage forces without waiting for more. */
+	private final int groupCommitMaxBatchSize;
+
+	/** The group commit stage, once the log was replayed, or null. */
+	private volatile GroupCommit groupCommit;
+
+	/** Serializes the forces. */
+	private final Object forceMonitor = new Object();
+
+	/** The frame being encoded, guarded by this. */
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+
+	/** The checksum of the frame being encoded, guarded by this. */
+	private final CRC32 checksum = new CRC32();
+
+	/** The end of the log, or -1 until it was replayed, guarded by this. */
+	private long end = -1;
+
+	/** The end of the log written so far. */
+	private volatile long writtenPosition;
+
+	/** The end of the log forced so far. */
+	private volatile long durablePosition;
+
+	/** The failure of the last write or force, after which the log is unusable. */
+	private volatile IOException failure;
+
+	private WriteAheadLog(FileChannel channel, Path checkpointFile, FsyncPolicy fsyncPolicy,
+			long groupCommitMaxWaitMicros, int groupCommitMaxBatchSize) {
+		this.channel = channel;
+		this.checkpointFile = checkpointFile;
+		this.fsyncPolicy = fsyncPolicy;
+		this.groupCommitMaxWaitMicros = groupCommitMaxWaitMicros;
+		this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+
+		if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+			periodicForcer = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "WriteAheadLog forcer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			periodicForcer.scheduleWithFixedDelay(this::forcePeriodically, PERIODIC_FSYNC_INTERVAL,
+					PERIODIC_FSYNC_INTERVAL, TimeUnit.MILLISECONDS);
+		} else {
+			periodicForcer = null;
+		}
+	}
+
+	/**
+	 * Opens a log, creating the file if it does not exist. The log must be
+	 * handed to a single store, which replays it before appending to it.
+	 *
+	 * @param file
+	 *            the log file
+	 * @param fsyncPolicy
+	 *            the policy of forcing the log
+	 * @return the log
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public static WriteAheadLog open(Path file, FsyncPolicy fsyncPolicy) throws IOException {
+		return open(file, fsyncPolicy, GroupCommit.DEFAULT_MAX_WAIT_MICROS, GroupCommit.DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	/**
+	 * Opens a log, creating the file if it does not exist, with the given
+	 * bounds on the batches of the {@link FsyncPolicy#GROUP_COMMIT} policy.
+	 *
+	 * @param file
+	 *            the log file
+	 * @param fsyncPolicy
+	 *            the policy of forcing the log
+	 * @param groupCommitMaxWaitMicros
+	 *            the maximum time a batch waits for more commits before it is
+	 *            forced, in microseconds
+	 * @param groupCommitMaxBatchSize
+	 *            the number of waiting commits forced without waiting for
+	 *            more
+	 * @return the log
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public static WriteAheadLog open(Path file, FsyncPolicy fsyncPolicy, long groupCommitMaxWaitMicros,
+			int groupCommitMaxBatchSize) throws IOException {
+		if (groupCommitMaxWaitMicros < 0 || groupCommitMaxBatchSize <= 0) {
+			throw new IllegalArgumentException("The group commit bounds must be positive");
+		}
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		Path checkpointFile = file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+		return new WriteAheadLog(channel, checkpointFile, fsyncPolicy, groupCommitMaxWaitMicros,
+				groupCommitMaxBatchSize);
+	}
+
+	/**
+	 * Gets the policy of forcing the log.
+	 *
+	 * @return the policy
+	 */
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	/**
+	 * Loads the checkpoint, if any, into an empty catalog, then replays the
+	 * complete frames of the log after it and truncates the log after the last
+	 * one.
+	 *
+	 * @param bookMap
+	 *            the storage of the catalog, which also makes the entries of
+	 *            the books added
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	synchronized void replay(CatalogStorage bookMap) throws IOException {
+		long size = channel.size();
+		long position = 0;
+		CatalogCheckpoint.Recovered checkpoint = CatalogCheckpoint.read(checkpointFile, bookMap::newBook);
+
+		if (checkpoint != null) {
+			if (checkpoint.logPosition > size) {
+				throw new IOException("The write-ahead log ends before its checkpoint");
+			}
+
+			for (BookStoreBook book : checkpoint.books) {
+				bookMap.put(book.getISBN(), book);
+			}
+
+			position = checkpoint.logPosition;
+			checkpointPosition = position;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+
+		while (position + FRAME_HEADER_BYTES <= size) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+			int length = header.getInt();
+			int frameChecksum = header.getInt();
+
+			if (length <= 0 || position + FRAME_HEADER_BYTES + length > size) {
+				break; // torn by a crash while being written
+			}
+
+			if (buffer.capacity() < length) {
+				buffer = ByteBuffer.allocate(length);
+			}
+
+			buffer.clear().limit(length);
+			readFully(buffer, position + FRAME_HEADER_BYTES);
+			buffer.flip();
+			checksum.reset();
+			checksum.update(buffer.duplicate());
+
+			if ((int) checksum.getValue() != frameChecksum) {
+				break;
+			}
+
+			while (buffer.hasRemaining()) {
+				replayRecord(buffer, bookMap);
+			}
+
+			position += FRAME_HEADER_BYTES + length;
+		}
+
+		channel.truncate(position);
+		channel.force(true);
+		end = position;
+		writtenPosition = position;
+		durablePosition = position;
+
+		if (fsyncPolicy == FsyncPolicy.GROUP_COMMIT) {
+			groupCommit = new GroupCommit(this::forceWritten, position, groupCommitMaxWaitMicros,
+					groupCommitMaxBatchSize);
+		}
+	}
+
+	/**
+	 * Gets the end of the log written so far. Read while no transaction can
+	 * commit, it is the position the catalog is the state as of.
+	 *
+	 * @return the position
+	 */
+	long getWrittenPosition() {
+		return writtenPosition;
+	}
+
+	/**
+	 * Writes a checkpoint of the catalog, unless a newer one was written
+	 * meanwhile.
+	 *
+	 * @param books
+	 *            the books
+	 * @param position
+	 *            the position of the log the books are the state as of
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 */
+	void checkpoint(List<StockBook> books, long position) throws IOException {
+		synchronized (checkpointMonitor) {
+			if (position < checkpointPosition) {
+				return;
+			}
+
+			// The checkpoint must not be durable before the frames it covers.
+			forceWritten();
+
+			CatalogCheckpoint.write(checkpointFile, books, position);
+			checkpointPosition = position;
+		}
+	}
+
+	/**
+	 * Gets the metrics of the group commit stage.
+	 *
+	 * @return the metrics, all 0 unless the policy is
+	 *         {@link FsyncPolicy#GROUP_COMMIT}
+	 */
+	public GroupCommitMetrics getGroupCommitMetrics() {
+		GroupCommit stage = groupCommit;
+		return (stage == null) ? new GroupCommitMetrics(0, 0, 0, 0, 0) : stage.getMetrics();
+	}
+
+	/**
+	 * Appends the frame of a committing transaction, with the current state of
+	 * the books it wrote. The transaction must still hold its write locks.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param currentState
+	 *            gets the book with an ISBN as of now, or null if it was removed
+	 * @return the end of the frame in the log, to wait for with
+	 *         {@link #awaitDurable(long)}
+	 * @throws UncheckedIOException
+	 *             if the frame cannot be written, after which the log is
+	 *             unusable
+	 */
+	synchronized long append(Transaction transaction, IntFunction<BookStoreBook> currentState) {
+		if (end < 0) {
+			throw new IllegalStateException("The write-ahead log must be replayed before appending to it");
+		}
+
+		checkUsable();
+
+		int numWrites = transaction.getNumWrites();
+		IntHashSet logged = (numWrites > 1) ? new IntHashSet(numWrites) : null;
+		buffer.clear().position(FRAME_HEADER_BYTES);
+
+		for (int i = 0; i < numWrites; i++) {
+			int isbn = transaction.getWrittenIsbn(i);
+
+			if (logged != null && !logged.add(isbn)) {
+				continue; // written several times by the transaction
+			}
+
+			BookStoreBook book = currentState.apply(isbn);
+
+			if (book == null) {
+				ensureRemaining(1 + Integer.BYTES);
+				buffer.put(REMOVE_RECORD).putInt(isbn);
+			} else if (transaction.wasInserted(isbn)) {
+				putBook(book);
+			} else {
+				ensureRemaining(STOCK_RECORD_BYTES);
+				buffer.put(STOCK_RECORD).putInt(isbn);
+				putStock(book);
+			}
+		}
+
+		int length = buffer.position() - FRAME_HEADER_BYTES;
+		checksum.reset();
+		checksum.update(buffer.array(), FRAME_HEADER_BYTES, length);
+		buffer.putInt(0, length).putInt(Integer.BYTES, (int) checksum.getValue());
+		buffer.flip();
+
+		try {
+			long position = end;
+
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+
+			end = position;
+			writtenPosition = position;
+
+			if (fsyncPolicy == FsyncPolicy.PER_OPERATION) {
+				channel.force(false);
+				durablePosition = position;
+			}
+
+			return position;
+		} catch (IOException ex) {
+			failure = ex;
+			throw new UncheckedIOException("The write-ahead log cannot be written", ex);
+		}
+	}
+
+	/**
+	 * Waits until the log is durable up to a position, as far as the policy
+	 * requires. Called without holding any lock of the store, so that the
+	 * commits waiting meanwhile are forced together.
+	 *
+	 * @param position
+	 *            the end of the frame of a commit
+	 * @throws UncheckedIOException
+	 *             if the log cannot be forced, after which it is unusable
+	 */
+	void awaitDurable(long position) {
+		if (fsyncPolicy == FsyncPolicy.GROUP_COMMIT) {
+			groupCommit.awaitDurable(position);
+		}
+	}
+
+	/**
+	 * Forces everything written so far, unless it is already durable.
+	 *
+	 * @return the end of the log forced
+	 * @throws IOException
+	 *             if the log cannot be forced, after which it is unusable
+	 */
+	private long forceWritten() throws IOException {
+		synchronized (forceMonitor) {
+			if (failure != null) {
+				throw failure;
+			}
+
+			long forced = writtenPosition;
+
+			if (durablePosition < forced) {
+				try {
+					channel.force(false);
+				} catch (IOException ex) {
+					failure = ex;
+					throw ex;
+				}
+
+				durablePosition = forced;
+			}
+
+			return forced;
+		}
+	}
+
+	private void forcePeriodically() {
+		try {
+			forceWritten();
+		} catch (IOException ex) {
+			// Recorded as the failure, which the next append reports.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (periodicForcer != null) {
+			periodicForcer.shutdownNow();
+		}
+
+		if (groupCommit != null) {
+			groupCommit.close();
+		}
+
+		synchronized (this) {
+			if (channel.isOpen() && failure == null) {
+				channel.force(false);
+			}
+
+			channel.close();
+		}
+	}
+
+	private void checkUsable() {
+		if (failure != null) {
+			throw new UncheckedIOException("The write-ahead log failed earlier", failure);
+		}
+	}
+
+	private void putBook(BookStoreBook book) {
+		byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+		byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+
+		ensureRemaining(STOCK_RECORD_BYTES + Float.BYTES + Integer.BYTES * 2 + title.length + author.length);
+		buffer.put(BOOK_RECORD).putInt(book.getISBN());
+		putStock(book);
+		buffer.putFloat(book.getPrice());
+		buffer.putInt(title.length).put(title);
+		buffer.putInt(author.length).put(author);
+	}
+
+	private void putStock(BookStoreBook book) {
+		buffer.putInt(book.getNumCopies());
+		buffer.putLong(book.getNumSaleMisses());
+		buffer.putLong(book.getNumTimesRated());
+		buffer.putLong(book.getTotalRating());
+		buffer.put((byte) (book.isEditorPick() ? 1 : 0));
+	}
+
+	private static void replayRecord(ByteBuffer records, CatalogStorage bookMap) throws IOException {
+		byte type = records.get();
+		int isbn = records.getInt();
+
+		if (type == REMOVE_RECORD) {
+			bookMap.remove(isbn);
+			return;
+		}
+
+		int numCopies = records.getInt();
+		long numSaleMisses = records.getLong();
+		long numTimesRated = records.getLong();
+		long totalRating = records.getLong();
+		boolean editorPick = records.get() != 0;
+
+		if (type == BOOK_RECORD) {
+			float price = records.getFloat();
+			String title = getString(records);
+			String author = getString(records);
+			bookMap.put(isbn, bookMap.newBook(new ImmutableStockBook(isbn, title, author, price, numCopies,
+					numSaleMisses, numTimesRated, totalRating, editorPick)));
+		} else if (type == STOCK_RECORD && bookMap.containsKey(isbn)) {
+			BookStoreBook book = bookMap.get(isbn);
+			book.setNumCopies(numCopies);
+			book.setNumSaleMisses(numSaleMisses);
+			book.setNumTimesRated(numTimesRated);
+			book.setTotalRating(totalRating);
+			book.setEditorPick(editorPick);
+		} else {
+			throw new IOException("The write-ahead log has an invalid record for ISBN " + isbn);
+		}
+	}
+
+	private static String getString(ByteBuffer records) {
+		byte[] bytes = new byte[records.getInt()];
+		records.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void ensureRemaining(int bytes) {
+		if (buffer.remaining() < bytes) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+	}
+
+	private void readFully(ByteBuffer target, long position) throws IOException {
+		while (target.hasRemaining()) {
+			int read = channel.read(target, position);
+
+			if (read < 0) {
+				throw new IOException("The write-ahead log ended unexpectedly");
+			}
+
+			position += read;
+		}
+	}
+}
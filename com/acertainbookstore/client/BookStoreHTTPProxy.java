@@ -11,15 +11,14 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.interfaces.BookStore;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
-import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -37,11 +36,12 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The format of the messages. */
+	private final BookStoreSerializationFormat format;
 
 	/**
-	 * Initializes a new {@link BookStoreHTTPProxy}.
+	 * Initializes a new {@link BookStoreHTTPProxy} exchanging messages in the
+	 * default format.
 	 *
 	 * @param serverAddress
 	 *            the server address
@@ -49,13 +49,21 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreSerializationFormat.getDefault());
+	}
 
-		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param format
+	 *            the format of the messages
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, BookStoreSerializationFormat format) throws Exception {
+		this.format = format;
 
 		setServerAddress(serverAddress);
 		client = new HttpClient();
@@ -99,7 +107,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -112,7 +120,7 @@ public class BookStoreHTTPProxy implements BookStore {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				format);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -132,7 +140,7 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				format);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -154,7 +162,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -163,12 +173,79 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETTOPRATEDBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				format);
+		return (List<Book>) bookStoreResponse.getList();
 	}
 
-	@Override
-	public  void releaseAllLocks() throws BookStoreException {
-		throw new BookStoreException();
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#begin()
+	 */
+	public BookStoreTransaction begin() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BEGIN;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				format);
+
+		BookStoreTransaction transaction = new BookStoreTransaction((Long) bookStoreResponse.getList().get(0));
+		BookStoreTransaction.bind(transaction);
+		return transaction;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#commit(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void commit(BookStoreTransaction transaction) throws BookStoreException {
+		endTransaction(BookStoreMessageTag.COMMIT, transaction);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#abort(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void abort(BookStoreTransaction transaction) throws BookStoreException {
+		endTransaction(BookStoreMessageTag.ABORT, transaction);
+	}
+
+	/**
+	 * Commits or aborts the transaction, and unbinds it from the calling thread.
+	 *
+	 * @param messageTag
+	 *            either {@link BookStoreMessageTag#COMMIT} or
+	 *            {@link BookStoreMessageTag#ABORT}
+	 * @param transaction
+	 *            the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void endTransaction(BookStoreMessageTag messageTag, BookStoreTransaction transaction)
+			throws BookStoreException {
+		if (transaction == null) {
+			throw new BookStoreException(BookStoreConstants.NO_TRANSACTION);
+		}
+
+		if (transaction.equals(BookStoreTransaction.current())) {
+			BookStoreTransaction.unbind();
+		}
+
+		String urlString = serverAddress + "/" + messageTag;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString, transaction);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 }
@@ -8,16 +8,15 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
-import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -36,11 +35,12 @@ public class StockManagerHTTPProxy implements StockManager {
 	/** The server address. */
 	protected String serverAddress;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The format of the messages. */
+	private final BookStoreSerializationFormat format;
 
 	/**
-	 * Initializes a new {@link StockManagerHTTPProxy}.
+	 * Initializes a new {@link StockManagerHTTPProxy} exchanging messages in the
+	 * default format.
 	 *
 	 * @param serverAddress
 	 *            the server address
@@ -48,13 +48,21 @@ public class StockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreSerializationFormat.getDefault());
+	}
 
-		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param format
+	 *            the format of the messages
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, BookStoreSerializationFormat format) throws Exception {
+		this.format = format;
 
 		setServerAddress(serverAddress);
 		client = new HttpClient();
@@ -99,7 +107,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -111,7 +119,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -124,7 +132,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				format);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -138,7 +146,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -147,8 +155,13 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				format);
+		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
 	/*
@@ -163,7 +176,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -175,7 +188,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 
 	/*
@@ -190,7 +203,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				format);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -205,8 +218,67 @@ public class StockManagerHTTPProxy implements StockManager {
 		}
 	}
 
-	@Override
-	public void releaseAllLocks() throws BookStoreException {
-		throw new BookStoreException();
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#begin()
+	 */
+	public BookStoreTransaction begin() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BEGIN;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				format);
+
+		BookStoreTransaction transaction = new BookStoreTransaction((Long) bookStoreResponse.getList().get(0));
+		BookStoreTransaction.bind(transaction);
+		return transaction;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#commit(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void commit(BookStoreTransaction transaction) throws BookStoreException {
+		endTransaction(BookStoreMessageTag.COMMIT, transaction);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#abort(com.acertainbookstore.
+	 * business.BookStoreTransaction)
+	 */
+	public void abort(BookStoreTransaction transaction) throws BookStoreException {
+		endTransaction(BookStoreMessageTag.ABORT, transaction);
+	}
+
+	/**
+	 * Commits or aborts the transaction, and unbinds it from the calling thread.
+	 *
+	 * @param messageTag
+	 *            either {@link BookStoreMessageTag#COMMIT} or
+	 *            {@link BookStoreMessageTag#ABORT}
+	 * @param transaction
+	 *            the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void endTransaction(BookStoreMessageTag messageTag, BookStoreTransaction transaction)
+			throws BookStoreException {
+		if (transaction == null) {
+			throw new BookStoreException(BookStoreConstants.NO_TRANSACTION);
+		}
+
+		if (transaction.equals(BookStoreTransaction.current())) {
+			BookStoreTransaction.unbind();
+		}
+
+		String urlString = serverAddress + "/" + messageTag;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString, transaction);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, format);
 	}
 }
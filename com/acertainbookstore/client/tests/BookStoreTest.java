@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -14,6 +15,8 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -62,14 +65,15 @@ public class BookStoreTest {
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
+			boolean offHeapStock = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_OFF_HEAP_STOCK);
 
 			if (localTest) {
 				if (singleLock) {
-					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(offHeapStock);
 					storeManager = store;
 					client = store;
 				} else {
-					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(offHeapStock);
 					storeManager = store;
 					client = store;
 				}
@@ -363,6 +367,137 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that the top rated books are the rated books with the highest
+	 * average rating, best first, and that removed books are not returned.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getRatedBook(TEST_ISBN + 1, 1, 3));
+		booksToAdd.add(getRatedBook(TEST_ISBN + 2, 2, 9));
+		booksToAdd.add(getRatedBook(TEST_ISBN + 3, 0, 0));
+		booksToAdd.add(getRatedBook(TEST_ISBN + 4, 1, 4));
+		storeManager.addBooks(booksToAdd);
+
+		assertEquals(List.of(TEST_ISBN + 2, TEST_ISBN + 4), isbnsOf(client.getTopRatedBooks(2)));
+		assertEquals(List.of(TEST_ISBN + 2, TEST_ISBN + 4, TEST_ISBN + 1), isbnsOf(client.getTopRatedBooks(10)));
+		assertTrue(client.getTopRatedBooks(0).isEmpty());
+
+		Set<Integer> booksToRemove = new HashSet<Integer>();
+		booksToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(booksToRemove);
+		assertEquals(List.of(TEST_ISBN + 4), isbnsOf(client.getTopRatedBooks(1)));
+
+		try {
+			client.getTopRatedBooks(-1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that ratings are added to the books, and that a set of ratings
+	 * with an invalid rating or ISBN rates no book.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(TEST_ISBN, 4));
+		bookRatings.add(new BookRating(TEST_ISBN + 1, 1));
+		client.rateBooks(bookRatings);
+
+		bookRatings.clear();
+		bookRatings.add(new BookRating(TEST_ISBN, 2));
+		client.rateBooks(bookRatings);
+
+		for (int isbn : List.of(TEST_ISBN + 1, -1)) {
+			bookRatings.clear();
+			bookRatings.add(new BookRating(TEST_ISBN, 5));
+			bookRatings.add(new BookRating(isbn, 6));
+
+			try {
+				client.rateBooks(bookRatings);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+		StockBook book = storeManager.getBooksByISBN(isbns).get(0);
+		assertEquals(2, book.getNumTimesRated());
+		assertEquals(6, book.getTotalRating());
+		assertEquals(List.of(TEST_ISBN, TEST_ISBN + 1), isbnsOf(client.getTopRatedBooks(2)));
+	}
+
+	/**
+	 * Tests that the editor picks are sampled without repetition among the
+	 * current picks, and that every pick can be sampled.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetEditorPicks() throws BookStoreException {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+
+		for (int i = 1; i <= 6; i++) {
+			addBooks(TEST_ISBN + i, NUM_COPIES);
+			editorPicks.add(new BookEditorPick(TEST_ISBN + i, true));
+		}
+
+		storeManager.updateEditorPicks(editorPicks);
+
+		editorPicks.clear();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 6, false));
+		storeManager.updateEditorPicks(editorPicks);
+
+		Set<Integer> booksToRemove = new HashSet<Integer>();
+		booksToRemove.add(TEST_ISBN + 5);
+		storeManager.removeBooks(booksToRemove);
+
+		Set<Integer> picks = Set.of(TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3, TEST_ISBN + 4);
+		assertEquals(picks, new HashSet<Integer>(isbnsOf(client.getEditorPicks(10))));
+
+		Set<Integer> sampled = new HashSet<Integer>();
+
+		for (int i = 0; i < 100; i++) {
+			List<Integer> sample = isbnsOf(client.getEditorPicks(3));
+			assertEquals(3, new HashSet<Integer>(sample).size());
+			assertTrue(picks.containsAll(sample));
+			sampled.addAll(sample);
+		}
+
+		assertEquals(picks, sampled);
+		assertTrue(client.getEditorPicks(0).isEmpty());
+	}
+
+	/**
+	 * Helper method to get a book that was already rated.
+	 */
+	private static StockBook getRatedBook(int isbn, long timesRated, long totalRating) {
+		return new ImmutableStockBook(isbn, "Test of Thrones", "George RR Testin'", (float) 10, NUM_COPIES, 0,
+				timesRated, totalRating, false);
+	}
+
+	/**
+	 * Gets the ISBNs of books, in order.
+	 */
+	private static List<Integer> isbnsOf(List<Book> books) {
+		return books.stream().map(Book::getISBN).collect(Collectors.toList());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
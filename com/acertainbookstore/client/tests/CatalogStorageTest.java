@@ -0,0 +1,117 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreTransaction;
+import com.acertainbookstore.business.HashMapCatalogStorage;
+import com.acertainbookstore.business.HeapCatalogStorage;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StockColumnCatalogStorage;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.CatalogStorage;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogStorageTest} tests that every {@link CatalogStorage} behaves
+ * the same under every lock-based store.
+ *
+ * @see CatalogStorage
+ */
+public class CatalogStorageTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/**
+	 * Tests that the same history leaves the same books and editor picks with
+	 * every combination of store and storage.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStoresOverEveryStorage() throws Exception {
+		List<Supplier<CatalogStorage>> storages = new ArrayList<>();
+		storages.add(HeapCatalogStorage::new);
+		storages.add(HashMapCatalogStorage::new);
+		storages.add(StockColumnCatalogStorage::new);
+		List<String> expected = null;
+
+		for (Supplier<CatalogStorage> storage : storages) {
+			SingleLockConcurrentCertainBookStore singleLock = new SingleLockConcurrentCertainBookStore(storage.get());
+			TwoLevelLockingConcurrentCertainBookStore twoLevel = new TwoLevelLockingConcurrentCertainBookStore(
+					storage.get());
+
+			for (List<String> books : List.of(makeHistory(singleLock, singleLock), makeHistory(twoLevel, twoLevel))) {
+				if (expected == null) {
+					expected = books;
+				}
+
+				assertEquals(expected, books);
+			}
+		}
+	}
+
+	/**
+	 * Makes a history of every kind of write, including an aborted one, and
+	 * describes the books and the editor picks it leaves.
+	 */
+	private static List<String> makeHistory(StockManager storeManager, BookStore client) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 0; i < 4; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Volume " + i, "JK Unit", (float) 10, NUM_COPIES, 0,
+					0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+		storeManager.updateEditorPicks(editorPicks);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, 2));
+		client.buyBooks(booksToBuy);
+
+		Set<Integer> booksToRemove = new HashSet<>();
+		booksToRemove.add(TEST_ISBN);
+		storeManager.removeBooks(booksToRemove);
+
+		// The aborted writes are undone in the storage.
+		BookStoreTransaction transaction = storeManager.begin();
+		booksToRemove.clear();
+		booksToRemove.add(TEST_ISBN + 1);
+		storeManager.removeBooks(booksToRemove);
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, 1));
+		client.buyBooks(booksToBuy);
+		storeManager.abort(transaction);
+
+		List<String> description = storeManager.getBooks().stream()
+				.sorted((book, other) -> Integer.compare(book.getISBN(), other.getISBN()))
+				.map(book -> book.getISBN() + "/" + book.getNumCopies() + "/" + book.isEditorPick())
+				.collect(Collectors.toList());
+		client.getEditorPicks(NUM_COPIES).forEach(book -> description.add("pick " + book.getISBN()));
+		return description;
+	}
+}
@@ -5,7 +5,9 @@ import static org.junit.Assert.*;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -15,6 +17,8 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -63,15 +67,16 @@ public class ConcurrentTest {
             localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
             String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
             singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
+            boolean offHeapStock = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_OFF_HEAP_STOCK);
             singleLock = false;
 
             if (localTest) {
                 if (singleLock) {
-                    SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+                    SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(offHeapStock);
                     storeManager = store;
                     client = store;
                 } else {
-                    TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+                    TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(offHeapStock);
                     storeManager = store;
                     client = store;
                 }
@@ -81,7 +86,6 @@ public class ConcurrentTest {
             }
 
             storeManager.removeAllBooks();
-            storeManager.releaseAllLocks();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -103,7 +107,6 @@ public class ConcurrentTest {
                 0, false);
         booksToAdd.add(book);
         storeManager.addBooks(booksToAdd);
-        storeManager.releaseAllLocks();
     }
 
     /**
@@ -127,7 +130,6 @@ public class ConcurrentTest {
         Set<StockBook> booksToAdd = new HashSet<StockBook>();
         booksToAdd.add(getDefaultBook());
         storeManager.addBooks(booksToAdd);
-        storeManager.releaseAllLocks();
     }
 
     /**
@@ -139,7 +141,6 @@ public class ConcurrentTest {
     @After
     public void cleanupBooks() throws BookStoreException {
         storeManager.removeAllBooks();
-        storeManager.releaseAllLocks();
     }
 
 
@@ -156,12 +157,10 @@ public class ConcurrentTest {
         booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
 
         List<StockBook> listBooksBeforeTest = storeManager.getBooks();
-        storeManager.releaseAllLocks();
 
         Thread C1 = new Thread(() -> {
             try {
                 client.buyBooks(booksToBuy);
-                client.releaseAllLocks();
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -170,7 +169,6 @@ public class ConcurrentTest {
         Thread C2 = new Thread(() -> {
             try {
                 storeManager.addCopies(booksToBuy);
-                storeManager.releaseAllLocks();
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -192,7 +190,6 @@ public class ConcurrentTest {
         }
 
         List<StockBook> listBooksAfterTest = storeManager.getBooks();
-        storeManager.releaseAllLocks();
 
         assertTrue(listBooksBeforeTest.get(0).getNumCopies() == listBooksAfterTest.get(0).getNumCopies());
 
@@ -216,10 +213,10 @@ public class ConcurrentTest {
 
         Thread C1 = new Thread(() -> {
             try {
+                BookStoreTransaction transaction = client.begin();
                 client.buyBooks(booksToBuy);
                 storeManager.addCopies(booksToBuy);
-                client.releaseAllLocks();
-
+                client.commit(transaction);
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -230,8 +227,6 @@ public class ConcurrentTest {
                 for (int i = 0; i < listBooks.length; i++){
                     listBooks[i] = storeManager.getBooks();
                 }
-                storeManager.releaseAllLocks();
-
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -264,6 +259,246 @@ public class ConcurrentTest {
 
     }
 
+    /**
+     * Test3 check that aborting a transaction undoes every call made in it,
+     * and that the books are visible again to other clients afterwards
+     *
+     * @throws BookStoreException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAbort() throws BookStoreException, InterruptedException {
+        Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+        booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+
+        Set<Integer> isbnSet = new HashSet<Integer>();
+        isbnSet.add(TEST_ISBN);
+
+        BookStoreTransaction transaction = storeManager.begin();
+        storeManager.addCopies(booksToBuy);
+        client.buyBooks(booksToBuy);
+        client.buyBooks(booksToBuy);
+        storeManager.removeBooks(isbnSet);
+        addBooks(TEST_ISBN + 1, NUM_COPIES);
+        storeManager.abort(transaction);
+
+        AtomicReference<List<StockBook>> listBooks = new AtomicReference<List<StockBook>>();
+
+        Thread C1 = new Thread(() -> {
+            try {
+                listBooks.set(storeManager.getBooks());
+            } catch (BookStoreException e) {
+                e.printStackTrace();
+            }
+        });
+
+        C1.start();
+        C1.join();
+
+        assertEquals(1, listBooks.get().size());
+        assertEquals(TEST_ISBN, listBooks.get().get(0).getISBN());
+        assertEquals(NUM_COPIES, listBooks.get().get(0).getNumCopies());
+    }
+
+    /**
+     * Test4 check that listing the books neither waits for a transaction that
+     * holds the books it wrote locked nor sees its writes before it commits
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSnapshotRead() throws Exception {
+        SnapshotReadCheck.check(storeManager, TEST_ISBN, NUM_COPIES);
+    }
+
+    /**
+     * Test5 check that concurrent raters of the same book lose no rating, and
+     * that a rating made in an aborted transaction is undone
+     *
+     * @throws BookStoreException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testConcurrentRatings() throws BookStoreException, InterruptedException {
+        final int numRatings = 500;
+        Thread[] raters = new Thread[4];
+        BookStoreException[] failures = new BookStoreException[raters.length];
+
+        for (int r = 0; r < raters.length; r++) {
+            final int index = r;
+            raters[r] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < numRatings; i++) {
+                        Set<BookRating> bookRatings = new HashSet<BookRating>();
+                        bookRatings.add(new BookRating(TEST_ISBN, i % 6));
+                        client.rateBooks(bookRatings);
+                    }
+                } catch (BookStoreException ex) {
+                    failures[index] = ex;
+                }
+            });
+            raters[r].start();
+        }
+
+        for (Thread rater : raters) {
+            rater.join();
+        }
+
+        for (BookStoreException failure : failures) {
+            assertNull(failure);
+        }
+
+        Set<BookRating> bookRatings = new HashSet<BookRating>();
+        bookRatings.add(new BookRating(TEST_ISBN, 5));
+        BookStoreTransaction transaction = client.begin();
+        client.rateBooks(bookRatings);
+        client.abort(transaction);
+
+        long totalRating = 0;
+
+        for (int i = 0; i < numRatings; i++) {
+            totalRating += i % 6;
+        }
+
+        StockBook book = storeManager.getBooks().get(0);
+        assertEquals(raters.length * numRatings, book.getNumTimesRated());
+        assertEquals(raters.length * totalRating, book.getTotalRating());
+    }
+
+    /**
+     * Test6 check that a rating of a book locked by an explicit transaction
+     * neither waits for the transaction nor fails, and is folded once the
+     * transaction ends
+     *
+     * @throws BookStoreException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRatingBehindTransaction() throws BookStoreException, InterruptedException {
+        Set<Integer> isbnSet = new HashSet<Integer>();
+        isbnSet.add(TEST_ISBN);
+
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch rated = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread C1 = new Thread(() -> {
+            try {
+                BookStoreTransaction transaction = client.begin();
+                client.getBooks(isbnSet);
+                read.countDown();
+                rated.await();
+                client.commit(transaction);
+            } catch (BookStoreException | InterruptedException e) {
+                failure.set(e);
+            } finally {
+                read.countDown();
+            }
+        });
+
+        C1.start();
+        read.await();
+
+        Set<BookRating> bookRatings = new HashSet<BookRating>();
+        bookRatings.add(new BookRating(TEST_ISBN, 4));
+        client.rateBooks(bookRatings);
+
+        StockBook ratedDuringTransaction = storeManager.getBooks().get(0);
+        rated.countDown();
+        C1.join();
+        assertNull(failure.get());
+
+        StockBook ratedAfterTransaction = storeManager.getBooks().get(0);
+        assertEquals(0, ratedDuringTransaction.getNumTimesRated());
+        assertEquals(1, ratedAfterTransaction.getNumTimesRated());
+        assertEquals(4, ratedAfterTransaction.getTotalRating());
+    }
+
+    /**
+     * Test7 check that a failed call aborts its transaction, whose later calls
+     * and commit fail, and that its client can still abort it
+     *
+     * @throws BookStoreException
+     */
+    @Test
+    public void testAbortAfterFailedCall() throws BookStoreException {
+        Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+        booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+
+        // A book not in the store fails the purchase, unlike a sale miss.
+        Set<BookCopy> booksToBuyMissing = new HashSet<BookCopy>();
+        booksToBuyMissing.add(new BookCopy(TEST_ISBN + 1, 1));
+
+        BookStoreTransaction transaction = client.begin();
+        client.buyBooks(booksToBuy);
+
+        try {
+            client.buyBooks(booksToBuyMissing);
+            fail();
+        } catch (BookStoreException ex) {
+            ;
+        }
+
+        try {
+            client.buyBooks(booksToBuy);
+            fail();
+        } catch (BookStoreException ex) {
+            ;
+        }
+
+        client.abort(transaction);
+        assertNull(BookStoreTransaction.current());
+
+        // Aborting ends the transaction, so it cannot be aborted again.
+        try {
+            client.abort(transaction);
+            fail();
+        } catch (BookStoreException ex) {
+            ;
+        }
+
+        transaction = client.begin();
+
+        try {
+            client.buyBooks(booksToBuyMissing);
+            fail();
+        } catch (BookStoreException ex) {
+            ;
+        }
+
+        try {
+            client.commit(transaction);
+            fail();
+        } catch (BookStoreException ex) {
+            ;
+        }
+
+        assertNull(BookStoreTransaction.current());
+        assertEquals(NUM_COPIES, storeManager.getBooks().get(0).getNumCopies());
+    }
+
+    /**
+     * Test8 check that ratings made while a writer keeps locking the same book
+     * are all folded once both are done
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRatingsBehindWriter() throws Exception {
+        RatingFoldCheck.checkRatingsBehindWriter(storeManager, client, TEST_ISBN, TEST_ISBN);
+    }
+
+    /**
+     * Test9 check that a rating of a book read by a transaction is folded
+     * once a failed call aborts the transaction
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRatingBehindFailedCall() throws Exception {
+        RatingFoldCheck.checkRatingBehindFailedCall(storeManager, client, TEST_ISBN, TEST_ISBN + 1);
+    }
+
     /**
      * Tear down after class.
      *
@@ -273,7 +508,6 @@ public class ConcurrentTest {
     @AfterClass
     public static void tearDownAfterClass() throws BookStoreException {
         storeManager.removeAllBooks();
-        storeManager.releaseAllLocks();
 
         if (!localTest) {
             ((BookStoreHTTPProxy) client).stop();
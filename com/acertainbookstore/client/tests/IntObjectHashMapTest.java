@@ -0,0 +1,200 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.IntHashSet;
+import com.acertainbookstore.utils.IntIntHashMap;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link IntObjectHashMapTest} tests the {@link IntObjectHashMap}, the
+ * {@link IntIntHashMap} and the {@link IntHashSet} against the maps and sets
+ * of the JDK.
+ *
+ * @see IntObjectHashMap
+ * @see IntIntHashMap
+ * @see IntHashSet
+ */
+public class IntObjectHashMapTest {
+
+	/** The number of random operations. */
+	private static final int NUM_OPERATIONS = 100000;
+
+	/** The range of the random keys, small enough to collide often. */
+	private static final int KEY_RANGE = 2000;
+
+	/**
+	 * Tests puts, gets and removals of random keys, which grow the map and
+	 * shift back runs of colliding keys.
+	 */
+	@Test
+	public void testMapMatchesHashMap() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<>();
+		Map<Integer, String> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			int key = random.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				String value = Integer.toString(i);
+				assertEquals(expected.put(key, value), map.put(key, value));
+			}
+
+			assertEquals(expected.size(), map.size());
+		}
+
+		for (int key = -KEY_RANGE; key < KEY_RANGE; key++) {
+			assertEquals(expected.get(key), map.get(key));
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+
+		assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(0));
+		assertFalse(map.values().iterator().hasNext());
+	}
+
+	/**
+	 * Tests puts, gets and removals of random keys in a map of
+	 * <code>int</code> values, which has no entry for the keys whose value is
+	 * {@link IntIntHashMap#NO_VALUE}.
+	 */
+	@Test
+	public void testIntMapMatchesHashMap() {
+		IntIntHashMap map = new IntIntHashMap();
+		Map<Integer, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			int key = random.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.getOrDefault(key, IntIntHashMap.NO_VALUE).intValue(), map.remove(key));
+				expected.remove(key);
+			} else {
+				assertEquals(expected.getOrDefault(key, IntIntHashMap.NO_VALUE).intValue(), map.put(key, i));
+				expected.put(key, i);
+			}
+
+			assertEquals(expected.size(), map.size());
+		}
+
+		for (int key = -KEY_RANGE; key < KEY_RANGE; key++) {
+			assertEquals(expected.getOrDefault(key, IntIntHashMap.NO_VALUE).intValue(), map.get(key));
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertEquals(IntIntHashMap.NO_VALUE, map.get(0));
+	}
+
+	/**
+	 * Tests adds, lookups and removals of random keys, and that the set is
+	 * equal to a JDK set with the same keys.
+	 */
+	@Test
+	public void testSetMatchesHashSet() {
+		IntHashSet set = new IntHashSet();
+		Set<Integer> expected = new HashSet<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			int key = random.nextInt(KEY_RANGE);
+
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), set.remove(key));
+			} else {
+				assertEquals(expected.add(key), set.add(key));
+			}
+
+			assertEquals(expected.size(), set.size());
+		}
+
+		for (int key = 0; key < KEY_RANGE; key++) {
+			assertEquals(expected.contains(key), set.contains(key));
+		}
+
+		assertEquals(expected, set);
+		assertEquals(set, expected);
+	}
+
+	/**
+	 * Tests removals through the iterator of small, full sets, whose runs
+	 * often wrap around the end of the arrays, and the bulk removals built on
+	 * it.
+	 */
+	@Test
+	public void testSetIteratorRemoves() {
+		Random random = new Random(42);
+
+		for (int i = 0; i < NUM_OPERATIONS / 100; i++) {
+			IntHashSet set = new IntHashSet();
+			Set<Integer> expected = new HashSet<>();
+
+			for (int j = random.nextInt(48); j > 0; j--) {
+				int key = random.nextInt(KEY_RANGE);
+				set.add(key);
+				expected.add(key);
+			}
+
+			Set<Integer> added = new HashSet<>(expected);
+			Set<Integer> seen = new HashSet<>();
+
+			for (Iterator<Integer> iterator = set.iterator(); iterator.hasNext();) {
+				Integer key = iterator.next();
+				assertTrue(seen.add(key));
+
+				if (random.nextBoolean()) {
+					iterator.remove();
+					expected.remove(key);
+				}
+			}
+
+			assertEquals(added, seen);
+			assertEquals(expected, set);
+
+			int divisor = 2 + random.nextInt(3);
+			assertEquals(expected.removeIf(key -> key % divisor == 0), set.removeIf(key -> key % divisor == 0));
+			assertEquals(expected, set);
+
+			Set<Integer> kept = new HashSet<>();
+
+			for (int key = 0; key < KEY_RANGE; key += 1 + random.nextInt(4)) {
+				kept.add(key);
+			}
+
+			assertEquals(expected.retainAll(kept), set.retainAll(kept));
+			assertEquals(expected, set);
+		}
+
+		IntHashSet set = new IntHashSet();
+		set.add(1);
+		Iterator<Integer> iterator = set.iterator();
+
+		try {
+			iterator.remove();
+			fail();
+		} catch (IllegalStateException ex) {
+			;
+		}
+
+		iterator.next();
+		iterator.remove();
+		assertTrue(set.isEmpty());
+	}
+}
@@ -0,0 +1,193 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreDeadlockException;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link KryoSerializerTest} tests the wire format of the
+ * {@link BookStoreKryoSerializer}: the bytes of small messages are pinned, so
+ * that a change of the ids or of the serializers of the registered classes,
+ * which would break clients and servers of different versions, fails here.
+ *
+ * @see BookStoreKryoSerializer
+ */
+public class KryoSerializerTest {
+
+	/** The serializer writing the messages. */
+	private final BookStoreKryoSerializer writer = new BookStoreKryoSerializer();
+
+	/** The serializer reading the messages, as on the other end. */
+	private final BookStoreKryoSerializer reader = new BookStoreKryoSerializer();
+
+	/**
+	 * Tests that a set of ISBNs is written as its class id, its size and the
+	 * packed ISBNs.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testIsbnSetWireFormat() throws IOException {
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(7);
+
+		// The id of HashSet plus two, the size, the packed flag and the ISBN.
+		byte[] bytes = writer.serialize(isbns);
+		assertArrayEquals(new byte[] { 17, 1, 1, 7 }, bytes);
+		assertEquals(isbns, reader.deserialize(bytes));
+	}
+
+	/**
+	 * Tests that a set of book copies is written as class ids and
+	 * variable-length integers only.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testBookCopiesWireFormat() throws IOException {
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(300, 5));
+
+		// The id of HashSet plus two, the size, the packed flag, the id of
+		// BookCopy plus two, the ISBN as two bytes and the number of copies.
+		byte[] bytes = writer.serialize(bookCopies);
+		assertArrayEquals(new byte[] { 17, 1, 0, 14, (byte) 0xac, 0x02, 5 }, bytes);
+		assertEquals(bookCopies, reader.deserialize(bytes));
+	}
+
+	/**
+	 * Tests that the requests of the clients are read back as written.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRequestsRoundTrip() throws IOException {
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(1, 5));
+		bookRatings.add(new BookRating(-1, 3));
+		assertEquals(bookRatings, reader.deserialize(writer.serialize(bookRatings)));
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(2, true));
+		editorPicks.add(new BookEditorPick(3, false));
+		assertEquals(editorPicks, reader.deserialize(writer.serialize(editorPicks)));
+
+		Set<StockBook> books = new HashSet<StockBook>();
+		books.add(new ImmutableStockBook(4, "Title", "Author", 10.5f, 3, 0, 0, 0, false));
+		books.add(new ImmutableStockBook(5, null, "Author", 1.0f, -1, 0, 0, 0, true));
+
+		@SuppressWarnings("unchecked")
+		Set<StockBook> booksRead = (Set<StockBook>) reader.deserialize(writer.serialize(books));
+		assertEquals(books.size(), booksRead.size());
+
+		for (StockBook book : booksRead) {
+			StockBook expected = book.getISBN() == 4 ? new ImmutableStockBook(4, "Title", "Author", 10.5f, 3, 0, 0, 0,
+					false) : new ImmutableStockBook(5, null, "Author", 1.0f, -1, 0, 0, 0, true);
+			assertStockBookEquals(expected, book);
+		}
+	}
+
+	/**
+	 * Tests that a large response streamed through the serializers, whose
+	 * buffers are flushed and refilled many times, is read back as written,
+	 * with its repeated strings, and that a second message does not refer to
+	 * the strings of the first.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testStreamedResponseRoundTrip() throws IOException {
+		List<StockBook> books = new ArrayList<StockBook>();
+
+		for (int i = 0; i < 10000; i++) {
+			books.add(new ImmutableStockBook(i, "Title " + i, "Author " + (i % 10), i, i % 7, i % 3, i, 5L * i,
+					i % 2 == 0));
+		}
+
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(books);
+
+		for (int round = 0; round < 2; round++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			writer.serialize(response, out);
+			BookStoreResponse responseRead = (BookStoreResponse) reader
+					.deserialize(new ByteArrayInputStream(out.toByteArray()));
+
+			assertNull(responseRead.getException());
+			assertEquals(books.size(), responseRead.getList().size());
+
+			for (int i = 0; i < books.size(); i++) {
+				assertStockBookEquals(books.get(i), (StockBook) responseRead.getList().get(i));
+			}
+		}
+
+		List<ImmutableBook> bookList = new ArrayList<ImmutableBook>();
+		bookList.add(new ImmutableBook(1, "Title", "Author", 2.0f));
+		response.setList(bookList);
+		assertEquals(bookList, ((BookStoreResponse) reader.deserialize(writer.serialize(response))).getList());
+	}
+
+	/**
+	 * Tests that the exceptions of the responses keep their class and message.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testExceptionResponseRoundTrip() throws IOException {
+		BookStoreResponse response = new BookStoreResponse();
+		response.setException(new BookStoreException("ISBN 7 is not available"));
+
+		BookStoreResponse responseRead = (BookStoreResponse) reader.deserialize(writer.serialize(response));
+		assertEquals(BookStoreException.class, responseRead.getException().getClass());
+		assertEquals("ISBN 7 is not available", responseRead.getException().getMessage());
+		assertNull(responseRead.getList());
+
+		response.setException(new BookStoreDeadlockException());
+		responseRead = (BookStoreResponse) reader.deserialize(writer.serialize(response));
+		assertTrue(responseRead.getException() instanceof BookStoreDeadlockException);
+	}
+
+	/**
+	 * Asserts that two stock books have the same fields.
+	 *
+	 * @param expected
+	 *            the expected book
+	 * @param actual
+	 *            the actual book
+	 */
+	private static void assertStockBookEquals(StockBook expected, StockBook actual) {
+		assertEquals(expected.getISBN(), actual.getISBN());
+		assertEquals(expected.getTitle(), actual.getTitle());
+		assertEquals(expected.getAuthor(), actual.getAuthor());
+		assertEquals(expected.getPrice(), actual.getPrice(), 0.0f);
+		assertEquals(expected.getNumCopies(), actual.getNumCopies());
+		assertEquals(expected.getNumSaleMisses(), actual.getNumSaleMisses());
+		assertEquals(expected.getNumTimesRated(), actual.getNumTimesRated());
+		assertEquals(expected.getTotalRating(), actual.getTotalRating());
+		assertEquals(expected.isEditorPick(), actual.isEditorPick());
+	}
+}
@@ -0,0 +1,233 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MemoryMappedCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link MemoryMappedStoreTest} tests that the
+ * {@link MemoryMappedCertainBookStore} serves its catalog from its file
+ * across restarts.
+ *
+ * @see MemoryMappedCertainBookStore
+ */
+public class MemoryMappedStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of books added to fill several chunks of the file. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The catalog file. */
+	private Path catalogFile;
+
+	/** The store under test. */
+	private MemoryMappedCertainBookStore store;
+
+	/**
+	 * Creates an empty catalog file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		catalogFile = Files.createTempFile("bookstore", ".catalog");
+		store = new MemoryMappedCertainBookStore(catalogFile);
+	}
+
+	/**
+	 * Closes the store and deletes its files.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		store.close();
+		Files.deleteIfExists(catalogFile);
+		Files.deleteIfExists(catalogFile.resolveSibling(catalogFile.getFileName() + ".strings"));
+	}
+
+	/**
+	 * Tests that the books, their stock and their editor picks are served
+	 * again after a restart.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRestart() throws Exception {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(getBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit"));
+		booksToAdd.add(getBook(TEST_ISBN + 1, "L\u00f8g \u00fcnd \u00dcmlauts", "\u00c6r\u00f8sk\u00f8bing"));
+		booksToAdd.add(getBook(TEST_ISBN + 2, "Paging for Dummies", "Anonymous"));
+		store.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		store.buyBooks(booksToBuy);
+
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+		store.updateEditorPicks(editorPicks);
+
+		Set<BookRating> bookRatings = new HashSet<>();
+		bookRatings.add(new BookRating(TEST_ISBN, 3));
+		bookRatings.add(new BookRating(TEST_ISBN + 1, 5));
+		store.rateBooks(bookRatings);
+
+		Set<Integer> booksToRemove = new HashSet<>();
+		booksToRemove.add(TEST_ISBN + 2);
+		store.removeBooks(booksToRemove);
+		List<String> expected = describe(store.getBooks());
+
+		restart();
+		assertEquals(expected, describe(store.getBooks()));
+		assertEquals("\u00c6r\u00f8sk\u00f8bing", store.getEditorPicks(1).get(0).getAuthor());
+		assertEquals(TEST_ISBN + 1, store.getTopRatedBooks(1).get(0).getISBN());
+	}
+
+	/**
+	 * Tests that a purchase with a sale miss buys nothing but records the
+	 * miss, which still puts the book in demand after a restart.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBuyIsAtomic() throws Exception {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(getBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit"));
+		booksToAdd.add(getBook(TEST_ISBN + 1, "Harry Potter and JUnit", "JK Unit"));
+		store.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 2));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(TEST_ISBN);
+		isbns.add(TEST_ISBN + 1);
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals((book.getISBN() == TEST_ISBN) ? 0 : 2, book.getNumSaleMisses());
+		}
+
+		restart();
+		List<StockBook> booksInDemand = store.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(TEST_ISBN + 1, booksInDemand.get(0).getISBN());
+	}
+
+	/**
+	 * Tests that a catalog spanning several chunks of the file is served after
+	 * a restart, and that the records of removed books are reused.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testManyBooks() throws Exception {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			booksToAdd.add(getBook(TEST_ISBN + i, "Volume " + i, "Author " + i));
+		}
+
+		store.addBooks(booksToAdd);
+		long size = Files.size(catalogFile);
+
+		Set<Integer> booksToRemove = new HashSet<>();
+		booksToRemove.add(TEST_ISBN + 7);
+		store.removeBooks(booksToRemove);
+		restart();
+
+		booksToAdd.clear();
+		booksToAdd.add(getBook(TEST_ISBN + NUM_BOOKS, "Volume " + NUM_BOOKS, "Author " + NUM_BOOKS));
+		store.addBooks(booksToAdd);
+		assertEquals(size, Files.size(catalogFile));
+
+		List<StockBook> books = store.getBooks();
+		assertEquals(NUM_BOOKS, books.size());
+
+		for (StockBook book : books) {
+			assertEquals("Volume " + (book.getISBN() - TEST_ISBN), book.getTitle());
+		}
+	}
+
+	/**
+	 * Tests that the top rated books are found by scanning the file.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTopRated() throws Exception {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Volume " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, (i % 3 == 0) ? 0 : 1, i % 5, false));
+		}
+
+		store.addBooks(booksToAdd);
+		List<Integer> isbns = store.getTopRatedBooks(3).stream().map(Book::getISBN).collect(Collectors.toList());
+		assertEquals(List.of(TEST_ISBN + 4, TEST_ISBN + 14, TEST_ISBN + 19), isbns);
+	}
+
+	/**
+	 * Simulates a restart by closing the store and opening its file again.
+	 */
+	private void restart() throws IOException {
+		store.close();
+		store = new MemoryMappedCertainBookStore(catalogFile);
+	}
+
+	private static StockBook getBook(int isbn, String title, String author) {
+		return new ImmutableStockBook(isbn, title, author, (float) 10, NUM_COPIES, 0, 0, 0, false);
+	}
+
+	/**
+	 * Describes all the fields of the books, in ISBN order.
+	 */
+	private static List<String> describe(List<StockBook> books) {
+		return books.stream()
+				.sorted((book, other) -> Integer.compare(book.getISBN(), other.getISBN()))
+				.map(book -> book.getISBN() + "/" + book.getTitle() + "/" + book.getAuthor() + "/" + book.getPrice()
+						+ "/" + book.getNumCopies() + "/" + book.getNumSaleMisses() + "/" + book.getNumTimesRated()
+						+ "/" + book.getTotalRating() + "/" + book.isEditorPick())
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,185 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.LockManager;
+import com.acertainbookstore.business.LockMode;
+import com.acertainbookstore.business.MultiModeLock;
+import com.acertainbookstore.utils.BookStoreDeadlockException;
+
+/**
+ * {@link MultiModeLockTest} tests the compatibility, fairness and upgrades of
+ * the {@link MultiModeLock}, and the deadlock detection of the
+ * {@link LockManager}.
+ *
+ * @see MultiModeLock
+ * @see LockMode
+ * @see LockManager
+ */
+public class MultiModeLockTest {
+
+	/** The time to wait for a lock that must be granted, in milliseconds. */
+	private static final long TIMEOUT = 5000;
+
+	/** The time to wait for a lock that must not be granted, in milliseconds. */
+	private static final long BLOCKED = 200;
+
+	/**
+	 * Starts a thread acquiring the lock in the given mode for the given owner.
+	 *
+	 * @return the latch counted down once the lock is granted
+	 */
+	private static CountDownLatch lockAsync(MultiModeLock lock, Object owner, LockMode mode) {
+		CountDownLatch granted = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try {
+				lock.lock(owner, mode);
+				granted.countDown();
+			} catch (InterruptedException ex) {
+				// The test fails on the latch.
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return granted;
+	}
+
+	/**
+	 * Tests the compatibility matrix of the modes.
+	 */
+	@Test
+	public void testCompatibility() {
+		assertTrue(LockMode.IS.isCompatibleWith(LockMode.IX));
+		assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+		assertTrue(LockMode.IS.isCompatibleWith(LockMode.S));
+		assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+		assertFalse(LockMode.IX.isCompatibleWith(LockMode.S));
+		assertFalse(LockMode.S.isCompatibleWith(LockMode.SIX));
+		assertFalse(LockMode.IS.isCompatibleWith(LockMode.X));
+		assertEquals(LockMode.SIX, LockMode.IX.join(LockMode.S));
+		assertTrue(LockMode.X.covers(LockMode.SIX));
+		assertFalse(LockMode.S.covers(LockMode.IX));
+	}
+
+	/**
+	 * Tests that intention locks of different owners overlap while a shared
+	 * lock waits for the intention exclusive lock.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testIntentionLocksOverlap() throws Exception {
+		MultiModeLock lock = new MultiModeLock();
+		Object writer = new Object();
+		lock.lock(writer, LockMode.IX);
+
+		assertTrue(lockAsync(lock, new Object(), LockMode.IS).await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(lockAsync(lock, new Object(), LockMode.IX).await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		CountDownLatch reader = lockAsync(lock, new Object(), LockMode.S);
+		assertFalse(reader.await(BLOCKED, TimeUnit.MILLISECONDS));
+		assertEquals(1, lock.getQueueLength());
+	}
+
+	/**
+	 * Tests that new requests queue behind a waiting exclusive request even if
+	 * they are compatible with the modes held.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFifo() throws Exception {
+		MultiModeLock lock = new MultiModeLock();
+		Object reader = new Object();
+		lock.lock(reader, LockMode.S);
+
+		CountDownLatch writer = lockAsync(lock, new Object(), LockMode.X);
+		assertFalse(writer.await(BLOCKED, TimeUnit.MILLISECONDS));
+
+		CountDownLatch lateReader = lockAsync(lock, new Object(), LockMode.S);
+		assertFalse(lateReader.await(BLOCKED, TimeUnit.MILLISECONDS));
+
+		assertTrue(lock.unlock(reader));
+		assertTrue(writer.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertFalse(lateReader.await(BLOCKED, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Tests that an owner upgrades to the join of the modes it asked for and
+	 * keeps the lock until every acquisition is released.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testUpgrade() throws Exception {
+		MultiModeLock lock = new MultiModeLock();
+		Object owner = new Object();
+		lock.lock(owner, LockMode.IX);
+		lock.lock(owner, LockMode.S);
+		assertEquals(LockMode.SIX, lock.getMode(owner));
+
+		CountDownLatch other = lockAsync(lock, new Object(), LockMode.IX);
+		assertFalse(other.await(BLOCKED, TimeUnit.MILLISECONDS));
+
+		assertFalse(lock.unlock(owner));
+		assertEquals(LockMode.SIX, lock.getMode(owner));
+		assertTrue(lock.unlock(owner));
+		assertNull(lock.getMode(owner));
+		assertTrue(other.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Tests that two owners upgrading a shared lock at the same time are
+	 * detected as a deadlock, and that aborting one lets the other proceed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDeadlockDetection() throws Exception {
+		LockManager lockManager = new LockManager(1);
+		CyclicBarrier bothShared = new CyclicBarrier(2);
+		AtomicInteger numVictims = new AtomicInteger();
+		AtomicInteger numUpgraded = new AtomicInteger();
+
+		Thread[] clients = new Thread[2];
+
+		for (int c = 0; c < clients.length; c++) {
+			clients[c] = new Thread(() -> {
+				Object owner = new Object();
+
+				try {
+					lockManager.lockDatabase(owner, LockMode.S);
+					bothShared.await();
+					lockManager.lockDatabase(owner, LockMode.X);
+					numUpgraded.incrementAndGet();
+				} catch (BookStoreDeadlockException ex) {
+					numVictims.incrementAndGet();
+				} catch (Exception ex) {
+					// The test fails on the counters.
+				} finally {
+					lockManager.releaseAll(owner);
+				}
+			});
+			clients[c].start();
+		}
+
+		for (Thread c : clients) {
+			c.join(TIMEOUT);
+		}
+
+		assertEquals(1, numVictims.get());
+		assertEquals(1, numUpgraded.get());
+		assertEquals(1, lockManager.getNumDeadlocks());
+	}
+}
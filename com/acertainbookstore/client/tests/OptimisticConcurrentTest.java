@@ -0,0 +1,230 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OptimisticConcurrentTest} tests the
+ * {@link OptimisticConcurrentCertainBookStore} with concurrent clients.
+ *
+ * @see OptimisticConcurrentCertainBookStore
+ */
+public class OptimisticConcurrentTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_OPERATIONS done by every client. */
+	private static final int NUM_OPERATIONS = 2000;
+
+	/** The store manager. */
+	private static StockManager storeManager;
+
+	/** The client. */
+	private static BookStore client;
+
+	/**
+	 * Sets the up before class.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		OptimisticConcurrentCertainBookStore store = new OptimisticConcurrentCertainBookStore();
+		storeManager = store;
+		client = store;
+	}
+
+	/**
+	 * Helper method to get a book with the given ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 */
+	public StockBook getBook(int isbn) {
+		return new ImmutableStockBook(isbn, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Method to add two books, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getBook(TEST_ISBN));
+		booksToAdd.add(getBook(TEST_ISBN + 1));
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+
+	/**
+	 * Tests that concurrent buyers and stock managers do not lose updates.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testNoLostUpdates() throws Exception {
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(TEST_ISBN, 1));
+		bookCopies.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		Thread[] clients = new Thread[4];
+		BookStoreException[] failures = new BookStoreException[clients.length];
+
+		for (int c = 0; c < clients.length; c++) {
+			final int index = c;
+			clients[c] = new Thread(() -> {
+				try {
+					for (int i = 0; i < NUM_OPERATIONS; i++) {
+						storeManager.addCopies(bookCopies);
+						client.buyBooks(bookCopies);
+					}
+				} catch (BookStoreException ex) {
+					failures[index] = ex;
+				}
+			});
+			clients[c].start();
+		}
+
+		for (Thread c : clients) {
+			c.join();
+		}
+
+		for (BookStoreException failure : failures) {
+			assertNull(failure);
+		}
+
+		for (StockBook book : storeManager.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals(0, book.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Tests that concurrent raters of the same books lose no rating.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testNoLostRatings() throws Exception {
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(TEST_ISBN, 4));
+		bookRatings.add(new BookRating(TEST_ISBN + 1, 1));
+
+		Thread[] clients = new Thread[4];
+		BookStoreException[] failures = new BookStoreException[clients.length];
+
+		for (int c = 0; c < clients.length; c++) {
+			final int index = c;
+			clients[c] = new Thread(() -> {
+				try {
+					for (int i = 0; i < NUM_OPERATIONS; i++) {
+						client.rateBooks(bookRatings);
+					}
+				} catch (BookStoreException ex) {
+					failures[index] = ex;
+				}
+			});
+			clients[c].start();
+		}
+
+		for (Thread c : clients) {
+			c.join();
+		}
+
+		for (BookStoreException failure : failures) {
+			assertNull(failure);
+		}
+
+		for (StockBook book : storeManager.getBooks()) {
+			assertEquals(clients.length * NUM_OPERATIONS, book.getNumTimesRated());
+			assertEquals(clients.length * NUM_OPERATIONS * ((book.getISBN() == TEST_ISBN) ? 4 : 1),
+					book.getTotalRating());
+		}
+
+		assertEquals(TEST_ISBN, client.getTopRatedBooks(1).get(0).getISBN());
+	}
+
+	/**
+	 * Tests that readers never see a purchase of two books half done.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConsistentReads() throws Exception {
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+		bookCopies.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES));
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		isbnSet.add(TEST_ISBN + 1);
+
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					client.buyBooks(bookCopies);
+					storeManager.addCopies(bookCopies);
+				}
+			} catch (BookStoreException ex) {
+				ex.printStackTrace();
+			}
+		});
+		writer.start();
+
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			List<StockBook> books = storeManager.getBooksByISBN(isbnSet);
+			assertEquals(books.get(0).getNumCopies(), books.get(1).getNumCopies());
+		}
+
+		writer.join();
+	}
+
+	/**
+	 * Tear down after class.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+}
@@ -0,0 +1,201 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreTransaction;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RatingFoldCheck} checks that the ratings a lock-based store accepts
+ * while other transactions hold the books locked are folded into the catalog
+ * once those transactions release their locks, however they end. It is shared
+ * by the tests of the stores.
+ *
+ * @see ConcurrentTest
+ * @see SingleConcurrentTest
+ */
+final class RatingFoldCheck {
+
+	/** The number of ratings made while the writers run. */
+	private static final int NUM_RATINGS = 2000;
+
+	/**
+	 * The number of writers, several so that the lock of the written book
+	 * mostly has a writer queued for it, which a fold does not pass.
+	 */
+	private static final int NUM_WRITERS = 3;
+
+	private RatingFoldCheck() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Rates a book many times while other threads keep adding copies of a
+	 * book, and checks that every rating is visible once all are done.
+	 *
+	 * @param storeManager
+	 *            the store
+	 * @param client
+	 *            the same store
+	 * @param isbn
+	 *            the ISBN of the book rated, which is in the store
+	 * @param writtenIsbn
+	 *            the ISBN of the book written, which is added if it is not in
+	 *            the store
+	 * @throws Exception
+	 *             if a call failed
+	 */
+	static void checkRatingsBehindWriter(StockManager storeManager, BookStore client, int isbn, int writtenIsbn)
+			throws Exception {
+		if (writtenIsbn != isbn) {
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(new ImmutableStockBook(writtenIsbn, "Test of Thrones", "George RR Testin'", (float) 10, 1,
+					0, 0, 0, false));
+			storeManager.addBooks(booksToAdd);
+		}
+
+		Set<BookCopy> booksToStock = new HashSet<BookCopy>();
+		booksToStock.add(new BookCopy(writtenIsbn, 1));
+
+		AtomicBoolean rated = new AtomicBoolean();
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		Thread[] writers = new Thread[NUM_WRITERS];
+
+		for (int i = 0; i < NUM_WRITERS; i++) {
+			writers[i] = new Thread(() -> {
+				try {
+					while (!rated.get()) {
+						storeManager.addCopies(booksToStock);
+					}
+				} catch (BookStoreException ex) {
+					failure.set(ex);
+				}
+			});
+			writers[i].start();
+		}
+
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(isbn, 3));
+
+		try {
+			for (int i = 0; i < NUM_RATINGS; i++) {
+				client.rateBooks(bookRatings);
+			}
+		} finally {
+			rated.set(true);
+
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		}
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		StockBook book = getBook(storeManager, isbn);
+		assertEquals(NUM_RATINGS, book.getNumTimesRated());
+		assertEquals(3L * NUM_RATINGS, book.getTotalRating());
+	}
+
+	/**
+	 * Rates a book read by a transaction of another thread, which a failed
+	 * call then aborts, and checks that the rating is visible once the
+	 * transaction is aborted, before its client aborts it too.
+	 *
+	 * @param storeManager
+	 *            the store
+	 * @param client
+	 *            the same store
+	 * @param isbn
+	 *            the ISBN of the book rated, which is in the store
+	 * @param missingIsbn
+	 *            the ISBN of a book not in the store
+	 * @throws Exception
+	 *             if a call failed
+	 */
+	static void checkRatingBehindFailedCall(StockManager storeManager, BookStore client, int isbn, int missingIsbn)
+			throws Exception {
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(isbn);
+
+		Set<BookCopy> booksToBuyMissing = new HashSet<BookCopy>();
+		booksToBuyMissing.add(new BookCopy(missingIsbn, 1));
+
+		CountDownLatch read = new CountDownLatch(1);
+		CountDownLatch rated = new CountDownLatch(1);
+		CountDownLatch failed = new CountDownLatch(1);
+		CountDownLatch checked = new CountDownLatch(1);
+		AtomicBoolean callFailed = new AtomicBoolean();
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		Thread reader = new Thread(() -> {
+			try {
+				BookStoreTransaction transaction = client.begin();
+				client.getBooks(isbnSet);
+				read.countDown();
+				rated.await();
+
+				try {
+					client.buyBooks(booksToBuyMissing);
+				} catch (BookStoreException ex) {
+					callFailed.set(true);
+				}
+
+				failed.countDown();
+				checked.await();
+				client.abort(transaction);
+			} catch (BookStoreException | InterruptedException ex) {
+				failure.set(ex);
+			} finally {
+				read.countDown();
+				failed.countDown();
+			}
+		});
+
+		reader.start();
+		read.await();
+
+		Set<BookRating> bookRatings = new HashSet<BookRating>();
+		bookRatings.add(new BookRating(isbn, 4));
+		StockBook ratedAfterFailure;
+
+		try {
+			client.rateBooks(bookRatings);
+			rated.countDown();
+			failed.await();
+			ratedAfterFailure = getBook(storeManager, isbn);
+		} finally {
+			rated.countDown();
+			checked.countDown();
+			reader.join();
+		}
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		assertTrue(callFailed.get());
+		assertEquals(1, ratedAfterFailure.getNumTimesRated());
+		assertEquals(4, ratedAfterFailure.getTotalRating());
+	}
+
+	private static StockBook getBook(StockManager storeManager, int isbn) throws BookStoreException {
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(isbn);
+		return storeManager.getBooksByISBN(isbnSet).get(0);
+	}
+}
@@ -0,0 +1,83 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
+
+/**
+ * {@link SerializationFormatTest} tests how the server picks the
+ * {@link BookStoreSerializationFormat} of a request and of its response from
+ * the headers of the request.
+ *
+ * @see BookStoreSerializationFormat
+ */
+public class SerializationFormatTest {
+
+	/**
+	 * Tests that the content type of a request names its format, and that a
+	 * request naming no format is in the default one.
+	 */
+	@Test
+	public void testForContentType() {
+		assertEquals(BookStoreSerializationFormat.KRYO,
+				BookStoreSerializationFormat.forContentType("application/x-kryo"));
+		assertEquals(BookStoreSerializationFormat.XSTREAM,
+				BookStoreSerializationFormat.forContentType("Application/XML; charset=UTF-8"));
+		assertEquals(BookStoreSerializationFormat.getDefault(), BookStoreSerializationFormat.forContentType(null));
+		assertEquals(BookStoreSerializationFormat.getDefault(),
+				BookStoreSerializationFormat.forContentType("application/octet-stream"));
+		assertNull(BookStoreSerializationFormat.forContentType("application/json"));
+	}
+
+	/**
+	 * Tests that the format of a response is the one most preferred by the
+	 * accept header of the request, and that a request without the header gets
+	 * the fallback.
+	 */
+	@Test
+	public void testForAccept() {
+		BookStoreSerializationFormat kryo = BookStoreSerializationFormat.KRYO;
+		BookStoreSerializationFormat xstream = BookStoreSerializationFormat.XSTREAM;
+
+		assertEquals(kryo, BookStoreSerializationFormat.forAccept(null, kryo));
+		assertEquals(xstream, BookStoreSerializationFormat.forAccept(null, xstream));
+		assertEquals(kryo, BookStoreSerializationFormat.forAccept("application/x-kryo", xstream));
+		assertEquals(xstream,
+				BookStoreSerializationFormat.forAccept("text/html, application/xml, application/x-kryo", kryo));
+		assertEquals(kryo, BookStoreSerializationFormat.forAccept("application/xml;q=0.5, application/x-kryo", xstream));
+		assertEquals(xstream,
+				BookStoreSerializationFormat.forAccept("application/x-kryo; q=0.2, application/xml; q=0.9", kryo));
+	}
+
+	/**
+	 * Tests that the formats a wildcard of the accept header matches are
+	 * accepted with its quality, the fallback first.
+	 */
+	@Test
+	public void testForAcceptWildcard() {
+		BookStoreSerializationFormat kryo = BookStoreSerializationFormat.KRYO;
+		BookStoreSerializationFormat xstream = BookStoreSerializationFormat.XSTREAM;
+
+		assertEquals(xstream, BookStoreSerializationFormat.forAccept("*/*", xstream));
+		assertEquals(kryo, BookStoreSerializationFormat.forAccept("application/*", kryo));
+		assertEquals(kryo, BookStoreSerializationFormat.forAccept("application/xml;q=0, */*", xstream));
+		assertEquals(xstream, BookStoreSerializationFormat.forAccept("application/xml, */*", kryo));
+		assertEquals(kryo, BookStoreSerializationFormat.forAccept("application/xml;q=0.5, */*", xstream));
+	}
+
+	/**
+	 * Tests that no format is picked when the accept header refuses all of
+	 * them, so that the server answers that the request is not acceptable.
+	 */
+	@Test
+	public void testForAcceptRefused() {
+		BookStoreSerializationFormat kryo = BookStoreSerializationFormat.KRYO;
+
+		assertNull(BookStoreSerializationFormat.forAccept("application/xml;q=0, application/x-kryo;q=0", kryo));
+		assertNull(BookStoreSerializationFormat.forAccept("application/x-kryo;q=0, */*;q=0", kryo));
+		assertNull(BookStoreSerializationFormat.forAccept("*/*;q=0", kryo));
+		assertNull(BookStoreSerializationFormat.forAccept("text/html", kryo));
+	}
+}
@@ -4,7 +4,10 @@ import static org.junit.Assert.*;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 import org.junit.After;
@@ -15,6 +18,7 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -63,14 +67,15 @@ public class SingleConcurrentTest {
             localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
             String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
             singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
+            boolean offHeapStock = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_OFF_HEAP_STOCK);
 
             if (localTest) {
                 if (singleLock) {
-                    SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+                    SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(offHeapStock);
                     storeManager = store;
                     client = store;
                 } else {
-                    TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+                    TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(offHeapStock);
                     storeManager = store;
                     client = store;
                 }
@@ -80,7 +85,6 @@ public class SingleConcurrentTest {
             }
 
             storeManager.removeAllBooks();
-            storeManager.releaseAllLocks();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -102,7 +106,6 @@ public class SingleConcurrentTest {
                 0, false);
         booksToAdd.add(book);
         storeManager.addBooks(booksToAdd);
-        storeManager.releaseAllLocks();
     }
 
     /**
@@ -126,7 +129,6 @@ public class SingleConcurrentTest {
         Set<StockBook> booksToAdd = new HashSet<StockBook>();
         booksToAdd.add(getDefaultBook());
         storeManager.addBooks(booksToAdd);
-        storeManager.releaseAllLocks();
     }
 
     /**
@@ -138,7 +140,6 @@ public class SingleConcurrentTest {
     @After
     public void cleanupBooks() throws BookStoreException {
         storeManager.removeAllBooks();
-        storeManager.releaseAllLocks();
     }
 
 
@@ -155,12 +156,10 @@ public class SingleConcurrentTest {
         booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
 
         List<StockBook> listBooksBeforeTest = storeManager.getBooks();
-        storeManager.releaseAllLocks();
 
         Thread C1 = new Thread(() -> {
             try {
                 client.buyBooks(booksToBuy);
-                client.releaseAllLocks();
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -169,7 +168,6 @@ public class SingleConcurrentTest {
         Thread C2 = new Thread(() -> {
             try {
                 storeManager.addCopies(booksToBuy);
-                storeManager.releaseAllLocks();
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -191,7 +189,6 @@ public class SingleConcurrentTest {
         }
 
         List<StockBook> listBooksAfterTest = storeManager.getBooks();
-        storeManager.releaseAllLocks();
 
         assertTrue(listBooksBeforeTest.get(0).getNumCopies() == listBooksAfterTest.get(0).getNumCopies());
 
@@ -215,10 +212,10 @@ public class SingleConcurrentTest {
 
         Thread C1 = new Thread(() -> {
             try {
+                BookStoreTransaction transaction = client.begin();
                 client.buyBooks(booksToBuy);
                 storeManager.addCopies(booksToBuy);
-                client.releaseAllLocks();
-
+                client.commit(transaction);
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -229,8 +226,6 @@ public class SingleConcurrentTest {
                 for (int i = 0; i < listBooks.length; i++){
                     listBooks[i] = storeManager.getBooks();
                 }
-                storeManager.releaseAllLocks();
-
             } catch (BookStoreException e) {
                 e.printStackTrace();
             }
@@ -263,6 +258,79 @@ public class SingleConcurrentTest {
 
     }
 
+    /**
+     * Test3 check that listing the books neither waits for a transaction that
+     * holds the books it wrote locked nor sees its writes before it commits
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSnapshotRead() throws Exception {
+        SnapshotReadCheck.check(storeManager, TEST_ISBN, NUM_COPIES);
+    }
+
+    /**
+     * Test4 check that the books listed follow every add, removal and stock
+     * change, however the writes interleave
+     *
+     * @throws BookStoreException
+     */
+    @Test
+    public void testSnapshotFollowsWrites() throws BookStoreException {
+        Map<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+        expected.put(TEST_ISBN, NUM_COPIES);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 500; i++) {
+            int isbn = TEST_ISBN + random.nextInt(40) - 20;
+            Set<Integer> isbnSet = new HashSet<Integer>();
+            isbnSet.add(isbn);
+
+            if (!expected.containsKey(isbn)) {
+                addBooks(isbn, 1);
+                expected.put(isbn, 1);
+            } else if (random.nextBoolean()) {
+                storeManager.removeBooks(isbnSet);
+                expected.remove(isbn);
+            } else {
+                Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+                bookCopies.add(new BookCopy(isbn, 2));
+                storeManager.addCopies(bookCopies);
+                expected.put(isbn, expected.get(isbn) + 2);
+            }
+
+            Map<Integer, Integer> listed = new TreeMap<Integer, Integer>();
+
+            for (StockBook book : storeManager.getBooks()) {
+                listed.put(book.getISBN(), book.getNumCopies());
+            }
+
+            assertEquals(expected, listed);
+        }
+    }
+
+    /**
+     * Test5 check that ratings made while a writer keeps locking the catalog
+     * for another book are all folded once both are done
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRatingsBehindWriter() throws Exception {
+        RatingFoldCheck.checkRatingsBehindWriter(storeManager, client, TEST_ISBN, TEST_ISBN + 1);
+    }
+
+    /**
+     * Test6 check that a rating of a book read by a transaction is folded
+     * once a failed call aborts the transaction
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRatingBehindFailedCall() throws Exception {
+        RatingFoldCheck.checkRatingBehindFailedCall(storeManager, client, TEST_ISBN, TEST_ISBN + 1);
+    }
+
     /**
      * Tear down after class.
      *
@@ -272,7 +340,6 @@ public class SingleConcurrentTest {
     @AfterClass
     public static void tearDownAfterClass() throws BookStoreException {
         storeManager.removeAllBooks();
-        storeManager.releaseAllLocks();
 
         if (!localTest) {
             ((BookStoreHTTPProxy) client).stop();
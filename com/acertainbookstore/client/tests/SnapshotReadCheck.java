@@ -0,0 +1,91 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreTransaction;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link SnapshotReadCheck} checks that listing the books of a lock-based
+ * store neither waits for a transaction holding the books it wrote locked nor
+ * sees its writes before it commits. It is shared by the tests of the stores.
+ *
+ * @see ConcurrentTest
+ * @see SingleConcurrentTest
+ */
+final class SnapshotReadCheck {
+
+	/** The number of copies the transaction adds. */
+	private static final int NUM_COPIES_ADDED = 3;
+
+	private SnapshotReadCheck() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Adds copies of the only book of the store in a transaction of another
+	 * thread, and lists the books while it holds them locked and after it
+	 * committed. A failure of that thread fails the check instead of leaving
+	 * the test waiting.
+	 *
+	 * @param storeManager
+	 *            the store, holding only the book
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param numCopies
+	 *            the number of copies of the book
+	 * @throws Exception
+	 *             if the transaction or a listing failed
+	 */
+	static void check(StockManager storeManager, int isbn, int numCopies) throws Exception {
+		Set<BookCopy> booksToAdd = new HashSet<BookCopy>();
+		booksToAdd.add(new BookCopy(isbn, NUM_COPIES_ADDED));
+
+		CountDownLatch written = new CountDownLatch(1);
+		CountDownLatch listed = new CountDownLatch(1);
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		Thread writer = new Thread(() -> {
+			try {
+				BookStoreTransaction transaction = storeManager.begin();
+				storeManager.addCopies(booksToAdd);
+				written.countDown();
+				listed.await();
+				storeManager.commit(transaction);
+			} catch (BookStoreException | InterruptedException ex) {
+				failure.set(ex);
+			} finally {
+				written.countDown();
+			}
+		});
+
+		writer.start();
+		written.await();
+		List<StockBook> listBooksDuringTransaction;
+
+		try {
+			listBooksDuringTransaction = storeManager.getBooks();
+		} finally {
+			listed.countDown();
+			writer.join();
+		}
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		List<StockBook> listBooksAfterTransaction = storeManager.getBooks();
+
+		assertEquals(numCopies, listBooksDuringTransaction.get(0).getNumCopies());
+		assertEquals(numCopies + NUM_COPIES_ADDED, listBooksAfterTransaction.get(0).getNumCopies());
+	}
+}
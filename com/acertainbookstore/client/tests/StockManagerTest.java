@@ -62,15 +62,16 @@ public class StockManagerTest {
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
+			boolean offHeapStock = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_OFF_HEAP_STOCK);
 			singleLock = false;
 
 			if (localTest) {
 				if (singleLock) {
-					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(offHeapStock);
 					storeManager = store;
 					client = store;
 				} else {
-					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(offHeapStock);
 					storeManager = store;
 					client = store;
 				}
@@ -487,6 +488,54 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that the books in demand are those that had sale misses since
+	 * copies were last added, with their current sale misses.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemand() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 3, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+		assertEquals(1, storeManager.getBooksInDemand().size());
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 2));
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(2, booksInDemand.size());
+
+		for (StockBook book : booksInDemand) {
+			assertEquals((book.getISBN() == TEST_ISBN) ? 4 : 3, book.getNumSaleMisses());
+		}
+
+		Set<BookCopy> booksToAddCopies = new HashSet<BookCopy>();
+		booksToAddCopies.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(booksToAddCopies);
+
+		booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(TEST_ISBN + 1, booksInDemand.get(0).getISBN());
+
+		Set<Integer> booksToRemove = new HashSet<Integer>();
+		booksToRemove.add(TEST_ISBN + 1);
+		storeManager.removeBooks(booksToRemove);
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
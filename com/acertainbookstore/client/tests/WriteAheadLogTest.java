@@ -0,0 +1,404 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreTransaction;
+import com.acertainbookstore.business.GroupCommitMetrics;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.business.WriteAheadLog.FsyncPolicy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLogTest} tests that the lock-based stores recover the
+ * writes committed before a restart from their {@link WriteAheadLog}, and that
+ * its group commit stage batches concurrent commits.
+ *
+ * @see WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of concurrent buyers. */
+	private static final int NUM_BUYERS = 8;
+
+	/** The number of purchases of every buyer. */
+	private static final int NUM_PURCHASES = 50;
+
+	/** The log file. */
+	private Path logFile;
+
+	/** The log of the store under test. */
+	private WriteAheadLog log;
+
+	/**
+	 * Creates an empty log file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		logFile = Files.createTempFile("bookstore", ".wal");
+	}
+
+	/**
+	 * Closes the log and deletes its file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		if (log != null) {
+			log.close();
+		}
+
+		Files.deleteIfExists(logFile);
+		Files.deleteIfExists(checkpointFile());
+	}
+
+	private Path checkpointFile() {
+		return logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+	}
+
+	/**
+	 * Tests that the single lock store recovers added, bought, picked, stocked
+	 * and removed books, but not the writes of an aborted transaction.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoverSingleLock() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(false,
+				openLog(FsyncPolicy.PER_OPERATION));
+		makeHistory(store, store);
+		List<String> expected = describe(store.getBooks());
+
+		store = new SingleLockConcurrentCertainBookStore(false, reopenLog(FsyncPolicy.PER_OPERATION));
+		assertEquals(expected, describe(store.getBooks()));
+		assertEquals(1, store.getEditorPicks(1).size());
+	}
+
+	/**
+	 * Tests that the two-level locking store recovers the log up to a frame
+	 * torn by a crash, and keeps appending after it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoverTwoLevelAfterTornFrame() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(true,
+				openLog(FsyncPolicy.GROUP_COMMIT));
+		makeHistory(store, store);
+		List<String> expected = describe(store.getBooks());
+		log.close();
+
+		// A frame promising more records than were written before the crash.
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.allocate(12).putInt(1000).putInt(42).putInt(7).flip());
+		}
+
+		store = new TwoLevelLockingConcurrentCertainBookStore(false, reopenLog(FsyncPolicy.GROUP_COMMIT));
+		assertEquals(expected, describe(store.getBooks()));
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		store.buyBooks(booksToBuy);
+		expected = describe(store.getBooks());
+
+		store = new TwoLevelLockingConcurrentCertainBookStore(false, reopenLog(FsyncPolicy.PERIODIC));
+		assertEquals(expected, describe(store.getBooks()));
+	}
+
+	/**
+	 * Tests that removing all the books is recovered.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoverRemoveAllBooks() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(false,
+				openLog(FsyncPolicy.PERIODIC));
+		makeHistory(store, store);
+		store.removeAllBooks();
+
+		store = new SingleLockConcurrentCertainBookStore(false, reopenLog(FsyncPolicy.PERIODIC));
+		assertTrue(store.getBooks().isEmpty());
+	}
+
+	/**
+	 * Tests that a store recovers from a checkpoint and the frames logged
+	 * after it, including when the log before the checkpoint is lost.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoverFromCheckpoint() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(false,
+				openLog(FsyncPolicy.GROUP_COMMIT));
+		makeHistory(store, store);
+		store.checkpoint();
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		store.buyBooks(booksToBuy);
+		List<String> expected = describe(store.getBooks());
+		assertTrue(Files.exists(checkpointFile()));
+
+		SingleLockConcurrentCertainBookStore recovered = new SingleLockConcurrentCertainBookStore(true,
+				reopenLog(FsyncPolicy.PER_OPERATION));
+		assertEquals(expected, describe(recovered.getBooks()));
+
+		// The frames before the checkpoint are not needed any more.
+		recovered.checkpoint();
+		log.close();
+		long checkpointPosition = Files.size(logFile);
+
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate((int) checkpointPosition), 0);
+		}
+
+		recovered = new SingleLockConcurrentCertainBookStore(false, openLog(FsyncPolicy.PER_OPERATION));
+		assertEquals(expected, describe(recovered.getBooks()));
+	}
+
+	/**
+	 * Tests that concurrent purchases share the forces of the group commit
+	 * stage, and are all recovered.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testGroupCommitConcurrentPurchases() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(false,
+				openLog(FsyncPolicy.GROUP_COMMIT));
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 0; i < NUM_BUYERS; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Harry Potter and JUnit", "JK Unit", (float) 10,
+					NUM_PURCHASES, 0, 0, 0, false));
+		}
+
+		store.addBooks(booksToAdd);
+
+		Thread[] buyers = new Thread[NUM_BUYERS];
+		Exception[] failures = new Exception[NUM_BUYERS];
+
+		for (int i = 0; i < NUM_BUYERS; i++) {
+			int buyer = i;
+			buyers[i] = new Thread(() -> {
+				Set<BookCopy> booksToBuy = new HashSet<>();
+				booksToBuy.add(new BookCopy(TEST_ISBN + buyer, 1));
+
+				try {
+					for (int j = 0; j < NUM_PURCHASES; j++) {
+						store.buyBooks(booksToBuy);
+					}
+				} catch (Exception ex) {
+					failures[buyer] = ex;
+				}
+			});
+			buyers[i].start();
+		}
+
+		for (Thread buyer : buyers) {
+			buyer.join();
+		}
+
+		for (Exception failure : failures) {
+			assertNull(failure);
+		}
+
+		GroupCommitMetrics metrics = log.getGroupCommitMetrics();
+		assertEquals(1 + NUM_BUYERS * NUM_PURCHASES, metrics.getNumCommits());
+		assertTrue(metrics.getNumForces() <= metrics.getNumCommits());
+		assertTrue(metrics.getMaxBatchSize() >= 1);
+
+		TwoLevelLockingConcurrentCertainBookStore recovered = new TwoLevelLockingConcurrentCertainBookStore(false,
+				reopenLog(FsyncPolicy.GROUP_COMMIT));
+
+		for (StockBook book : recovered.getBooks()) {
+			assertEquals(0, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that the two-level locking store undoes the writes it cannot log,
+	 * and keeps serving the books it logged.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFailedAppendUndoneTwoLevel() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(false,
+				openLog(FsyncPolicy.PER_OPERATION));
+		assertFailedAppendsUndone(store);
+	}
+
+	/**
+	 * Tests that the single lock store undoes the writes it cannot log, and
+	 * keeps serving the books it logged.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFailedAppendUndoneSingleLock() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(false,
+				openLog(FsyncPolicy.PER_OPERATION));
+		assertFailedAppendsUndone(store);
+	}
+
+	/**
+	 * Makes the log of a store fail, then asserts that the writes of single
+	 * calls and of an explicit transaction fail and are undone.
+	 */
+	private void assertFailedAppendsUndone(StockManager storeManager) throws Exception {
+		makeHistory(storeManager, (BookStore) storeManager);
+		List<String> expected = describe(storeManager.getBooks());
+
+		// Writing to the closed log fails, after which the log is unusable.
+		log.close();
+
+		Set<BookCopy> booksToStock = new HashSet<>();
+		booksToStock.add(new BookCopy(TEST_ISBN, 3));
+
+		try {
+			storeManager.addCopies(booksToStock);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Never Logged", "Anonymous", (float) 1, NUM_COPIES, 0,
+				0, 0, false));
+
+		try {
+			storeManager.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		BookStoreTransaction transaction = storeManager.begin();
+		storeManager.addCopies(booksToStock);
+		storeManager.addBooks(booksToAdd);
+
+		try {
+			storeManager.commit(transaction);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(expected, describe(storeManager.getBooks()));
+	}
+
+	private WriteAheadLog openLog(FsyncPolicy fsyncPolicy) throws IOException {
+		log = WriteAheadLog.open(logFile, fsyncPolicy);
+		return log;
+	}
+
+	/**
+	 * Simulates a restart by closing the log and opening it again.
+	 */
+	private WriteAheadLog reopenLog(FsyncPolicy fsyncPolicy) throws IOException {
+		log.close();
+		return openLog(fsyncPolicy);
+	}
+
+	/**
+	 * Makes a history of every kind of write, ending with two books in stock.
+	 */
+	private void makeHistory(StockManager storeManager, BookStore client) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Logging", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "L\u00f8g \u00fcnd \u00dcmlauts", "\u00c6r\u00f8sk\u00f8bing",
+				(float) 20, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		client.buyBooks(booksToBuy);
+
+		Set<BookCopy> booksToBuyTooMany = new HashSet<>();
+		booksToBuyTooMany.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuyTooMany);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+		storeManager.updateEditorPicks(editorPicks);
+
+		Set<BookCopy> booksToStock = new HashSet<>();
+		booksToStock.add(new BookCopy(TEST_ISBN, 3));
+		storeManager.addCopies(booksToStock);
+
+		Set<Integer> booksToRemove = new HashSet<>();
+		booksToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(booksToRemove);
+
+		// An aborted transaction leaves nothing to recover.
+		Set<StockBook> booksAborted = new HashSet<>();
+		booksAborted.add(new ImmutableStockBook(TEST_ISBN + 3, "Never Committed", "Anonymous", (float) 1,
+				NUM_COPIES, 0, 0, 0, false));
+		BookStoreTransaction transaction = storeManager.begin();
+		storeManager.addBooks(booksAborted);
+		storeManager.abort(transaction);
+	}
+
+	/**
+	 * Describes all the fields of the books, in ISBN order.
+	 */
+	private static List<String> describe(List<StockBook> books) {
+		return books.stream()
+				.sorted((book, other) -> Integer.compare(book.getISBN(), other.getISBN()))
+				.map(book -> book.getISBN() + "/" + book.getTitle() + "/" + book.getAuthor() + "/" + book.getPrice()
+						+ "/" + book.getNumCopies() + "/" + book.getNumSaleMisses() + "/" + book.getNumTimesRated()
+						+ "/" + book.getTotalRating() + "/" + book.isEditorPick())
+				.collect(Collectors.toList());
+	}
+}
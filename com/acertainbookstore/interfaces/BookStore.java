@@ -6,6 +6,7 @@ import java.util.Set;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.utils.BookStoreException;
 
 /**
@@ -68,6 +69,37 @@ public interface BookStore {
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
 
+	/**
+	 * Begins a transaction and binds its handle to the calling thread. Every
+	 * call the thread makes until the transaction is committed or aborted runs
+	 * in it. Calls made outside of a transaction are atomic on their own.
+	 *
+	 * @return the handle of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreTransaction begin() throws BookStoreException;
+
+	/**
+	 * Commits the transaction and unbinds its handle from the calling thread.
+	 *
+	 * @param transaction
+	 *            the handle of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void commit(BookStoreTransaction transaction) throws BookStoreException;
 
-	public void releaseAllLocks() throws BookStoreException;
+	/**
+	 * Aborts the transaction, undoing all its calls, and unbinds its handle
+	 * from the calling thread. A call failing in the transaction aborts it
+	 * already, but its handle stays bound until it is aborted with this method
+	 * too, which then succeeds.
+	 *
+	 * @param transaction
+	 *            the handle of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void abort(BookStoreTransaction transaction) throws BookStoreException;
 }
@@ -1,6 +1,8 @@
 package com.acertainbookstore.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * {@link BookStoreSerializer} specifies the serialization and de-serialization
@@ -19,6 +21,20 @@ public interface BookStoreSerializer {
 	 */
 	byte[] serialize(Object object) throws IOException;
 
+	/**
+	 * Serializes an object into a stream, without first making an array of
+	 * the bytes, e.g. the body of a response. The stream is flushed but not
+	 * closed.
+	 *
+	 * @param object
+	 *            the object
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void serialize(Object object, OutputStream out) throws IOException;
+
 	/**
 	 * De-serializes a sequence of bytes into an object.
 	 *
@@ -29,4 +45,17 @@ public interface BookStoreSerializer {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	Object deserialize(byte[] bytes) throws IOException;
+
+	/**
+	 * De-serializes an object read from a stream, without first copying the
+	 * whole stream into an array, e.g. the body of a request whose length is
+	 * not known in advance. The stream is not closed.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the object
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Object deserialize(InputStream in) throws IOException;
 }
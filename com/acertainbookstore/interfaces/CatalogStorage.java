@@ -0,0 +1,119 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import com.acertainbookstore.business.BookStoreBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link CatalogStorage} specifies how a lock-based store keeps its books,
+ * separately from how it controls concurrency, so that every storage engine
+ * can be combined with every concurrency control scheme. The store locks the
+ * books before calling the storage, which therefore needs not be thread-safe,
+ * except for {@link #newBook(StockBook)}.
+ * <p>
+ * A storage keeps {@link BookStoreBook} entries by ISBN. The entries are
+ * mutable and written in place by the store; an engine may keep their
+ * counters elsewhere, e.g. off the heap, by making entries of a subclass in
+ * {@link #newBook(StockBook)}.
+ */
+public interface CatalogStorage {
+
+	/**
+	 * Makes the entry of a new book, without storing it. It may be called by
+	 * several threads at once, e.g. during recovery.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the entry
+	 */
+	BookStoreBook newBook(StockBook book);
+
+	/**
+	 * Gets the entry of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not stored
+	 */
+	BookStoreBook get(int isbn);
+
+	/**
+	 * Checks whether a book is stored.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true if the book is stored
+	 */
+	boolean containsKey(int isbn);
+
+	/**
+	 * Stores the entry of a book, replacing the previous one, if any.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the entry, made by {@link #newBook(StockBook)}
+	 * @return the previous entry, or null if there was none
+	 */
+	BookStoreBook put(int isbn, BookStoreBook book);
+
+	/**
+	 * Removes the entry of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry removed, or null if the book was not stored
+	 */
+	BookStoreBook remove(int isbn);
+
+	/**
+	 * Removes all the entries.
+	 */
+	void clear();
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	int size();
+
+	/**
+	 * Scans the entries, in no particular order.
+	 *
+	 * @return a view of the entries
+	 */
+	Collection<BookStoreBook> values();
+
+	/**
+	 * Scans the entries of the editor picks. An engine that keeps the editor
+	 * picks apart can find them without visiting every entry.
+	 *
+	 * @param consumer
+	 *            gets the entries
+	 */
+	default void forEachEditorPick(Consumer<BookStoreBook> consumer) {
+		for (BookStoreBook book : values()) {
+			if (book.isEditorPick()) {
+				consumer.accept(book);
+			}
+		}
+	}
+
+	/**
+	 * Scans the entries of the books that had sale misses. An engine that
+	 * keeps the sale misses apart can find them without visiting every entry.
+	 *
+	 * @param consumer
+	 *            gets the entries
+	 */
+	default void forEachSaleMiss(Consumer<BookStoreBook> consumer) {
+		for (BookStoreBook book : values()) {
+			if (book.hadSaleMiss()) {
+				consumer.accept(book);
+			}
+		}
+	}
+}
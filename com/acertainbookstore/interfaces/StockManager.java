@@ -5,6 +5,7 @@ import java.util.Set;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -92,5 +93,37 @@ public interface StockManager {
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException;
 
-	public void releaseAllLocks() throws BookStoreException;
+	/**
+	 * Begins a transaction and binds its handle to the calling thread. Every
+	 * call the thread makes until the transaction is committed or aborted runs
+	 * in it. Calls made outside of a transaction are atomic on their own.
+	 *
+	 * @return the handle of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreTransaction begin() throws BookStoreException;
+
+	/**
+	 * Commits the transaction and unbinds its handle from the calling thread.
+	 *
+	 * @param transaction
+	 *            the handle of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void commit(BookStoreTransaction transaction) throws BookStoreException;
+
+	/**
+	 * Aborts the transaction, undoing all its calls, and unbinds its handle
+	 * from the calling thread. A call failing in the transaction aborts it
+	 * already, but its handle stays bound until it is aborted with this method
+	 * too, which then succeeds.
+	 *
+	 * @param transaction
+	 *            the handle of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void abort(BookStoreTransaction transaction) throws BookStoreException;
 }
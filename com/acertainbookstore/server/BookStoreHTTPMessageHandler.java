@@ -3,29 +3,32 @@ package com.acertainbookstore.server;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreTransaction;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializationFormat;
 import com.acertainbookstore.utils.BookStoreUtility;
-import com.esotericsoftware.kryo.io.Input;
 
 /**
  * {@link BookStoreHTTPMessageHandler} implements the message handler class
@@ -44,8 +47,11 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The stock manager. */
 	private StockManager stockManager = null;
 
-	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	/** The serializer of the content of the request handled by the thread. */
+	private static final ThreadLocal<BookStoreSerializer> requestSerializer = new ThreadLocal<>();
+
+	/** The serializer of the content of the response written by the thread. */
+	private static final ThreadLocal<BookStoreSerializer> responseSerializer = new ThreadLocal<>();
 
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
@@ -56,13 +62,6 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
 		this.bookStore = bookStore;
 		this.stockManager = stockManager;
-
-		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
 	}
 
 	/*
@@ -76,12 +75,15 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			throws IOException, ServletException {
 		BookStoreMessageTag messageTag;
 		String requestURI;
+		boolean isStockRequest;
 
 		response.setStatus(HttpServletResponse.SC_OK);
 		requestURI = request.getRequestURI();
 
 		// Need to do request multiplexing
-		if (!BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock")) {
+		isStockRequest = !BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock");
+
+		if (isStockRequest) {
 			// The request is from the store manager; more sophisticated.
 			// security features could be added here.
 			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI.substring(6));
@@ -89,7 +91,71 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI);
 		}
 
-		// The RequestURI before the switch.
+		// The request is read in the format it names, and the response is
+		// written in the format it accepts, preferably that of the request.
+		BookStoreSerializationFormat requestFormat = BookStoreSerializationFormat
+				.forContentType(request.getContentType());
+
+		if (requestFormat == null) {
+			response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			baseRequest.setHandled(true);
+			return;
+		}
+
+		BookStoreSerializationFormat responseFormat = BookStoreSerializationFormat
+				.forAccept(request.getHeader(HttpHeader.ACCEPT.asString()), requestFormat);
+
+		if (responseFormat == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+			baseRequest.setHandled(true);
+			return;
+		}
+
+		// The calls made for the request run in the transaction of the client, if any.
+		String transactionId = request.getHeader(BookStoreConstants.TRANSACTION_HEADER);
+
+		if (transactionId != null) {
+			try {
+				BookStoreTransaction.bind(new BookStoreTransaction(Long.parseLong(transactionId)));
+			} catch (NumberFormatException ex) {
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				baseRequest.setHandled(true);
+				return;
+			}
+		}
+
+		response.setContentType(responseFormat.getContentType());
+		requestSerializer.set(requestFormat.getSerializer());
+		responseSerializer.set(responseFormat.getSerializer());
+
+		try {
+			dispatch(messageTag, isStockRequest, request, response);
+		} finally {
+			BookStoreTransaction.unbind();
+			requestSerializer.remove();
+			responseSerializer.remove();
+		}
+
+		// Mark the request as handled so that the HTTP response can be sent
+		baseRequest.setHandled(true);
+	}
+
+	/**
+	 * Invokes the server API for the message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param isStockRequest
+	 *            whether the request is from the stock manager
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void dispatch(BookStoreMessageTag messageTag, boolean isStockRequest, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
 		if (messageTag == null) {
 			System.err.println("No message tag.");
 		} else {
@@ -114,6 +180,10 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				listBooks(response);
 				break;
 
+			case GETBOOKSINDEMAND:
+				getBooksInDemand(response);
+				break;
+
 			case UPDATEEDITORPICKS:
 				updateEditorPicks(request, response);
 				break;
@@ -130,18 +200,96 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				getEditorPicks(request, response);
 				break;
 
+			case GETTOPRATEDBOOKS:
+				getTopRatedBooks(request, response);
+				break;
+
+			case RATEBOOKS:
+				rateBooks(request, response);
+				break;
+
 			case GETSTOCKBOOKSBYISBN:
 				getStockBooksByISBN(request, response);
 				break;
 
+			case BEGIN:
+				begin(isStockRequest, response);
+				break;
+
+			case COMMIT:
+				endTransaction(isStockRequest, false, response);
+				break;
+
+			case ABORT:
+				endTransaction(isStockRequest, true, response);
+				break;
+
 			default:
 				System.err.println("Unsupported message tag.");
 				break;
 			}
 		}
+	}
 
-		// Mark the request as handled so that the HTTP response can be sent
-		baseRequest.setHandled(true);
+	/**
+	 * Begins a transaction.
+	 *
+	 * @param isStockRequest
+	 *            whether the request is from the stock manager
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void begin(boolean isStockRequest, HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			BookStoreTransaction transaction = isStockRequest ? stockManager.begin() : bookStore.begin();
+			List<Long> transactionIds = new ArrayList<>();
+			transactionIds.add(transaction.getId());
+			bookStoreResponse.setList(transactionIds);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Commits or aborts the transaction of the request.
+	 *
+	 * @param isStockRequest
+	 *            whether the request is from the stock manager
+	 * @param abort
+	 *            whether to abort the transaction
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void endTransaction(boolean isStockRequest, boolean abort, HttpServletResponse response)
+			throws IOException {
+		BookStoreTransaction transaction = BookStoreTransaction.current();
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (isStockRequest) {
+				if (abort) {
+					stockManager.abort(transaction);
+				} else {
+					stockManager.commit(transaction);
+				}
+			} else if (abort) {
+				bookStore.abort(transaction);
+			} else {
+				bookStore.commit(transaction);
+			}
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -156,9 +304,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> isbnSet = (Set<Integer>) requestSerializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -167,8 +313,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -192,8 +337,31 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getTopRatedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(bookStore.getTopRatedBooks(numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -208,9 +376,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> isbnSet = (Set<Integer>) requestSerializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -219,8 +385,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -235,9 +400,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) requestSerializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -246,8 +409,31 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Rates books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Set<BookRating> bookRatings = (Set<BookRating>) requestSerializer.get().deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStore.rateBooks(bookRatings);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -262,10 +448,8 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
+		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) requestSerializer.get()
+				.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -274,8 +458,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -294,8 +477,26 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInDemand(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		try {
+			bookStoreResponse.setList(stockManager.getBooksInDemand());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -310,9 +511,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> listBookCopies = (Set<BookCopy>) requestSerializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -321,8 +520,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -337,9 +535,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+		Set<StockBook> newBooks = (Set<StockBook>) requestSerializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -348,8 +544,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -369,8 +564,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -385,9 +579,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> bookSet = (Set<Integer>) requestSerializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -396,21 +588,6 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
-	}
-
-	/**
-	 * Gets the serialized request content.
-	 *
-	 * @param request the request
-	 * @return the serialized request content
-	 * @throws IOException Signals that an I/O exception has occurred.
-	 */
-	private byte[] getSerializedRequestContent(HttpServletRequest request) throws IOException {
-		Input in = new Input(request.getInputStream());
-		byte[] serializedRequestContent = in.readBytes(request.getContentLength());
-		in.close();
-		return serializedRequestContent;
+		responseSerializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 }
@@ -1,10 +1,20 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.MemoryMappedCertainBookStore;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -17,10 +27,25 @@ public class BookStoreHTTPServer {
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
 	
-	/** The constant, defining which locking scheme implementation to use
-	 *  true - single lock 
-	 *  false - two-level locking */
-	private static final boolean SINGLE_LOCK = true;
+	/** The concurrency control scheme used unless the concurrencycontrol
+	 *  property selects another one. */
+	private static final String DEFAULT_CONCURRENCY_CONTROL = BookStoreConstants.CONCURRENCY_CONTROL_SINGLE_LOCK;
+
+	/** The policy of forcing the write-ahead log unless the walfsync property selects another one. */
+	private static final WriteAheadLog.FsyncPolicy DEFAULT_WAL_FSYNC = WriteAheadLog.FsyncPolicy.GROUP_COMMIT;
+
+	/** The maximum wait of a group commit in microseconds, unless the walgroupcommitwait property sets it. */
+	private static final long DEFAULT_WAL_GROUP_COMMIT_WAIT = 500;
+
+	/** The number of waiting commits a group commit forces without waiting for more, e.g. one per Jetty thread. */
+	private static final int WAL_GROUP_COMMIT_MAX_BATCH_SIZE = MAX_THREADPOOL_SIZE;
+
+	/**
+	 * {@link Checkpoint} takes a checkpoint of the store served.
+	 */
+	private interface Checkpoint {
+		void take() throws BookStoreException;
+	}
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -39,16 +64,72 @@ public class BookStoreHTTPServer {
 		int listenOnPort = DEFAULT_PORT;
 		
 		BookStoreHTTPMessageHandler handler = null;
-		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
+		String concurrencyControl = System.getProperty(BookStoreConstants.PROPERTY_KEY_CONCURRENCY_CONTROL,
+				DEFAULT_CONCURRENCY_CONTROL);
+		boolean offHeapStock = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_OFF_HEAP_STOCK);
+		Checkpoint checkpoint = null;
+		String catalogFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_CATALOG_FILE);
+
+		try {
+			WriteAheadLog log = openWriteAheadLog();
+
+			if (catalogFile != null) {
+				if (log != null) {
+					System.err.println("The memory-mapped store does not support a write-ahead log, ignoring "
+							+ BookStoreConstants.PROPERTY_KEY_WAL_FILE);
+					log.close();
+				}
+
+				// Only the ISBNs of the catalog file are read before the server accepts requests.
+				MemoryMappedCertainBookStore bookStore = new MemoryMappedCertainBookStore(Paths.get(catalogFile));
+				handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			} else {
+				switch (concurrencyControl.toLowerCase()) {
+				case BookStoreConstants.CONCURRENCY_CONTROL_TWO_LEVEL_LOCKING: {
+					// The log, if any, is replayed before the server accepts requests.
+					TwoLevelLockingConcurrentCertainBookStore bookStore = (log == null)
+							? new TwoLevelLockingConcurrentCertainBookStore(offHeapStock)
+							: new TwoLevelLockingConcurrentCertainBookStore(offHeapStock, log);
+					checkpoint = (log == null) ? null : bookStore::checkpoint;
+					handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+					break;
+				}
+
+				case BookStoreConstants.CONCURRENCY_CONTROL_OPTIMISTIC: {
+					if (log != null) {
+						System.err.println("The optimistic store does not support a write-ahead log, ignoring "
+								+ BookStoreConstants.PROPERTY_KEY_WAL_FILE);
+						log.close();
+					}
+
+					OptimisticConcurrentCertainBookStore bookStore = new OptimisticConcurrentCertainBookStore();
+					handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+					break;
+				}
+
+				default: {
+					if (!concurrencyControl.equalsIgnoreCase(BookStoreConstants.CONCURRENCY_CONTROL_SINGLE_LOCK)) {
+						System.err.println("Unsupported concurrency control " + concurrencyControl + ", using "
+								+ BookStoreConstants.CONCURRENCY_CONTROL_SINGLE_LOCK);
+					}
+
+					SingleLockConcurrentCertainBookStore bookStore = (log == null)
+							? new SingleLockConcurrentCertainBookStore(offHeapStock)
+							: new SingleLockConcurrentCertainBookStore(offHeapStock, log);
+					checkpoint = (log == null) ? null : bookStore::checkpoint;
+					/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+					 * since it implements both interfaces: BookStore and StockManager */
+					handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+					break;
+				}
+				}
+			}
+		} catch (IOException ex) {
+			System.err.println("Cannot recover the catalog: " + ex.getMessage());
+			return;
+		}
+
+		scheduleCheckpoints(checkpoint);
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
@@ -63,4 +144,65 @@ public class BookStoreHTTPServer {
 		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
 		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
 	}
+
+	/**
+	 * Takes a checkpoint every number of seconds set by the checkpointinterval
+	 * property, if it is set and the store has a write-ahead log.
+	 *
+	 * @param checkpoint
+	 *            takes a checkpoint of the store, or null if it has no log
+	 */
+	private static void scheduleCheckpoints(Checkpoint checkpoint) {
+		long interval = Long.getLong(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL, 0);
+
+		if (checkpoint == null || interval <= 0) {
+			return;
+		}
+
+		ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "BookStore checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		checkpointer.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint.take();
+			} catch (BookStoreException ex) {
+				System.err.println("Cannot take a checkpoint: " + ex.getMessage());
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Opens the write-ahead log named by the walfile property.
+	 *
+	 * @return the log, or null if the property is not set
+	 * @throws IOException
+	 *             if the log cannot be opened
+	 */
+	private static WriteAheadLog openWriteAheadLog() throws IOException {
+		String walFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL_FILE);
+
+		if (walFile == null) {
+			return null;
+		}
+
+		WriteAheadLog.FsyncPolicy fsyncPolicy = DEFAULT_WAL_FSYNC;
+		String fsyncProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL_FSYNC);
+
+		if (fsyncProperty != null) {
+			try {
+				fsyncPolicy = WriteAheadLog.FsyncPolicy.valueOf(fsyncProperty.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Unsupported write-ahead log fsync policy " + fsyncProperty + ", using "
+						+ DEFAULT_WAL_FSYNC.name().toLowerCase());
+			}
+		}
+
+		long groupCommitMaxWaitMicros = Long.getLong(BookStoreConstants.PROPERTY_KEY_WAL_GROUP_COMMIT_WAIT,
+				DEFAULT_WAL_GROUP_COMMIT_WAIT);
+		return WriteAheadLog.open(Paths.get(walFile), fsyncPolicy, groupCommitMaxWaitMicros,
+				WAL_GROUP_COMMIT_MAX_BATCH_SIZE);
+	}
 }
@@ -7,10 +7,30 @@ package com.acertainbookstore.utils;
 public final class BookStoreConstants {
 
 	/**
-	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream.
+	 * The Constant BINARY_SERIALIZATION decides whether we use Kryo or XStream
+	 * by default, i.e. for the clients not choosing a format and for the
+	 * requests not naming one.
 	 */
 	public static final boolean BINARY_SERIALIZATION = true;
 
+	/** The Constant KRYO_CONTENT_TYPE naming the Kryo format. */
+	public static final String KRYO_CONTENT_TYPE = "application/x-kryo";
+
+	/** The Constant XML_CONTENT_TYPE naming the XStream format. */
+	public static final String XML_CONTENT_TYPE = "application/xml";
+
+	/**
+	 * The Constant GENERIC_CONTENT_TYPE sent by clients not naming a format,
+	 * whose content is in the default format.
+	 */
+	public static final String GENERIC_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * The Constant SERIALIZER_BUFFER_SIZE is the size of the buffer through
+	 * which a serializer reads a stream, e.g. the body of a request.
+	 */
+	public static final int SERIALIZER_BUFFER_SIZE = 4096;
+
 	// Constants used when creating URLs
 
 	/** The Constant BOOKISBN_PARAMs. */
@@ -54,12 +74,107 @@ public final class BookStoreConstants {
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
+	/** The Constant DEADLOCK. */
+	public static final String DEADLOCK = "The transaction was aborted to break a deadlock";
+
+	/** The Constant LOCK_TIMEOUT. */
+	public static final String LOCK_TIMEOUT = "The transaction was aborted after waiting too long for a lock";
+
+	/** The Constant TRANSACTION. */
+	public static final String TRANSACTION = "The transaction: ";
+
+	/** The Constant NOT_ACTIVE. */
+	public static final String NOT_ACTIVE = " is not active";
+
+	/** The Constant BUSY. */
+	public static final String BUSY = " is already running a call";
+
+	/** The Constant ALREADY_ACTIVE. */
+	public static final String ALREADY_ACTIVE = " is already active";
+
+	/** The Constant NO_TRANSACTION. */
+	public static final String NO_TRANSACTION = "no transaction is active";
+
+	/** The Constant NOT_DURABLE. */
+	public static final String NOT_DURABLE = "the store has no write-ahead log";
+
+	/** The Constant LOG_WRITE_FAILED. */
+	public static final String LOG_WRITE_FAILED = "the commit could not be written to the write-ahead log";
+
+	/** The Constant CHECKPOINT_FAILED. */
+	public static final String CHECKPOINT_FAILED = "the checkpoint could not be written";
+
+	/** The Constant CATALOG_FILE_FAILED. */
+	public static final String CATALOG_FILE_FAILED = "the catalog file could not be grown";
+
+	/** The Constant TRANSACTIONS_NOT_SUPPORTED. */
+	public static final String TRANSACTIONS_NOT_SUPPORTED = "explicit transactions are not supported, every call is atomic";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_CONCURRENCY_CONTROL. */
+	public static final String PROPERTY_KEY_CONCURRENCY_CONTROL = "concurrencycontrol";
+
+	/** The Constant CONCURRENCY_CONTROL_SINGLE_LOCK selects the single lock store. */
+	public static final String CONCURRENCY_CONTROL_SINGLE_LOCK = "singlelock";
+
+	/**
+	 * The Constant CONCURRENCY_CONTROL_TWO_LEVEL_LOCKING selects the two-level
+	 * locking store.
+	 */
+	public static final String CONCURRENCY_CONTROL_TWO_LEVEL_LOCKING = "twolevellocking";
+
+	/**
+	 * The Constant CONCURRENCY_CONTROL_OPTIMISTIC selects the optimistic
+	 * concurrency control store.
+	 */
+	public static final String CONCURRENCY_CONTROL_OPTIMISTIC = "optimistic";
+
+	/**
+	 * The Constant PROPERTY_KEY_OFF_HEAP_STOCK, which keeps the stock columns of
+	 * the lock-based stores off the heap when true.
+	 */
+	public static final String PROPERTY_KEY_OFF_HEAP_STOCK = "offheapstock";
+
+	/**
+	 * The Constant PROPERTY_KEY_WAL_FILE, the write-ahead log file of the
+	 * lock-based stores; their writes are not durable unless it is set.
+	 */
+	public static final String PROPERTY_KEY_WAL_FILE = "walfile";
+
+	/**
+	 * The Constant PROPERTY_KEY_WAL_FSYNC, the policy of forcing the write-ahead
+	 * log: per_operation, group_commit or periodic.
+	 */
+	public static final String PROPERTY_KEY_WAL_FSYNC = "walfsync";
+
+	/**
+	 * The Constant PROPERTY_KEY_WAL_GROUP_COMMIT_WAIT, the maximum time in
+	 * microseconds a group commit waits for more commits before forcing the
+	 * write-ahead log.
+	 */
+	public static final String PROPERTY_KEY_WAL_GROUP_COMMIT_WAIT = "walgroupcommitwait";
+
+	/**
+	 * The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL, the time in seconds
+	 * between the checkpoints of a store with a write-ahead log; no checkpoint
+	 * is taken unless it is set.
+	 */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/**
+	 * The Constant PROPERTY_KEY_CATALOG_FILE, the memory-mapped catalog file
+	 * served instead of an in-memory catalog when set.
+	 */
+	public static final String PROPERTY_KEY_CATALOG_FILE = "catalogfile";
+
+	/** The Constant TRANSACTION_HEADER carrying the transaction id of a request. */
+	public static final String TRANSACTION_HEADER = "X-BookStore-Transaction";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
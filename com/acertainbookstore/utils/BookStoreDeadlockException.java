@@ -0,0 +1,19 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreDeadlockException} signals that an operation was chosen as
+ * the victim of a deadlock and aborted. All locks held by the client have been
+ * released, so the operation can be retried.
+ */
+public class BookStoreDeadlockException extends BookStoreException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Instantiates a new {@link BookStoreDeadlockException}.
+	 */
+	public BookStoreDeadlockException() {
+		super(BookStoreConstants.DEADLOCK);
+	}
+}
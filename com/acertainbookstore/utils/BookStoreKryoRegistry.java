@@ -0,0 +1,386 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * {@link BookStoreKryoRegistry} registers the classes sent between the clients
+ * and the server with Kryo, so that each is written as a small id instead of
+ * its class name, and with a serializer writing only its fields: ISBNs and
+ * counters as variable-length integers, and titles and authors through a
+ * {@link StringTable}, so a string repeated in a message is written once.
+ * Sets and lists of ISBNs are written as packed integers without a class per
+ * element.
+ * <p>
+ * The ids are part of the wire format: a class added later takes the next id,
+ * and the id of a class is never changed or reused. Classes not registered
+ * here are still written with their names.
+ *
+ * @see BookStoreKryoSerializer
+ */
+final class BookStoreKryoRegistry {
+
+	// Kryo registers the primitive types and String itself, under ids 0 to 9.
+
+	/** The id of {@link ImmutableBook}. */
+	private static final int IMMUTABLE_BOOK_ID = 10;
+
+	/** The id of {@link ImmutableStockBook}. */
+	private static final int IMMUTABLE_STOCK_BOOK_ID = 11;
+
+	/** The id of {@link BookCopy}. */
+	private static final int BOOK_COPY_ID = 12;
+
+	/** The id of {@link BookRating}. */
+	private static final int BOOK_RATING_ID = 13;
+
+	/** The id of {@link BookEditorPick}. */
+	private static final int BOOK_EDITOR_PICK_ID = 14;
+
+	/** The id of {@link HashSet}. */
+	private static final int HASH_SET_ID = 15;
+
+	/** The id of {@link ArrayList}. */
+	private static final int ARRAY_LIST_ID = 16;
+
+	/** The id of {@link BookStoreResponse}. */
+	private static final int RESPONSE_ID = 17;
+
+	/** The id of {@link BookStoreException}. */
+	private static final int EXCEPTION_ID = 18;
+
+	/** The id of {@link BookStoreDeadlockException}. */
+	private static final int DEADLOCK_EXCEPTION_ID = 19;
+
+	private BookStoreKryoRegistry() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Registers the classes of the wire format.
+	 *
+	 * @param kryo
+	 *            the Kryo instance
+	 * @param strings
+	 *            the string table of the messages written and read by it
+	 */
+	static void register(Kryo kryo, StringTable strings) {
+		kryo.register(ImmutableBook.class, new ImmutableBookSerializer(strings), IMMUTABLE_BOOK_ID);
+		kryo.register(ImmutableStockBook.class, new ImmutableStockBookSerializer(strings), IMMUTABLE_STOCK_BOOK_ID);
+		kryo.register(BookCopy.class, new BookCopySerializer(), BOOK_COPY_ID);
+		kryo.register(BookRating.class, new BookRatingSerializer(), BOOK_RATING_ID);
+		kryo.register(BookEditorPick.class, new BookEditorPickSerializer(), BOOK_EDITOR_PICK_ID);
+		kryo.register(HashSet.class, new CollectionSerializer<HashSet<Object>>(
+				size -> new HashSet<>(Math.max(16, (int) (size / 0.75f) + 1))), HASH_SET_ID);
+		kryo.register(ArrayList.class, new CollectionSerializer<ArrayList<Object>>(ArrayList::new), ARRAY_LIST_ID);
+		kryo.register(BookStoreResponse.class, new ResponseSerializer(), RESPONSE_ID);
+		kryo.register(BookStoreException.class, new ExceptionSerializer<>(BookStoreException::new), EXCEPTION_ID);
+		kryo.register(BookStoreDeadlockException.class,
+				new ExceptionSerializer<>(message -> new BookStoreDeadlockException()), DEADLOCK_EXCEPTION_ID);
+	}
+
+	/**
+	 * {@link StringTable} writes every distinct string of a message once, and
+	 * refers to it by its index afterwards. It must be cleared before every
+	 * message written or read.
+	 */
+	static final class StringTable {
+
+		/** The tag of a null string. */
+		private static final int NULL = 0;
+
+		/** The tag of a string written in full; an index is written plus two. */
+		private static final int NEW = 1;
+
+		/** The index of every string written, by string. */
+		private final Map<String, Integer> written = new HashMap<>();
+
+		/** The strings read, by index. */
+		private final List<String> read = new ArrayList<>();
+
+		/**
+		 * Forgets the strings of the last message.
+		 */
+		void clear() {
+			written.clear();
+			read.clear();
+		}
+
+		/**
+		 * Writes a string, or its index if it was already written.
+		 *
+		 * @param output
+		 *            the output
+		 * @param string
+		 *            the string, which may be null
+		 */
+		void write(Output output, String string) {
+			if (string == null) {
+				output.writeVarInt(NULL, true);
+				return;
+			}
+
+			Integer index = written.putIfAbsent(string, written.size());
+
+			if (index == null) {
+				output.writeVarInt(NEW, true);
+				output.writeString(string);
+			} else {
+				output.writeVarInt(index + 2, true);
+			}
+		}
+
+		/**
+		 * Reads a string written by {@link #write}.
+		 *
+		 * @param input
+		 *            the input
+		 * @return the string, which may be null
+		 */
+		String read(Input input) {
+			int tag = input.readVarInt(true);
+
+			if (tag == NULL) {
+				return null;
+			} else if (tag == NEW) {
+				String string = input.readString();
+				read.add(string);
+				return string;
+			} else if (tag - 2 < read.size()) {
+				return read.get(tag - 2);
+			}
+
+			throw new KryoException("Unknown string index: " + (tag - 2));
+		}
+	}
+
+	/**
+	 * {@link ImmutableBookSerializer} writes an {@link ImmutableBook}.
+	 */
+	private static final class ImmutableBookSerializer extends Serializer<ImmutableBook> {
+
+		/** The string table. */
+		private final StringTable strings;
+
+		ImmutableBookSerializer(StringTable strings) {
+			this.strings = strings;
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ImmutableBook book) {
+			output.writeVarInt(book.getISBN(), true);
+			strings.write(output, book.getTitle());
+			strings.write(output, book.getAuthor());
+			output.writeFloat(book.getPrice());
+		}
+
+		@Override
+		public ImmutableBook read(Kryo kryo, Input input, Class<ImmutableBook> type) {
+			return new ImmutableBook(input.readVarInt(true), strings.read(input), strings.read(input),
+					input.readFloat());
+		}
+	}
+
+	/**
+	 * {@link ImmutableStockBookSerializer} writes an {@link ImmutableStockBook}.
+	 */
+	private static final class ImmutableStockBookSerializer extends Serializer<ImmutableStockBook> {
+
+		/** The string table. */
+		private final StringTable strings;
+
+		ImmutableStockBookSerializer(StringTable strings) {
+			this.strings = strings;
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ImmutableStockBook book) {
+			output.writeVarInt(book.getISBN(), true);
+			strings.write(output, book.getTitle());
+			strings.write(output, book.getAuthor());
+			output.writeFloat(book.getPrice());
+			output.writeVarInt(book.getNumCopies(), true);
+			output.writeVarLong(book.getNumSaleMisses(), true);
+			output.writeVarLong(book.getNumTimesRated(), true);
+			output.writeVarLong(book.getTotalRating(), true);
+			output.writeBoolean(book.isEditorPick());
+		}
+
+		@Override
+		public ImmutableStockBook read(Kryo kryo, Input input, Class<ImmutableStockBook> type) {
+			return new ImmutableStockBook(input.readVarInt(true), strings.read(input), strings.read(input),
+					input.readFloat(), input.readVarInt(true), input.readVarLong(true), input.readVarLong(true),
+					input.readVarLong(true), input.readBoolean());
+		}
+	}
+
+	/**
+	 * {@link BookCopySerializer} writes a {@link BookCopy}.
+	 */
+	private static final class BookCopySerializer extends Serializer<BookCopy> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookCopy bookCopy) {
+			output.writeVarInt(bookCopy.getISBN(), true);
+			output.writeVarInt(bookCopy.getNumCopies(), true);
+		}
+
+		@Override
+		public BookCopy read(Kryo kryo, Input input, Class<BookCopy> type) {
+			return new BookCopy(input.readVarInt(true), input.readVarInt(true));
+		}
+	}
+
+	/**
+	 * {@link BookRatingSerializer} writes a {@link BookRating}.
+	 */
+	private static final class BookRatingSerializer extends Serializer<BookRating> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookRating bookRating) {
+			output.writeVarInt(bookRating.getISBN(), true);
+			output.writeVarInt(bookRating.getRating(), true);
+		}
+
+		@Override
+		public BookRating read(Kryo kryo, Input input, Class<BookRating> type) {
+			return new BookRating(input.readVarInt(true), input.readVarInt(true));
+		}
+	}
+
+	/**
+	 * {@link BookEditorPickSerializer} writes a {@link BookEditorPick}.
+	 */
+	private static final class BookEditorPickSerializer extends Serializer<BookEditorPick> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookEditorPick editorPick) {
+			output.writeVarInt(editorPick.getISBN(), true);
+			output.writeBoolean(editorPick.isEditorPick());
+		}
+
+		@Override
+		public BookEditorPick read(Kryo kryo, Input input, Class<BookEditorPick> type) {
+			return new BookEditorPick(input.readVarInt(true), input.readBoolean());
+		}
+	}
+
+	/**
+	 * {@link CollectionSerializer} writes a collection as its size and its
+	 * elements. A collection of integers only, e.g. a set of ISBNs, is written
+	 * as packed variable-length integers, and any other as the class and the
+	 * value of every element.
+	 *
+	 * @param <T>
+	 *            the type of the collection
+	 */
+	private static final class CollectionSerializer<T extends Collection<Object>> extends Serializer<T> {
+
+		/** Makes an empty collection for a number of elements. */
+		private final IntFunction<T> factory;
+
+		CollectionSerializer(IntFunction<T> factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, T collection) {
+			boolean integers = true;
+
+			for (Object element : collection) {
+				if (!(element instanceof Integer)) {
+					integers = false;
+					break;
+				}
+			}
+
+			output.writeVarInt(collection.size(), true);
+			output.writeBoolean(integers);
+
+			for (Object element : collection) {
+				if (integers) {
+					output.writeVarInt((Integer) element, true);
+				} else {
+					kryo.writeClassAndObject(output, element);
+				}
+			}
+		}
+
+		@Override
+		public T read(Kryo kryo, Input input, Class<T> type) {
+			int size = input.readVarInt(true);
+			boolean integers = input.readBoolean();
+			T collection = factory.apply(size);
+
+			for (int i = 0; i < size; i++) {
+				collection.add(integers ? Integer.valueOf(input.readVarInt(true)) : kryo.readClassAndObject(input));
+			}
+
+			return collection;
+		}
+	}
+
+	/**
+	 * {@link ResponseSerializer} writes a {@link BookStoreResponse}.
+	 */
+	private static final class ResponseSerializer extends Serializer<BookStoreResponse> {
+
+		@Override
+		public void write(Kryo kryo, Output output, BookStoreResponse response) {
+			kryo.writeClassAndObject(output, response.getException());
+			kryo.writeClassAndObject(output, response.getList());
+		}
+
+		@Override
+		public BookStoreResponse read(Kryo kryo, Input input, Class<BookStoreResponse> type) {
+			BookStoreResponse response = new BookStoreResponse();
+			response.setException((BookStoreException) kryo.readClassAndObject(input));
+			response.setList((List<?>) kryo.readClassAndObject(input));
+			return response;
+		}
+	}
+
+	/**
+	 * {@link ExceptionSerializer} writes a {@link BookStoreException} as its
+	 * message. The stack trace and the cause stay on the server.
+	 *
+	 * @param <T>
+	 *            the type of the exception
+	 */
+	private static final class ExceptionSerializer<T extends BookStoreException> extends Serializer<T> {
+
+		/** Makes an exception with a message. */
+		private final Function<String, T> factory;
+
+		ExceptionSerializer(Function<String, T> factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, T exception) {
+			output.writeString(exception.getMessage());
+		}
+
+		@Override
+		public T read(Kryo kryo, Input input, Class<T> type) {
+			return factory.apply(input.readString());
+		}
+	}
+}
@@ -1,10 +1,9 @@
 package com.acertainbookstore.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import com.acertainbookstore.business.ImmutableStockBook;
+import java.io.OutputStream;
+
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -13,7 +12,8 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
 
 /**
  * {@link BookStoreKryoSerializer} serializes objects to arrays of bytes
- * representing strings using the Kryo library.
+ * representing strings using the Kryo library. The classes of the messages
+ * are registered by {@link BookStoreKryoRegistry}.
  * 
  * @see BookStoreSerializer
  */
@@ -22,13 +22,32 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	/** The binary stream. */
 	private final Kryo binaryStream;
 
+	/** The string table of the message being written or read. */
+	private final BookStoreKryoRegistry.StringTable strings = new BookStoreKryoRegistry.StringTable();
+
+	/**
+	 * The input, whose buffer is reused by every call, since a serializer is
+	 * only used by one thread at a time.
+	 */
+	private final Input input = new Input(BookStoreConstants.SERIALIZER_BUFFER_SIZE);
+
+	/**
+	 * The output, whose buffer is reused by every call. It is flushed to the
+	 * stream when full while writing into a stream, and grows as needed while
+	 * writing into an array.
+	 */
+	private final Output output = new Output(BookStoreConstants.SERIALIZER_BUFFER_SIZE, -1);
+
 	/**
 	 * Instantiates a new {@link BookStoreKryoSerializer}.
 	 */
 	public BookStoreKryoSerializer() {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-		binaryStream.register(ImmutableStockBook.class);
+
+		// Messages are trees, and repeated strings are shared by the string table.
+		binaryStream.setReferences(false);
+		BookStoreKryoRegistry.register(binaryStream, strings);
 	}
 
 	/*
@@ -40,10 +59,30 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public byte[] serialize(Object object) throws IOException {
-		try (ByteArrayOutputStream outStream = new ByteArrayOutputStream(); Output out = new Output(outStream)) {
-			binaryStream.writeClassAndObject(out, object);
-			out.flush();
-			return outStream.toByteArray();
+		output.clear();
+		strings.clear();
+		binaryStream.writeClassAndObject(output, object);
+		return output.toBytes();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		output.setOutputStream(out);
+		strings.clear();
+
+		try {
+			binaryStream.writeClassAndObject(output, object);
+			output.flush();
+		} finally {
+			// Do not keep the stream of a finished response reachable.
+			output.setOutputStream(null);
 		}
 	}
 
@@ -54,8 +93,29 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) throws IOException {
-		try (InputStream inStream = new ByteArrayInputStream(bytes); Input in = new Input(inStream)) {
-			return binaryStream.readClassAndObject(in);
+		// Read in place rather than through a stream over a copy of the bytes.
+		Input in = new Input(bytes);
+		strings.clear();
+		return binaryStream.readClassAndObject(in);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		input.setInputStream(in);
+		strings.clear();
+
+		try {
+			return binaryStream.readClassAndObject(input);
+		} finally {
+			// Do not keep the stream of a finished request reachable.
+			input.setInputStream(null);
 		}
 	}
 }
@@ -34,5 +34,23 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the begin transaction message. */
+	BEGIN,
+
+	/** The tag for the commit transaction message. */
+	COMMIT,
+
+	/** The tag for the abort transaction message. */
+	ABORT,
+
+	/** The tag for the top rated books message. */
+	GETTOPRATEDBOOKS,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the books in demand message. */
+	GETBOOKSINDEMAND;
 }
@@ -2,6 +2,8 @@ package com.acertainbookstore.utils;
 
 import org.eclipse.jetty.http.HttpMethod;
 
+import com.acertainbookstore.business.BookStoreTransaction;
+
 /**
  * {@link BookStoreRequest} is the data structure that encapsulates a HTTP
  * request from the bookstore client to the server.
@@ -17,6 +19,9 @@ public final class BookStoreRequest {
 	/** The input value. */
 	private final Object inputValue;
 
+	/** The transaction the request runs in, or null. */
+	private final BookStoreTransaction transaction;
+
 	/**
 	 * Instantiates a new {@link BookStoreRequest}.
 	 *
@@ -26,11 +31,15 @@ public final class BookStoreRequest {
 	 *            the URL string
 	 * @param inputValue
 	 *            the input value
+	 * @param transaction
+	 *            the transaction, or null
 	 */
-	private BookStoreRequest(HttpMethod method, String urlString, Object inputValue) {
+	private BookStoreRequest(HttpMethod method, String urlString, Object inputValue,
+			BookStoreTransaction transaction) {
 		this.method = method;
 		this.urlString = urlString;
 		this.inputValue = inputValue;
+		this.transaction = transaction;
 	}
 
 	/**
@@ -61,18 +70,40 @@ public final class BookStoreRequest {
 	}
 
 	/**
-	 * Gets a new GET request.
+	 * Gets the transaction the request runs in.
+	 *
+	 * @return the transaction, or null if the request runs in one of its own
+	 */
+	public BookStoreTransaction getTransaction() {
+		return transaction;
+	}
+
+	/**
+	 * Gets a new GET request in the transaction bound to the calling thread.
 	 *
 	 * @param urlString
 	 *            the URL string
 	 * @return the book store request
 	 */
 	public static BookStoreRequest newGetRequest(String urlString) {
-		return new BookStoreRequest(HttpMethod.GET, urlString, null);
+		return newGetRequest(urlString, BookStoreTransaction.current());
+	}
+
+	/**
+	 * Gets a new GET request in the given transaction.
+	 *
+	 * @param urlString
+	 *            the URL string
+	 * @param transaction
+	 *            the transaction, or null
+	 * @return the book store request
+	 */
+	public static BookStoreRequest newGetRequest(String urlString, BookStoreTransaction transaction) {
+		return new BookStoreRequest(HttpMethod.GET, urlString, null, transaction);
 	}
 
 	/**
-	 * Gets a new POST request.
+	 * Gets a new POST request in the transaction bound to the calling thread.
 	 *
 	 * @param urlString
 	 *            the URL string
@@ -81,6 +112,6 @@ public final class BookStoreRequest {
 	 * @return the book store request
 	 */
 	public static BookStoreRequest newPostRequest(String urlString, Object inputValue) {
-		return new BookStoreRequest(HttpMethod.POST, urlString, inputValue);
+		return new BookStoreRequest(HttpMethod.POST, urlString, inputValue, BookStoreTransaction.current());
 	}
 }
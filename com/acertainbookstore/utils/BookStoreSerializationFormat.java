@@ -0,0 +1,231 @@
+package com.acertainbookstore.utils;
+
+import java.util.function.Supplier;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreSerializationFormat} enumerates the formats in which the
+ * clients and the server may exchange messages, and the content type naming
+ * each in the <code>Content-Type</code> and <code>Accept</code> headers. The
+ * server reads every request and writes every response in the format named by
+ * the headers of the request, so that clients using different formats can be
+ * served at the same time.
+ * <p>
+ * Every format keeps a {@link BookStoreSerializer} per thread, since the
+ * serializers are not thread-safe.
+ */
+public enum BookStoreSerializationFormat {
+
+	/** The binary format of {@link BookStoreKryoSerializer}. */
+	KRYO(BookStoreConstants.KRYO_CONTENT_TYPE, BookStoreKryoSerializer::new),
+
+	/** The XML format of {@link BookStoreXStreamSerializer}. */
+	XSTREAM(BookStoreConstants.XML_CONTENT_TYPE, BookStoreXStreamSerializer::new);
+
+	/** The content type. */
+	private final String contentType;
+
+	/** The serializer of every thread. */
+	private final ThreadLocal<BookStoreSerializer> serializers;
+
+	/**
+	 * Instantiates a new {@link BookStoreSerializationFormat}.
+	 *
+	 * @param contentType
+	 *            the content type
+	 * @param serializerFactory
+	 *            makes a serializer for a thread
+	 */
+	BookStoreSerializationFormat(String contentType, Supplier<BookStoreSerializer> serializerFactory) {
+		this.contentType = contentType;
+		this.serializers = ThreadLocal.withInitial(serializerFactory);
+	}
+
+	/**
+	 * Gets the content type.
+	 *
+	 * @return the content type
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Gets the serializer of the calling thread.
+	 *
+	 * @return the serializer
+	 */
+	public BookStoreSerializer getSerializer() {
+		return serializers.get();
+	}
+
+	/**
+	 * Gets the format used when none is named, which is decided by
+	 * {@link BookStoreConstants#BINARY_SERIALIZATION}.
+	 *
+	 * @return the default format
+	 */
+	public static BookStoreSerializationFormat getDefault() {
+		return BookStoreConstants.BINARY_SERIALIZATION ? KRYO : XSTREAM;
+	}
+
+	/**
+	 * Gets the format of a content, given its <code>Content-Type</code>.
+	 * Content not naming a format, i.e. without a type or with the generic
+	 * binary type sent by clients preceding the formats, is taken to be in the
+	 * default format.
+	 *
+	 * @param contentType
+	 *            the content type, or null
+	 * @return the format, or null if the content type names another format
+	 */
+	public static BookStoreSerializationFormat forContentType(String contentType) {
+		if (contentType == null) {
+			return getDefault();
+		}
+
+		String mediaType = mediaTypeOf(contentType);
+
+		if (mediaType.equalsIgnoreCase(BookStoreConstants.GENERIC_CONTENT_TYPE)) {
+			return getDefault();
+		}
+
+		return forMediaType(mediaType);
+	}
+
+	/**
+	 * Gets the format most preferred by an <code>Accept</code> header. Every
+	 * format takes the quality of the most specific media range matching it,
+	 * and of the formats of the same quality, those the header names come
+	 * first, in its order, then the fallback, which a request without the header
+	 * gets.
+	 *
+	 * @param accept
+	 *            the accepted content types, or null
+	 * @param fallback
+	 *            the format used unless the header prefers another
+	 * @return the format, or null if the header refuses every format
+	 */
+	public static BookStoreSerializationFormat forAccept(String accept, BookStoreSerializationFormat fallback) {
+		if (accept == null) {
+			return fallback;
+		}
+
+		String[] ranges = accept.split(",");
+		BookStoreSerializationFormat preferred = null;
+		float preferredQuality = 0.0f;
+
+		for (String range : ranges) {
+			BookStoreSerializationFormat format = forMediaType(mediaTypeOf(range));
+
+			if (format != null && format.qualityIn(ranges) > preferredQuality) {
+				preferred = format;
+				preferredQuality = format.qualityIn(ranges);
+			}
+		}
+
+		// The formats accepted through a wildcard only, the fallback first.
+		if (fallback.qualityIn(ranges) > preferredQuality) {
+			preferred = fallback;
+			preferredQuality = fallback.qualityIn(ranges);
+		}
+
+		for (BookStoreSerializationFormat format : values()) {
+			if (format.qualityIn(ranges) > preferredQuality) {
+				preferred = format;
+				preferredQuality = format.qualityIn(ranges);
+			}
+		}
+
+		return preferred;
+	}
+
+	/**
+	 * Gets the quality of the format in the media ranges of an
+	 * <code>Accept</code> header, i.e. that of the most specific range matching
+	 * its content type, or zero if none does.
+	 */
+	private float qualityIn(String[] ranges) {
+		int matchedSpecificity = -1;
+		float quality = 0.0f;
+
+		for (String range : ranges) {
+			int specificity = specificityFor(mediaTypeOf(range));
+
+			if (specificity > matchedSpecificity) {
+				matchedSpecificity = specificity;
+				quality = qualityOf(range);
+			}
+		}
+
+		return quality;
+	}
+
+	/**
+	 * Gets how specifically a media range matches the content type of the
+	 * format: two if it names it, one if it names its type with any subtype, zero
+	 * if it names any type, or minus one if it does not match it.
+	 */
+	private int specificityFor(String mediaRange) {
+		if (mediaRange.equalsIgnoreCase(contentType)) {
+			return 2;
+		}
+
+		int subtype = contentType.indexOf('/');
+
+		if (mediaRange.equalsIgnoreCase(contentType.substring(0, subtype + 1) + "*")) {
+			return 1;
+		}
+
+		return mediaRange.equals("*/*") ? 0 : -1;
+	}
+
+	/**
+	 * Gets the format with a media type.
+	 *
+	 * @param mediaType
+	 *            the media type, without parameters
+	 * @return the format, or null if none has the media type
+	 */
+	private static BookStoreSerializationFormat forMediaType(String mediaType) {
+		for (BookStoreSerializationFormat format : values()) {
+			if (format.contentType.equalsIgnoreCase(mediaType)) {
+				return format;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the media type of a content type or of a media range, without its
+	 * parameters.
+	 */
+	private static String mediaTypeOf(String contentType) {
+		int parameters = contentType.indexOf(';');
+		return (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim();
+	}
+
+	/**
+	 * Gets the quality of a media range, i.e. its <code>q</code> parameter, or
+	 * one if it has none or an invalid one.
+	 */
+	private static float qualityOf(String range) {
+		String[] parameters = range.split(";");
+
+		for (int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].trim();
+
+			if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+				try {
+					return Float.parseFloat(parameter.substring(2).trim());
+				} catch (NumberFormatException ex) {
+					return 1.0f;
+				}
+			}
+		}
+
+		return 1.0f;
+	}
+}
@@ -155,14 +155,16 @@ public final class BookStoreUtility {
 	 *            the client
 	 * @param bookStoreRequest
 	 *            the book store request
-	 * @param serializer
-	 *            the serializer
+	 * @param format
+	 *            the format in which the request is written and the response
+	 *            is asked for
 	 * @return the book store response
 	 * @throws BookStoreException
 	 *             the book store exception
 	 */
 	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
-			BookStoreSerializer serializer) throws BookStoreException {
+			BookStoreSerializationFormat format) throws BookStoreException {
+		BookStoreSerializer serializer = format.getSerializer();
 		Request request;
 
 		switch (bookStoreRequest.getMethod()) {
@@ -173,7 +175,7 @@ public final class BookStoreUtility {
 		case POST:
 			try {
 				byte[] serializedValue = serializer.serialize(bookStoreRequest.getInputValue());
-				ContentProvider contentProvider = new BytesContentProvider(serializedValue);
+				ContentProvider contentProvider = new BytesContentProvider(format.getContentType(), serializedValue);
 				request = client.POST(bookStoreRequest.getURLString()).content(contentProvider);
 			} catch (IOException ex) {
 				throw new BookStoreException("Serialization error", ex);
@@ -185,6 +187,13 @@ public final class BookStoreUtility {
 			throw new IllegalArgumentException("HTTP Method not supported.");
 		}
 
+		request.accept(format.getContentType());
+
+		if (bookStoreRequest.getTransaction() != null) {
+			request.header(BookStoreConstants.TRANSACTION_HEADER,
+					Long.toString(bookStoreRequest.getTransaction().getId()));
+		}
+
 		ContentResponse response;
 
 		try {
@@ -200,7 +209,12 @@ public final class BookStoreUtility {
 		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			// A server preceding the formats answers in its default format.
+			BookStoreSerializationFormat responseFormat = BookStoreSerializationFormat
+					.forContentType(response.getMediaType());
+			BookStoreSerializer responseSerializer = (responseFormat != null) ? responseFormat.getSerializer()
+					: serializer;
+			bookStoreResponse = (BookStoreResponse) responseSerializer.deserialize(response.getContent());
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
 		}
@@ -1,20 +1,30 @@
 package com.acertainbookstore.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
  * {@link BookStoreXStreamSerializer} serializes objects to arrays of bytes
  * representing XML trees using the XStream library.
+ * <p>
+ * The XML is written and parsed by StAX straight from and into byte streams,
+ * always encoded in UTF-8, so that a message never exists as a
+ * {@link String} besides its bytes. The {@link com.thoughtworks.xstream.XStream}
+ * of the calling thread is taken from {@link BookStoreUtility#XML_STREAMS}.
  * 
  * @see BookStoreSerializer
  */
 public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 
-	/** The XML stream. */
-	private final XStream xmlStream = new XStream(new StaxDriver());
-
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -23,9 +33,26 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	 * Object)
 	 */
 	@Override
-	public byte[] serialize(Object object) {
-		String xml = xmlStream.toXML(object);
-		return xml.getBytes();
+	public byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream(BookStoreConstants.SERIALIZER_BUFFER_SIZE);
+		serialize(object, outStream);
+		return outStream.toByteArray();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		// The writer buffers the encoded bytes; it is flushed but not closed,
+		// which would close the stream.
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		BookStoreUtility.XML_STREAMS.get().toXML(object, writer);
+		writer.flush();
 	}
 
 	/*
@@ -36,7 +63,18 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) {
-		String xml = new String(bytes);
-		return xmlStream.fromXML(xml);
+		return deserialize(new ByteArrayInputStream(bytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) {
+		return BookStoreUtility.XML_STREAMS.get().fromXML(new InputStreamReader(in, StandardCharsets.UTF_8));
 	}
 }
@@ -0,0 +1,311 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntHashSet} is a set of <code>int</code>s, e.g. ISBNs, laid out like
+ * {@link IntObjectHashMap}: open addressing with linear probing over an array
+ * of keys and a parallel array marking the used slots. It is a
+ * <code>Set&lt;Integer&gt;</code>, so it can be passed wherever the API takes
+ * a set of ISBNs, while {@link #add(int)}, {@link #contains(int)} and
+ * {@link #remove(int)} do not box. Its iterator supports removal, and so do
+ * the bulk operations of {@link AbstractSet} built on it.
+ * <p>
+ * The set is not thread-safe.
+ *
+ * @see IntObjectHashMap
+ */
+public final class IntHashSet extends AbstractSet<Integer> {
+
+	/** The keys, by slot. */
+	private int[] keys;
+
+	/** Whether every slot is used. */
+	private boolean[] used;
+
+	/** The mask giving the slot of a hash, which is the capacity minus one. */
+	private int mask;
+
+	/** The number of keys. */
+	private int size;
+
+	/** The number of keys beyond which the arrays grow. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new, empty {@link IntHashSet}.
+	 */
+	public IntHashSet() {
+		this(0);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntHashSet} holding the given number of
+	 * keys without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of keys
+	 */
+	public IntHashSet(int expectedSize) {
+		allocate(IntObjectHashMap.capacityFor(expectedSize));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the set has the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is in the set
+	 */
+	public boolean contains(int key) {
+		return used[slotOf(key)];
+	}
+
+	/**
+	 * Adds the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key was not in the set yet
+	 */
+	public boolean add(int key) {
+		int slot = slotOf(key);
+
+		if (used[slot]) {
+			return false;
+		}
+
+		keys[slot] = key;
+		used[slot] = true;
+
+		if (++size > threshold) {
+			rehash(keys.length * 2);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key was in the set
+	 */
+	public boolean remove(int key) {
+		int slot = slotOf(key);
+
+		if (!used[slot]) {
+			return false;
+		}
+
+		removeAt(slot, null);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer && contains(((Integer) o).intValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(Integer key) {
+		return add(key.intValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object o) {
+		return o instanceof Integer && remove(((Integer) o).intValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#clear()
+	 */
+	@Override
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<Integer> iterator() {
+		return new KeyIterator();
+	}
+
+	/**
+	 * Removes the key in the slot, shifting back the following keys of the
+	 * run, cf. {@link IntObjectHashMap}. A key shifted from the start of the
+	 * array to its end, past the slot the iterator is at, is handed to the
+	 * iterator so that it is not skipped.
+	 */
+	private void removeAt(int slot, KeyIterator iterator) {
+		int free = slot;
+
+		for (int next = (free + 1) & mask; used[next]; next = (next + 1) & mask) {
+			int home = IntObjectHashMap.hash(keys[next]) & mask;
+
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				if (iterator != null && next < slot && free >= slot) {
+					iterator.skipped(keys[next]);
+				}
+
+				keys[free] = keys[next];
+				free = next;
+			}
+		}
+
+		used[free] = false;
+		size--;
+	}
+
+	private int slotOf(int key) {
+		int slot = IntObjectHashMap.hash(key) & mask;
+
+		while (used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+
+		for (int i = 0; i < oldUsed.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				used[slot] = true;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		threshold = capacity - (capacity >>> 2);
+	}
+
+	/**
+	 * Iterates over the slots from the end of the array to its start, so that
+	 * removing a key only shifts back keys already returned, except for those
+	 * of a run wrapping around the end, which are returned last.
+	 */
+	private final class KeyIterator implements Iterator<Integer> {
+
+		/** The slot of the next key, or -1 after the last slot. */
+		private int next = advance(used.length - 1);
+
+		/** The slot of the key returned last, or -1 if it was skipped. */
+		private int last = -1;
+
+		/** The key returned last. */
+		private int lastKey;
+
+		/** Whether the key returned last can be removed. */
+		private boolean removable;
+
+		/** The keys shifted past the slots left, returned after them. */
+		private int[] skipped = new int[0];
+
+		/** The number of skipped keys. */
+		private int numSkipped;
+
+		/** The number of skipped keys returned. */
+		private int numSkippedReturned;
+
+		private int advance(int slot) {
+			while (slot >= 0 && !used[slot]) {
+				slot--;
+			}
+
+			return slot;
+		}
+
+		private void skipped(int key) {
+			if (numSkipped == skipped.length) {
+				skipped = Arrays.copyOf(skipped, Math.max(4, numSkipped * 2));
+			}
+
+			skipped[numSkipped++] = key;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next >= 0 || numSkippedReturned < numSkipped;
+		}
+
+		@Override
+		public Integer next() {
+			if (next >= 0) {
+				last = next;
+				lastKey = keys[next];
+				next = advance(next - 1);
+			} else if (numSkippedReturned < numSkipped) {
+				last = -1;
+				lastKey = skipped[numSkippedReturned++];
+			} else {
+				throw new NoSuchElementException();
+			}
+
+			removable = true;
+			return lastKey;
+		}
+
+		@Override
+		public void remove() {
+			if (!removable) {
+				throw new IllegalStateException();
+			}
+
+			removable = false;
+
+			if (last >= 0) {
+				removeAt(last, this);
+				// The shift may have freed the next slot, at the start of a
+				// wrapping run.
+				next = advance(next);
+			} else {
+				IntHashSet.this.remove(lastKey);
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntIntHashMap} is a hash map from <code>int</code> keys, e.g. ISBNs,
+ * to non-negative <code>int</code> values, e.g. the slots or positions of
+ * books. It is laid out like {@link IntObjectHashMap}, with an array of values
+ * in place of the array of references, so neither a lookup nor a put boxes,
+ * and an entry costs two <code>int</code>s. A slot whose value is
+ * {@link #NO_VALUE} is free.
+ * <p>
+ * The map is not thread-safe.
+ *
+ * @see IntObjectHashMap
+ */
+public final class IntIntHashMap {
+
+	/** The value of the keys without an entry, which marks the free slots. */
+	public static final int NO_VALUE = -1;
+
+	/** The keys, by slot. */
+	private int[] keys;
+
+	/** The values, by slot, {@link #NO_VALUE} for a free slot. */
+	private int[] values;
+
+	/** The mask giving the slot of a hash, which is the capacity minus one. */
+	private int mask;
+
+	/** The number of entries. */
+	private int size;
+
+	/** The number of entries beyond which the arrays grow. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new, empty {@link IntIntHashMap}.
+	 */
+	public IntIntHashMap() {
+		this(0);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntIntHashMap} holding the given number
+	 * of entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntIntHashMap(int expectedSize) {
+		allocate(IntObjectHashMap.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there are no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map has an entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if there is an entry
+	 */
+	public boolean containsKey(int key) {
+		return values[slotOf(key)] != NO_VALUE;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or {@link #NO_VALUE} if there is no entry for the key
+	 */
+	public int get(int key) {
+		return values[slotOf(key)];
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, which must not be negative
+	 * @return the previous value, or {@link #NO_VALUE} if there was no entry
+	 *         for the key
+	 */
+	public int put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("The values of an IntIntHashMap must not be negative");
+		}
+
+		int slot = slotOf(key);
+		int previous = values[slot];
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (previous == NO_VALUE && ++size > threshold) {
+			rehash(keys.length * 2);
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes the entry of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value removed, or {@link #NO_VALUE} if there was no entry for
+	 *         the key
+	 */
+	public int remove(int key) {
+		int slot = slotOf(key);
+		int previous = values[slot];
+
+		if (previous == NO_VALUE) {
+			return NO_VALUE;
+		}
+
+		// Shift back the following entries of the run that probed past the
+		// slot, so that every entry stays reachable from its home slot.
+		int free = slot;
+
+		for (int next = (free + 1) & mask; values[next] != NO_VALUE; next = (next + 1) & mask) {
+			int home = IntObjectHashMap.hash(keys[next]) & mask;
+
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+		}
+
+		values[free] = NO_VALUE;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(values, NO_VALUE);
+		size = 0;
+	}
+
+	/**
+	 * Gets the slot of the key: its slot if there is an entry for it,
+	 * otherwise the free slot ending its probe sequence.
+	 */
+	private int slotOf(int key) {
+		int slot = IntObjectHashMap.hash(key) & mask;
+
+		while (values[slot] != NO_VALUE && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != NO_VALUE) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+		threshold = capacity - (capacity >>> 2); // a load factor of 0.75
+	}
+}
@@ -0,0 +1,277 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntObjectHashMap} is a hash map from <code>int</code> keys, e.g.
+ * ISBNs, to non-null values. It uses open addressing with linear probing over
+ * a pair of parallel arrays, so a lookup neither boxes the key nor follows a
+ * pointer to an entry, and an entry costs a slot in each array instead of a
+ * node and a boxed key. A slot whose value is null is free, and removals shift
+ * the following entries back instead of leaving tombstones.
+ * <p>
+ * The map is not thread-safe.
+ *
+ * @param <V>
+ *            the type of the values
+ * @see IntHashSet
+ */
+public final class IntObjectHashMap<V> {
+
+	/** The default capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The keys, by slot. */
+	private int[] keys;
+
+	/** The values, by slot, null for a free slot. */
+	private V[] values;
+
+	/** The mask giving the slot of a hash, which is the capacity minus one. */
+	private int mask;
+
+	/** The number of entries. */
+	private int size;
+
+	/** The number of entries beyond which the arrays grow. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new, empty {@link IntObjectHashMap}.
+	 */
+	public IntObjectHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntObjectHashMap} holding the given
+	 * number of entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntObjectHashMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there are no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map has an entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if there is an entry
+	 */
+	public boolean containsKey(int key) {
+		return values[slotOf(key)] != null;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there is no entry for the key
+	 */
+	public V get(int key) {
+		return values[slotOf(key)];
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, which must not be null
+	 * @return the previous value, or null if there was no entry for the key
+	 */
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("The values of an IntObjectHashMap must not be null");
+		}
+
+		int slot = slotOf(key);
+		V previous = values[slot];
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (previous == null && ++size > threshold) {
+			rehash(keys.length * 2);
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes the entry of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value removed, or null if there was no entry for the key
+	 */
+	public V remove(int key) {
+		int slot = slotOf(key);
+		V previous = values[slot];
+
+		if (previous == null) {
+			return null;
+		}
+
+		// Shift back the following entries of the run that probed past the
+		// slot, so that every entry stays reachable from its home slot.
+		int free = slot;
+
+		for (int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+		}
+
+		values[free] = null;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Gets a view of the values. The view supports neither adding nor
+	 * removing values, and must not be used while the map changes.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					/** The slot of the next value, or the capacity after the last one. */
+					private int next = advance(0);
+
+					private int advance(int slot) {
+						while (slot < values.length && values[slot] == null) {
+							slot++;
+						}
+
+						return slot;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < values.length;
+					}
+
+					@Override
+					public V next() {
+						if (next >= values.length) {
+							throw new NoSuchElementException();
+						}
+
+						V value = values[next];
+						next = advance(next + 1);
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Gets the slot of the key: its slot if there is an entry for it,
+	 * otherwise the free slot ending its probe sequence.
+	 */
+	private int slotOf(int key) {
+		int slot = hash(key) & mask;
+
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		V[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = (V[]) new Object[capacity];
+		mask = capacity - 1;
+		threshold = capacity - (capacity >>> 2); // a load factor of 0.75
+	}
+
+	/**
+	 * Gets the power of two capacity holding the number of entries without
+	 * growing.
+	 */
+	static int capacityFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+
+		while (capacity - (capacity >>> 2) < expectedSize) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	/**
+	 * Scrambles the key, so that consecutive ISBNs do not form long runs of
+	 * occupied slots.
+	 */
+	static int hash(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}